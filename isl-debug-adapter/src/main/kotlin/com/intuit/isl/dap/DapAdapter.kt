@@ -9,6 +9,7 @@ import com.intuit.isl.cmd.IslModuleResolver
 import com.intuit.isl.cmd.LogExtensions
 import com.intuit.isl.cmd.YamlUnitTestRunner
 import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.common.BaseOperationContext
 import com.intuit.isl.common.ExecutionContext
 import com.intuit.isl.common.OperationContext
 import com.intuit.isl.common.TransformVariable
@@ -486,7 +487,8 @@ class DapAdapter(private val transport: DapTransport) {
         val ctx = ctx ?: debugHook.currentContext ?: return emptyList()
         val variables = mutableListOf<DapVariable>()
 
-        ctx.operationContext.variables.forEach { (name, transformVar) ->
+        val visible = (ctx.operationContext as? BaseOperationContext)?.visibleVariables() ?: ctx.operationContext.variables
+        visible.forEach { (name, transformVar) ->
             val value = transformVar.value
             val displayName = if (name.startsWith("\$")) name else "\$$name"
             val (displayValue, childRef) = formatJsonValue(name, value)
@@ -7,6 +7,7 @@ import com.intuit.isl.common.OperationContext
 import com.intuit.isl.runtime.ITransformer
 import com.intuit.isl.runtime.TransformCompiler
 import com.intuit.isl.types.TypedJsonNodeFactory
+import com.intuit.isl.utils.ConstantObjectNode
 import com.intuit.isl.utils.ConvertUtils
 import org.openjdk.jmh.annotations.Benchmark
 import org.openjdk.jmh.annotations.BenchmarkMode
@@ -23,8 +24,8 @@ import java.util.concurrent.TimeUnit
 
 /**
  * Microbenchmark for the `mapDepositTransactionType`-style pattern: large literal string→string map,
- * then a lookup modifier. Compares **current ISL** (object built via command tree each run) to a
- * simulation of **ConstantJsonCommand + [ObjectNode.deepCopy]** (prototype built once, copy + lookup per call).
+ * then a lookup modifier. Compares **current ISL** (constant object folded at compile time, copy-on-write per run)
+ * to a simulation of **ConstantJsonCommand + [ObjectNode.deepCopy]** (prototype built once, copy + lookup per call).
  *
  * Run (from repo root):
  * `./gradlew :isl-transform:jmh -PjmhIncludes=MapDepositConstantObjectBenchmark`
@@ -70,7 +71,17 @@ open class MapDepositConstantObjectBenchmark {
     }
 
     /**
-     * Lower bound if the map could be shared read-only (not safe with mutable [ObjectNode] today).
+     * What [com.intuit.isl.commands.ConstantObjectBuildCommand] does now: a copy-on-write view over the prototype,
+     * the lookup only reads scalar values so nothing is copied.
+     */
+    @Benchmark
+    fun prebuiltCopyOnWriteAndLookup(bh: Blackhole) {
+        val view = ConstantObjectNode(prototype)
+        bh.consume(lookupDepositMap(view, LOOKUP_KEY))
+    }
+
+    /**
+     * Lower bound if the map could be shared read-only (not safe with a mutable [ObjectNode]).
      * Included to show how much [deepCopy] costs relative to lookup-only.
      */
     @Benchmark
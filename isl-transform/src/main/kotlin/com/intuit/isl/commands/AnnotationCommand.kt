@@ -23,7 +23,7 @@ class AnnotationCommand(
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val annotationCallback = executionContext.operationContext.getAnnotation(token.annotationName);
         val args =
-            arguments.map { ConvertUtils.extractFromNode(it.execute(executionContext).value) }.toTypedArray();
+            arguments.map { ConvertUtils.extractFromNode(it.evaluate(executionContext)) }.toTypedArray();
 
         if (annotationCallback == null) {
             val error = "Unknown Annotation: ${token.annotationName}";
@@ -2,8 +2,10 @@ package com.intuit.isl.commands
 
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.getTransformVariableCanonical
 import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
 import com.intuit.isl.utils.JsonConvert
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.parser.tokens.AssignVariableToken
@@ -14,7 +16,14 @@ import com.intuit.isl.types.TypedJsonNodeFactory
 /**
  * $var: value
  */
-class AssignVariableCommand(token: AssignVariableToken, val value: IIslCommand) : BaseCommand(token) {
+class AssignVariableCommand(
+    token: AssignVariableToken,
+    val value: IIslCommand,
+    internal val layout: VariableSlotLayout? = null
+) : BaseCommand(token) {
+    // $var.prop: merges go through the name based path, they need the readonly checks on the existing variable
+    private val variableSlot = if (token.topPropertyName == null) layout?.slotFor(token.name) else null
+
     override val token: AssignVariableToken
         get() = super.token as AssignVariableToken;
 
@@ -43,7 +52,7 @@ class AssignVariableCommand(token: AssignVariableToken, val value: IIslCommand)
                 // TODO: we should really try to modify whatever variable we already have so we can build complex objects
                 // (maybe some append command?)
                 // we need to traverse the tree in order to do this properly
-                executionContext.operationContext.setVariableCanonical(token.name, node);
+                executionContext.operationContext.setVariableSlotOrCanonical(variableSlot, token.name, node);
             }
             return CommandResult.NULL
         }catch (e: TransformException){
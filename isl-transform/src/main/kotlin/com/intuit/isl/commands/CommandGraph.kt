@@ -0,0 +1,150 @@
+package com.intuit.isl.commands
+
+import com.intuit.isl.commands.modifiers.*
+
+/**
+ * Structure of the command graph: the direct children of each command type.
+ * Shared by the walkers ([CoverageStatementIdAssigner]) and the build time optimizer.
+ */
+internal object CommandGraph {
+    /**
+     * Calls [action] for each direct child of [cmd], null children are skipped.
+     */
+    fun forEachChild(cmd: IIslCommand, action: (IIslCommand) -> Unit) {
+        when (cmd) {
+            is FunctionDeclarationCommand -> action.child(cmd.statements)
+            is RecursiveFunctionDeclarationCommand -> action.child(cmd.statements)
+            is FunctionReturnCommandHandler -> action.child(cmd.statements)
+            is FunctionReturnCommand -> action.child(cmd.returnExpression)
+            is AssignPropertyCommand -> action.child(cmd.value)
+            is AssignDynamicPropertyCommand -> {
+                action.child(cmd.name)
+                action.child(cmd.value)
+            }
+            is AssignVariableCommand -> action.child(cmd.value)
+            is StatementsBuildCommand -> cmd.commands.forEach { action.child(it) }
+            is ObjectBuildCommand -> cmd.commands.forEach { action.child(it) }
+            is ParallelCallsCommand -> cmd.properties.forEach { action.child(it) }
+            is ConstantObjectBuildCommand -> Unit
+            is SpreadCommand -> action.child(cmd.variable)
+            is AnnotationCommand -> {
+                cmd.arguments.forEach { action.child(it) }
+                action.child(cmd.nextCommand)
+            }
+            is ResolvedConditionCommand -> action.child(cmd.branch)
+            is ConditionCommand -> {
+                action.evaluable(cmd.branchCondition)
+                action.child(cmd.trueBranch)
+                action.child(cmd.falseBranch)
+            }
+            is ConditionExpressionCommand -> {
+                action.evaluable(cmd.left)
+                action.evaluable(cmd.right)
+            }
+            is SimpleConditionCommand -> {
+                action.child(cmd.left)
+                action.child(cmd.right)
+            }
+            is CoalesceCommand -> {
+                action.child(cmd.left)
+                action.child(cmd.right)
+            }
+            is WhileCommand -> {
+                action.evaluable(cmd.whileCondition)
+                action.child(cmd.whileMaxLoops)
+                action.child(cmd.statements)
+            }
+            is ForEachCommand -> {
+                action.child(cmd.foreachSource)
+                action.child(cmd.statements)
+            }
+            is ParallelForEachCommand -> {
+                action.child(cmd.parallelOptions)
+                action.child(cmd.foreachSource)
+                action.child(cmd.statements)
+            }
+            is SwitchCaseCommand -> {
+                action.child(cmd.value)
+                cmd.cases.forEach { action.child(it) }
+            }
+            is SwitchCaseCommand.SwitchCaseBranchCommand -> {
+                action.child(cmd.right)
+                action.child(cmd.result)
+            }
+            is HashDispatchSwitchCommand -> {
+                action.child(cmd.value)
+                cmd.forEachArmCommand { action.child(it) }
+            }
+            is StatementFunctionCallCommand -> {
+                cmd.statementArguments.forEach { action.child(it) }
+                action.child(cmd.statementBody)
+            }
+            is FunctionCallCommand -> cmd.callArguments.forEach { action.child(it) }
+            // the inlined body only runs without hooks, coverage and debugging follow the call
+            is InlinedFunctionCallCommand -> action.child(cmd.call)
+            is GenericConditionalModifierCommand -> {
+                action.child(cmd.value)
+                action.evaluable(cmd.expression)
+                cmd.arguments.forEach { action.child(it) }
+            }
+            is PotentialGenericConditionalModifierCommand -> {
+                action.child(cmd.value)
+                action.evaluable(cmd.expression)
+                cmd.modifierArgumentCommands.forEach { action.child(it) }
+            }
+            is ModifierValueCommand -> {
+                action.child(cmd.value)
+                cmd.modifierArgumentCommands.forEach { action.child(it) }
+            }
+            is FilterModifierValueCommand -> {
+                action.child(cmd.filterSource)
+                action.evaluable(cmd.filterExpression)
+            }
+            is MapModifierValueCommand -> {
+                action.child(cmd.mapPreviousValue)
+                action.child(cmd.mapArgument)
+            }
+            is ReduceModifierValueCommand -> {
+                action.child(cmd.reduceSource)
+                action.child(cmd.reduceArgument)
+            }
+            is ParallelModifierValueCommand -> {
+                action.child(cmd.parallelSource)
+                action.child(cmd.parallelArgument)
+                action.evaluable(cmd.parallelCondition)
+            }
+            is FilterMapModifierValueCommand -> {
+                action.child(cmd.filterMapSource)
+                action.evaluable(cmd.filterMapPredicate)
+                action.child(cmd.filterMapMapArgument)
+            }
+            is ConditionModifierValueCommand -> {
+                action.child(cmd.value)
+                action.evaluable(cmd.expression)
+                action.child(cmd.trueModifier)
+            }
+            is VariableSimpleSelectorCommand -> action.evaluable(cmd.indexCondition)
+            is VariablePropertySelectorCommand -> {
+                action.child(cmd.propertyPrevious)
+                action.evaluable(cmd.propertyIndexCondition)
+            }
+            is VariableSelectorValueCommand -> Unit
+            is ArrayCommand -> cmd.elementCommands.forEach { action.child(it) }
+            is InterpolateCommand -> cmd.interpolationParts.forEach { action.child(it) }
+            is MathExpressionCommand -> {
+                action.child(cmd.left)
+                action.child(cmd.right)
+            }
+            is LiteralValueCommand, is NoopCommand -> Unit
+            else -> Unit
+        }
+    }
+
+    private fun ((IIslCommand) -> Unit).child(cmd: IIslCommand?) {
+        if (cmd != null) this(cmd)
+    }
+
+    private fun ((IIslCommand) -> Unit).evaluable(e: IEvaluableConditionCommand?) {
+        if (e is IIslCommand) this(e)
+    }
+}
@@ -10,13 +10,16 @@ data class CommandResult(
     val validResult: Boolean? = null
 ) {
     val value: Any?
-        get() {
-            if (originalValue is NullNode || originalValue is MissingNode)
+        get() = unwrap(originalValue);
+
+    companion object {
+        /** [NullNode] and [MissingNode] read as null - the rule behind [value] and [IIslCommand.evaluate]. */
+        fun unwrap(value: Any?): Any? {
+            if (value is NullNode || value is MissingNode)
                 return null;
-            return originalValue;
+            return value;
         }
 
-    companion object {
         /** Plain null value; default property/append/valid flags (e.g. no-op, missing path). */
         val NULL = CommandResult(null)
 
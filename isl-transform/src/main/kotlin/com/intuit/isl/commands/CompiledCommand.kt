@@ -0,0 +1,39 @@
+package com.intuit.isl.commands
+
+import com.intuit.isl.commands.builder.ICommandVisitor
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.parser.tokens.IIslToken
+
+/**
+ * Compiled form of [original] produced by [com.intuit.isl.commands.builder.ClosureCompiler].
+ * [code] has the exact semantics of [original] but skips the per-node dispatch and wrappers where it can.
+ * When an execution hook is attached (debugger, coverage) the interpreted [original] runs instead so the hook
+ * still sees every command.
+ */
+class CompiledCommand(
+    val original: IIslCommand,
+    private val code: (executionContext: ExecutionContext) -> CommandResult
+) : IIslCommand {
+    override val token: IIslToken
+        get() = original.token;
+
+    override var parent: IIslCommand?
+        get() = original.parent
+        set(value) {
+            original.parent = value;
+        }
+
+    override fun execute(executionContext: ExecutionContext): CommandResult {
+        if (executionContext.executionHook != null)
+            return original.execute(executionContext);
+        return code(executionContext);
+    }
+
+    override fun <T> visit(visitor: ICommandVisitor<T>): T {
+        return original.visit(visitor);
+    }
+
+    override fun toString(): String {
+        return original.toString();
+    }
+}
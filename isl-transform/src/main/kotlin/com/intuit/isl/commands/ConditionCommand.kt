@@ -53,4 +53,20 @@ class ConditionCommand(
     }
 
 
-}
\ No newline at end of file
+}
+/**
+ * [ConditionCommand] whose condition was proven constant at build time (see
+ * [com.intuit.isl.commands.builder.DeadBranchEliminationPass]). Only the taken [branch] is kept and its result is
+ * returned the same way the condition returns it, so object builds still append it.
+ */
+class ResolvedConditionCommand(token: IIslToken, val branch: IIslCommand) : BaseCommand(token) {
+    override fun execute(executionContext: ExecutionContext): CommandResult {
+        executionContext.executionHook?.onBeforeExecute(this, executionContext)
+        val result = branch.execute(executionContext)
+        return CommandResult(result.value, null, true);
+    }
+
+    override fun <T> visit(visitor: ICommandVisitor<T>): T {
+        return visitor.visit(this);
+    }
+}
@@ -21,6 +21,10 @@ class ConditionExpressionCommand(
         return CommandResult(result);
     }
 
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        return evaluateCondition(executionContext);
+    }
+
     override fun evaluateCondition(context: ExecutionContext): Boolean {
         val leftValue = left.evaluateCondition(context);
 
@@ -49,11 +53,14 @@ class SimpleConditionCommand(token: IIslToken, val left: IIslCommand, val condit
         return CommandResult(result);
     }
 
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        return evaluateCondition(executionContext);
+    }
+
     override fun evaluateCondition(context: ExecutionContext): Boolean {
-        val leftResult = left.execute(context);
-        val leftValue = leftResult.value;
+        val leftValue = left.evaluate(context);
 
-        val rightValue = right?.execute(context)?.value;
+        val rightValue = right?.evaluate(context);
 
         return ConditionEvaluator.evaluate(leftValue, condition, rightValue);
     }
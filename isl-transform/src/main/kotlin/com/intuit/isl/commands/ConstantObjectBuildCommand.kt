@@ -4,19 +4,23 @@ import com.fasterxml.jackson.databind.node.ObjectNode
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.common.ExecutionContext
 import com.intuit.isl.parser.tokens.IIslToken
+import com.intuit.isl.utils.ConstantObjectNode
 
 /**
  * Object literal that was proven at compile time to depend only on constant sub-expressions.
- * [prototypeTemplate] is built once during compilation; each execution returns [prototypeTemplate.deepCopy]
- * so callers can mutate the result without affecting other runs.
+ * [prototype] is built once during compilation; each execution returns a [ConstantObjectNode] over it, which only
+ * copies the prototype when the result is changed, so callers can mutate the result without affecting other runs.
  */
 class ConstantObjectBuildCommand(
     token: IIslToken,
-    private val prototypeTemplate: ObjectNode
+    prototype: ObjectNode
 ) : BaseCommand(token) {
 
+    // shared by all executions, never changed after this
+    internal val prototype: ObjectNode = ConstantObjectNode.detach(prototype) as ObjectNode
+
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        return CommandResult(prototypeTemplate.deepCopy())
+        return CommandResult(ConstantObjectNode(prototype))
     }
 
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
@@ -0,0 +1,68 @@
+package com.intuit.isl.commands
+
+import com.intuit.isl.common.BaseOperationContext
+import com.intuit.isl.common.ContextAwareExtensionMethod
+import com.intuit.isl.common.IOperationContext
+import com.intuit.isl.common.LocalOperationContext
+import com.intuit.isl.common.OperationContextTemplate
+import com.intuit.isl.common.ParallelOperationContext
+
+/**
+ * Inline cache of the host extension [name] resolves to at one call site (`@.Service.Call(...)` or `| modifier`).
+ *
+ * Contexts created from the same [OperationContextTemplate] running the same module all see the same extensions, so
+ * once the call site found its extension in the template it calls it directly for every later context of that
+ * template, without building or hashing the name. Contexts with their own registrations, contexts without a template
+ * and extensions that are not in the template go through [IOperationContext.getExtension] as before.
+ * When a context of another template runs the call site, the binding moves to that template.
+ * [com.intuit.isl.runtime.Transformer.link] binds the call sites of a module ahead of the first call.
+ */
+internal class ExtensionCallSite(val name: String) {
+    private class Binding(
+        val template: OperationContextTemplate,
+        val moduleExtensions: Map<String, ContextAwareExtensionMethod>,
+        val method: ContextAwareExtensionMethod
+    )
+
+    @Volatile
+    private var binding: Binding? = null;
+
+    fun resolve(context: IOperationContext): ContextAwareExtensionMethod? {
+        val owner = registryOwner(context);
+        val template = owner?.linkableTemplate ?: return context.getExtension(name);
+
+        val current = binding;
+        if (current != null && current.template === template && current.moduleExtensions === owner.moduleExtensions)
+            return current.method;
+
+        return bind(template, owner.moduleExtensions) ?: context.getExtension(name);
+    }
+
+    /**
+     * Bind to the extension of [template], unless a function of the module ([moduleExtensions]) has the same name.
+     * Returns the bound extension.
+     */
+    fun bind(
+        template: OperationContextTemplate,
+        moduleExtensions: Map<String, ContextAwareExtensionMethod>
+    ): ContextAwareExtensionMethod? {
+        if (moduleExtensions.containsKey(name))
+            return null;
+        val method = template.extensions[name] ?: return null;
+        binding = Binding(template, moduleExtensions, method);
+        return method;
+    }
+
+    private fun registryOwner(context: IOperationContext): BaseOperationContext? {
+        var current = context;
+        while (true) {
+            current = when (current) {
+                is BaseOperationContext -> return current
+                // scoped contexts look up their extensions in the context they wrap
+                is ParallelOperationContext -> current.context
+                is LocalOperationContext -> current.context
+                else -> return null
+            };
+        }
+    }
+}
@@ -1,28 +1,57 @@
 package com.intuit.isl.commands
 
+import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.node.ArrayNode
 import com.fasterxml.jackson.databind.node.JsonNodeFactory
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.removeVariableCanonical
-import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
 import com.intuit.isl.utils.JsonConvert
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.parser.tokens.ForEachToken
 import com.intuit.isl.utils.ExcludeFromJacocoGeneratedReport
 import com.intuit.isl.utils.IIslIterable
+import java.io.Closeable
 
-open class ForEachCommand(token: ForEachToken, private val source: IIslCommand, val statements: IIslCommand) :
+open class ForEachCommand(
+    token: ForEachToken,
+    private val source: IIslCommand,
+    val statements: IIslCommand,
+    layout: VariableSlotLayout? = null
+) :
     BaseCommand(token) {
 
     internal val foreachSource: IIslCommand get() = source
+    // set by the declaring function so loop iterations count towards its tiering profile
+    internal var profile: FunctionProfile? = null
     protected val foreachIteratorKey: String = token.iterator.lowercase()
     protected val foreachIteratorIndexKey: String = (token.iterator + "index").lowercase()
+    internal val iteratorSlot = layout?.slotFor(foreachIteratorKey)
+    internal val iteratorIndexSlot = layout?.slotFor(foreachIteratorIndexKey)
 
     override val token: ForEachToken
         get() = super.token as ForEachToken;
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val sourceCollection = source.execute(executionContext).value;
+        var result: ArrayNode? = null;
+        forEachResult(executionContext) { size, value ->
+            // Lazily allocated: only created when the first non-null iteration result is encountered.
+            // Side-effect-only loops (where every statement returns null) never allocate this array.
+            if (result == null) result = JsonNodeFactory.instance.arrayNode(size);
+            result!!.add(value);
+        }
+
+        return CommandResult(result ?: JsonNodeFactory.instance.arrayNode(), null, true);
+    }
+
+    /**
+     * Runs the loop and hands every non-null iteration result to [action] as it is produced, together with the
+     * expected number of results. [execute] collects them into an array, the streaming output writes them straight
+     * out (see [com.intuit.isl.runtime.StreamingOutputWriter]).
+     */
+    internal fun forEachResult(executionContext: ExecutionContext, action: (Int, JsonNode) -> Unit) {
+        val sourceCollection = source.evaluate(executionContext);
 
         val source = when (sourceCollection) {
             is IIslIterable -> sourceCollection.getInnerIterator();
@@ -32,33 +61,38 @@ open class ForEachCommand(token: ForEachToken, private val source: IIslCommand,
         };
 
         val defaultSize = if(sourceCollection is Collection<Any?>) sourceCollection.size else 10;
-        // Lazily allocated: only created when the first non-null iteration result is encountered.
-        // Side-effect-only loops (where every statement returns null) never allocate this array.
-        var result: ArrayNode? = null;
 
-        source?.forEachIndexed { i, it ->
-            executionContext.operationContext.setVariableCanonical(foreachIteratorKey, JsonConvert.convert(it));
-            executionContext.operationContext.setVariableCanonical(foreachIteratorIndexKey, JsonConvert.convert(i));
+        var iterations = 0;
+        val iterator = source?.iterator();
+        try {
+            while (iterator != null && iterator.hasNext()) {
+                val item = iterator.next();
+                val i = iterations++;
+                executionContext.operationContext.setVariableSlotOrCanonical(iteratorSlot, foreachIteratorKey, JsonConvert.convert(item));
+                executionContext.operationContext.setVariableSlotOrCanonical(iteratorIndexSlot, foreachIteratorIndexKey, JsonConvert.convert(i));
 
-            executionContext.executionHook?.onBeforeExecute(statements, executionContext)
-            val itValue = statements.execute(executionContext);
-            executionContext.executionHook?.onAfterExecute(statements, executionContext, itValue)
+                executionContext.executionHook?.onBeforeExecute(statements, executionContext)
+                val itValue = statements.execute(executionContext);
+                executionContext.executionHook?.onAfterExecute(statements, executionContext, itValue)
 
-            if(itValue.validResult == false)
-                return@forEachIndexed; // ignore
+                if(itValue.validResult == false)
+                    continue; // ignore
 
-            // Skip null iteration values — avoids collecting NullNodes from side-effect statements
-            // like variable assignments ($var: value) that have no meaningful return value.
-            val converted = itValue.value ?: return@forEachIndexed;
-            if (result == null) result = JsonNodeFactory.instance.arrayNode(defaultSize);
-            result!!.add(JsonConvert.convert(converted));
+                // Skip null iteration values — avoids collecting NullNodes from side-effect statements
+                // like variable assignments ($var: value) that have no meaningful return value.
+                val converted = itValue.value ?: continue;
+                action(defaultSize, JsonConvert.convert(converted));
+            }
+        } finally {
+            // streamed sources hold their input open until they are read to the end
+            (iterator as? Closeable)?.close();
         }
 
+        profile?.recordBackEdges(iterations);
+
         // cleanup
         executionContext.operationContext.removeVariableCanonical(foreachIteratorKey);
         executionContext.operationContext.removeVariableCanonical(foreachIteratorIndexKey);
-
-        return CommandResult(result ?: JsonNodeFactory.instance.arrayNode(), null, true);
     }
 
     @ExcludeFromJacocoGeneratedReport
@@ -20,14 +20,16 @@ open class FunctionCallCommand(token: FunctionCallToken, protected val arguments
     override val token: FunctionCallToken
         get() = super.token as FunctionCallToken;
 
+    internal val extensionSite = ExtensionCallSite(token.name);
+
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        var function = executionContext.operationContext.getExtension(token.name);
+        var function = extensionSite.resolve(executionContext.operationContext);
 
         if (function == null) { // search for the fallback
             function = executionContext.operationContext.getExtension(Const.FallbackMethodName);
         }
 
-        val args = arguments.map { it.execute(executionContext).value }.toTypedArray();
+        val args = arguments.map { it.evaluate(executionContext) }.toTypedArray();
         if (function == null) {
             val error = "Could not Execute '@.${token.name}'. Error='Unknown Function: ${token.name}'";
             throw TransformException(error, token.position);
@@ -80,10 +82,15 @@ open class FunctionCallCommand(token: FunctionCallToken, protected val arguments
 class HardwiredFunctionCallCommand(
     token: FunctionCallToken,
     arguments: List<IIslCommand>,
-    private val callback: ContextAwareExtensionMethod
+    private val callback: ContextAwareExtensionMethod,
+    /**
+     * The called function when it is declared in the same module, see
+     * [com.intuit.isl.commands.builder.FunctionInliningPass].
+     */
+    internal val target: IFunctionDeclarationCommand? = null
 ) : FunctionCallCommand(token, arguments) {
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val args = arguments.map { it.execute(executionContext).value }.toTypedArray();
+        val args = arguments.map { it.evaluate(executionContext) }.toTypedArray();
         val functionContext = FunctionExecuteContext(token.name, this, executionContext, args);
         val result = safeRunFunction(token.name, this) {
             // Direct sync call - no bridge needed!
@@ -93,6 +100,39 @@ class HardwiredFunctionCallCommand(
     }
 }
 
+/**
+ * Call of a small function of the same module that was inlined at build time: [body] is the expression the function
+ * returns, with its parameters replaced by the call arguments, evaluated in the context of the caller.
+ * With an execution hook attached (debugger, coverage) the original [call] runs instead, so hooks still see the
+ * function being entered and its statements running.
+ */
+class InlinedFunctionCallCommand(
+    val call: HardwiredFunctionCallCommand,
+    val body: IIslCommand
+) : BaseCommand(call.token) {
+    override val token: FunctionCallToken
+        get() = super.token as FunctionCallToken;
+
+    override fun execute(executionContext: ExecutionContext): CommandResult {
+        if (executionContext.executionHook != null)
+            return call.execute(executionContext);
+        return CommandResult(evaluate(executionContext));
+    }
+
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        if (executionContext.executionHook != null)
+            return call.evaluate(executionContext);
+        // same error reporting as the call it replaces
+        return FunctionCallCommand.safeRunFunction(token.name, this) {
+            body.evaluate(executionContext)
+        };
+    }
+
+    override fun <T> visit(visitor: ICommandVisitor<T>): T {
+        return visitor.visit(this);
+    }
+}
+
 open class StatementFunctionCallCommand(
     token: FunctionCallToken,
     protected val arguments: List<IIslCommand>,
@@ -106,7 +146,7 @@ open class StatementFunctionCallCommand(
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val function = executionContext.operationContext.getStatementExtension(token.name);
-        val args = arguments.map { it.execute(executionContext).value }.toTypedArray();
+        val args = arguments.map { it.evaluate(executionContext) }.toTypedArray();
 
         if (function == null) {
             val error = "Could not Execute '@.${token.name}'. Error='Unknown Function: ${token.name}'";
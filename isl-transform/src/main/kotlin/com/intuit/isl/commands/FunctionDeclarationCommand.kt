@@ -9,6 +9,7 @@ import com.intuit.isl.common.LocalOperationContext
 import com.intuit.isl.common.setVariableCanonical
 import com.intuit.isl.parser.tokens.FunctionDeclarationToken
 import com.intuit.isl.parser.tokens.FunctionReturnToken
+import com.intuit.isl.runtime.TieredExecution
 import com.intuit.isl.runtime.TransformException
 import com.intuit.isl.runtime.TransformModule
 import com.intuit.isl.types.TypedObjectNode
@@ -30,6 +31,34 @@ class FunctionDeclarationCommand(token: FunctionDeclarationToken, override val s
 
     internal lateinit var module: TransformModule;
 
+    /**
+     * Compiled form of [statements] installed by [com.intuit.isl.commands.builder.ClosureCompiler].
+     * Used whenever no execution hook is attached.
+     */
+    @Volatile
+    internal var compiledStatements: IIslCommand? = null;
+
+    /**
+     * Invocation and loop counters of this function, see [com.intuit.isl.runtime.TieredExecution].
+     */
+    val profile = FunctionProfile(this);
+
+    /**
+     * Tiered execution of the module this function is attached to.
+     */
+    internal val tieredExecution: TieredExecution?
+        get() = if (::module.isInitialized) module.tieredExecution else null;
+
+    init {
+        // loops directly inside this function report their iterations as back-edges
+        CoverageStatementIdAssigner.walkCommandGraph(statements, IdentityHashMap()) {
+            when (it) {
+                is ForEachCommand -> it.profile = profile
+                is WhileCommand -> it.profile = profile
+            }
+        }
+    }
+
     override val name: String
         get() = token.functionName;
 
@@ -37,6 +66,12 @@ class FunctionDeclarationCommand(token: FunctionDeclarationToken, override val s
         get() = super.token as FunctionDeclarationToken;
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
+        profile.recordInvocation();
+
+        val compiled = compiledStatements;
+        if (compiled != null && executionContext.executionHook == null)
+            return compiled.execute(executionContext);
+
         // execute annotations or function
         return statements.execute(executionContext);
     }
@@ -163,7 +198,7 @@ class FunctionReturnCommand(token: FunctionReturnToken, private val returnValue:
  */
 class RecursiveFunctionDeclarationCommand(
     token: FunctionDeclarationToken,
-    private val compiledFunctions: TreeMap<String, IFunctionDeclarationCommand>
+    private val compiledFunctions: Map<String, IFunctionDeclarationCommand>
 ) : BaseCommand(token), IFunctionDeclarationCommand{
     override val name: String
         get() = token.functionName;
@@ -0,0 +1,41 @@
+package com.intuit.isl.commands
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Execution counters of one [FunctionDeclarationCommand], used by [com.intuit.isl.runtime.TieredExecution]
+ * to find hot functions. Counting only happens while [com.intuit.isl.runtime.Transformer.tieredExecution] is set
+ * for the module of the function.
+ */
+class FunctionProfile internal constructor(internal val function: FunctionDeclarationCommand) {
+    private val invocationCounter = LongAdder();
+    private val backEdgeCounter = LongAdder();
+    internal val promotionStarted = AtomicBoolean();
+
+    /** Number of calls of the function. */
+    val invocations: Long
+        get() = invocationCounter.sum();
+
+    /** Number of loop iterations (foreach/while) run directly inside the function. */
+    val backEdges: Long
+        get() = backEdgeCounter.sum();
+
+    /** True once the function runs in the closure tier. */
+    val promoted: Boolean
+        get() = function.compiledStatements != null;
+
+    internal fun recordInvocation() {
+        val tiering = function.tieredExecution ?: return;
+        invocationCounter.increment();
+        tiering.onProfileUpdated(this);
+    }
+
+    internal fun recordBackEdges(count: Int) {
+        if (count == 0)
+            return;
+        val tiering = function.tieredExecution ?: return;
+        backEdgeCounter.add(count.toLong());
+        tiering.onProfileUpdated(this);
+    }
+}
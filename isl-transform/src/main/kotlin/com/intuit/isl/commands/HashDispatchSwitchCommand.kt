@@ -24,8 +24,7 @@ class HashDispatchSwitchCommand(
     }
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val leftResult = value.execute(executionContext)
-        val key = ConvertUtils.tryToString(leftResult.value)
+        val key = ConvertUtils.tryToString(value.evaluate(executionContext))
         if (key != null) {
             armsByKey[key]?.let { return it.execute(executionContext) }
         }
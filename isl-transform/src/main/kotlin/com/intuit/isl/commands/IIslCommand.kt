@@ -16,5 +16,12 @@ interface IIslCommand {
     var parent: IIslCommand?;
 
     fun execute(executionContext: ExecutionContext): CommandResult
+
+    /**
+     * Value-only evaluation, always the same as `execute(executionContext).value`.
+     * Callers that only need the value should use this: pure expression commands (literals, selectors, math, ...)
+     * override it and return the value without allocating a [CommandResult].
+     */
+    fun evaluate(executionContext: ExecutionContext): Any? = execute(executionContext).value
     fun <T> visit(visitor: ICommandVisitor<T>): T;
 }
\ No newline at end of file
@@ -11,21 +11,23 @@ class InterpolateCommand(token: IIslToken, private val values: ArrayList<IIslCom
 
     internal val interpolationParts: List<IIslCommand> get() = values
     override fun execute(executionContext: ExecutionContext): CommandResult {
+        return CommandResult(evaluate(executionContext));
+    }
+
+    override fun evaluate(executionContext: ExecutionContext): Any? {
         val sb = StringBuilder();
 
         for(v in values) {
-            val realValue = v.execute(executionContext);
-
             // value could be a TextNode or another JsonNode!
-            when(val value = realValue.value) {
+            when(val value = v.evaluate(executionContext)) {
                 is TextNode -> sb.append(value.textValue());
                 null -> {};
                 is NullNode -> {};
-                else -> sb.append(realValue.value);
+                else -> sb.append(value);
             }
         }
 
-        return CommandResult(sb.toString());
+        return sb.toString();
     }
 
     /**
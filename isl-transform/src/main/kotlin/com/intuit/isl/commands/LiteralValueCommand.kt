@@ -9,10 +9,16 @@ class LiteralValueCommand(token: LiteralValueToken) : BaseCommand(token) {
     override val token: LiteralValueToken
         get() = super.token as LiteralValueToken;
 
+    private val value = CommandResult.unwrap(token.value);
+
     override fun execute(executionContext: ExecutionContext): CommandResult {
         return CommandResult(token.value);
     }
 
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        return value;
+    }
+
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
         return visitor.visit(this);
     }
@@ -1,5 +1,8 @@
 package com.intuit.isl.commands
 
+import com.fasterxml.jackson.databind.node.IntNode
+import com.fasterxml.jackson.databind.node.LongNode
+import com.fasterxml.jackson.databind.node.ShortNode
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.common.ExecutionContext
 import com.intuit.isl.parser.tokens.IIslToken
@@ -13,17 +16,55 @@ class MathExpressionCommand(token: IIslToken, val left: IIslCommand, val right:
     // typealias OperationType = (left: BigDecimal?, right: BigDecimal?) -> BigDecimal; - can't do this :(
 
     private val operation = buildOperation(this);
+    private val longOperation = longOperationOf(operator);
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val leftResult = left.execute(executionContext).value;
-        val rightResult = right.execute(executionContext).value;
+        return CommandResult(evaluate(executionContext));
+    }
+
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        val result = evaluateNumber(executionContext);
+        return if (result is Long) BigDecimal.valueOf(result) else result;
+    }
+
+    /**
+     * Same as [evaluate] but integral results are returned as [Long] so nested math expressions
+     * (e.g. `{{ $a + $b * 2 }}`) never materialize their intermediate results as BigDecimals.
+     * Only the outermost expression converts back - the BigDecimal it produces has the same value and scale (0)
+     * the pure BigDecimal arithmetic would have produced, so the output does not change.
+     */
+    private fun evaluateNumber(executionContext: ExecutionContext): Any {
+        val leftResult = operand(left, executionContext);
+        val rightResult = operand(right, executionContext);
+
+        if (longOperation != LONG_NONE && isLongOperand(leftResult) && isLongOperand(rightResult)) {
+            val a = toLong(leftResult);
+            val b = toLong(rightResult);
+            when (longOperation) {
+                LONG_ADD -> {
+                    val r = a + b;
+                    if (((a xor r) and (b xor r)) >= 0)
+                        return r;
+                }
+                LONG_SUBTRACT -> {
+                    val r = a - b;
+                    if (((a xor b) and (a xor r)) >= 0)
+                        return r;
+                }
+                LONG_MULTIPLY -> {
+                    val high = Math.multiplyHigh(a, b);
+                    val r = a * b;
+                    if ((high == 0L && r >= 0) || (high == -1L && r < 0))
+                        return r;
+                }
+            }
+            // overflow - redo it in BigDecimal
+        }
 
         val leftValue = ConvertUtils.tryParseDecimal(leftResult);
         val rightValue = ConvertUtils.tryParseDecimal(rightResult);
 
-        val result = operation(leftValue, rightValue);
-
-        return CommandResult( result);
+        return operation(leftValue, rightValue);
     }
 
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
@@ -31,6 +72,52 @@ class MathExpressionCommand(token: IIslToken, val left: IIslCommand, val right:
     }
 
     companion object {
+        private const val LONG_NONE = 0;
+        private const val LONG_ADD = 1;
+        private const val LONG_SUBTRACT = 2;
+        private const val LONG_MULTIPLY = 3;
+
+        // division always goes through BigDecimal - its result has a fixed scale of 4
+        private fun longOperationOf(operator: String): Int {
+            return when (operator) {
+                "+" -> LONG_ADD
+                "-" -> LONG_SUBTRACT
+                "*" -> LONG_MULTIPLY
+                else -> LONG_NONE
+            };
+        }
+
+        private fun operand(command: IIslCommand, executionContext: ExecutionContext): Any? {
+            return if (command is MathExpressionCommand)
+                command.evaluateNumber(executionContext)
+            else
+                command.evaluate(executionContext);
+        }
+
+        /**
+         * Values [ConvertUtils.tryParseDecimal] would turn into a BigDecimal with scale 0 that fits a long.
+         * Doubles, decimals and strings stay on the BigDecimal path - double arithmetic would not render the same
+         * digits (0.1 + 0.2) and decimal scales (1.10 * 2 = 2.20) have to be kept.
+         */
+        private fun isLongOperand(value: Any?): Boolean {
+            return when (value) {
+                null, is Long, is Int, is Short, is IntNode, is LongNode, is ShortNode -> true
+                is BigDecimal -> value.scale() == 0 && value.precision() <= 18
+                else -> false
+            };
+        }
+
+        private fun toLong(value: Any?): Long {
+            return when (value) {
+                null -> 0L
+                is Number -> value.toLong()
+                is IntNode -> value.longValue()
+                is LongNode -> value.longValue()
+                is ShortNode -> value.longValue()
+                else -> throw IllegalStateException("Not a long operand: $value")
+            };
+        }
+
         private fun buildOperation(command: MathExpressionCommand): (left: BigDecimal?, right: BigDecimal?) -> BigDecimal {
             // let's convert the operator into a Function now so we have to evaluate at runtime
             return when (command.operator) {
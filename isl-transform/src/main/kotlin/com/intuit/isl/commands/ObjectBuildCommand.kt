@@ -34,32 +34,39 @@ class ObjectBuildCommand(
             val commandResult = c.execute(executionContext);
             executionContext.executionHook?.onAfterExecute(c, executionContext, commandResult)
 
-            if (!commandResult.propertyName.isNullOrEmpty() && commandResult.append != false) {
-                // TBD: There are way too many ways to do this.
-                val realValue = JsonConvert.handleConvert(commandResult.value, this, c);
-
-                // We need to be careful here! We could get duplicate(ish) data due to the funny format for properties
-                // prop1.prop2.prop3: ...
-                // prop1.prop2.prop4: ...
-                // we'll get two objects back, so we have to update the prop1 and prop2 by merging, we can't just set them
-                val existingNode = result.get(commandResult.propertyName);
-                if (existingNode != null && existingNode !is ValueNode) {
-                    JsonConvert.merge(existingNode, realValue) as ObjectNode;
-                } else {
-                    result.set(commandResult.propertyName, realValue);
-                }
-            } else if (commandResult.append == true) {
-                // we need to append whatever we received in the value into our object (e.g. we got a child from if/else)
-                (commandResult.value as? ObjectNode)?.fields()?.forEach {
-                    result.set<JsonNode>(it.key, it.value);
-                }
-            }
+            addResult(result, c, commandResult);
         }
 
         //executionContext.operationContext.removeVariable(tempVariableName);
         return CommandResult(result);
     }
 
+    /**
+     * Adds the result of one of the [commands] to the object being built.
+     */
+    internal fun addResult(result: ObjectNode, c: IIslCommand, commandResult: CommandResult) {
+        if (!commandResult.propertyName.isNullOrEmpty() && commandResult.append != false) {
+            // TBD: There are way too many ways to do this.
+            val realValue = JsonConvert.handleConvert(commandResult.value, this, c);
+
+            // We need to be careful here! We could get duplicate(ish) data due to the funny format for properties
+            // prop1.prop2.prop3: ...
+            // prop1.prop2.prop4: ...
+            // we'll get two objects back, so we have to update the prop1 and prop2 by merging, we can't just set them
+            val existingNode = result.get(commandResult.propertyName);
+            if (existingNode != null && existingNode !is ValueNode) {
+                JsonConvert.merge(existingNode, realValue) as ObjectNode;
+            } else {
+                result.set(commandResult.propertyName, realValue);
+            }
+        } else if (commandResult.append == true) {
+            // we need to append whatever we received in the value into our object (e.g. we got a child from if/else)
+            (commandResult.value as? ObjectNode)?.fields()?.forEach {
+                result.set<JsonNode>(it.key, it.value);
+            }
+        }
+    }
+
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
         return visitor.visit(this);
     }
@@ -0,0 +1,80 @@
+package com.intuit.isl.commands
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.intuit.isl.commands.builder.ICommandVisitor
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.ParallelOperationContext
+import com.intuit.isl.parser.tokens.IIslToken
+import com.intuit.isl.runtime.ParallelScheduler
+import com.intuit.isl.runtime.TransformException
+import com.intuit.isl.utils.JsonConvert
+
+/**
+ * Consecutive properties of an object build whose values are independent host extension calls
+ * `user: @.Users.Get( $id ); orders: @.Orders.List( $id );` - built by
+ * [com.intuit.isl.commands.builder.ParallelHostCallsPass].
+ * The calls run at the same time on up to [workers] workers of the [ParallelScheduler] (functions with the
+ * `@parallelCalls` annotation) or the [com.intuit.isl.common.IOperationContext.maxParallelWorkers] of the operation
+ * (null, the pass turned on for the module), each worker on its own [ParallelOperationContext]. The properties are appended to the object in declaration order.
+ * If calls fail, the error of the first failing property is thrown and no new calls are started.
+ * With an execution hook attached (debugger, coverage) the properties run one after the other.
+ */
+class ParallelCallsCommand(
+    token: IIslToken,
+    val properties: List<AssignPropertyCommand>,
+    val workers: Int? = null
+) : BaseCommand(token) {
+    override fun execute(executionContext: ExecutionContext): CommandResult {
+        val hook = executionContext.executionHook;
+        val workers = Math.min(this.workers ?: executionContext.operationContext.maxParallelWorkers, properties.size);
+        val results = if (hook != null || workers <= 1) {
+            properties.map {
+                hook?.onBeforeExecute(it, executionContext);
+                val commandResult = it.execute(executionContext);
+                hook?.onAfterExecute(it, executionContext, commandResult);
+                commandResult
+            }
+        } else {
+            runParallel(executionContext, workers);
+        };
+
+        // the pass only groups property names nothing else in the object sets, so appending is the same as assigning
+        val result = JsonNodeFactory.instance.objectNode();
+        for ((i, commandResult) in results.withIndex()) {
+            if (!commandResult.propertyName.isNullOrEmpty() && commandResult.append != false)
+                result.set(commandResult.propertyName, JsonConvert.handleConvert(commandResult.value, this, properties[i]));
+        }
+        return CommandResult(result, null, true);
+    }
+
+    private fun runParallel(executionContext: ExecutionContext, workers: Int): List<CommandResult> {
+        try {
+            return ParallelScheduler.map(
+                properties.iterator(),
+                properties.size,
+                workers,
+                1,
+                true,
+                {
+                    val localOperationContext = ParallelOperationContext(executionContext.operationContext)
+                    ExecutionContext(
+                        localOperationContext,
+                        executionContext.localContext,
+                        executionContext.executionHook,
+                        executionContext.coroutineContext
+                    )
+                }
+            ) { localExecutionContext, _, it ->
+                (it as AssignPropertyCommand).execute(localExecutionContext)
+            };
+        } catch (t: TransformException) {
+            throw t;
+        } catch (e: Exception) {
+            throw TransformException(e.message + " at ${token.position}", token.position, e);
+        }
+    }
+
+    override fun <T> visit(visitor: ICommandVisitor<T>): T {
+        return visitor.visit(this);
+    }
+}
@@ -7,18 +7,17 @@ import com.intuit.isl.common.ExecutionContext
 import com.intuit.isl.common.ParallelOperationContext
 import com.intuit.isl.common.setVariableCanonical
 import com.intuit.isl.parser.tokens.ParallelForEachToken
+import com.intuit.isl.runtime.ParallelScheduler
 import com.intuit.isl.runtime.TransformException
-import com.intuit.isl.runtime.Transformer
 import com.intuit.isl.utils.ConvertUtils
 import com.intuit.isl.utils.IIslIterable
 import com.intuit.isl.utils.JsonConvert
-import java.util.concurrent.Executors
-import java.util.concurrent.Semaphore
-import java.util.concurrent.ConcurrentHashMap
 
 /**
  * For each that can run in parallel using virtual threads.
- * Uses a semaphore to limit parallelism while maintaining virtual thread benefits.
+ * Options: `workers` - maximum parallel workers, `chunk` - elements a worker takes from the source at a time
+ * (bigger chunks for cheap bodies), `cancelOnError` - stop starting new elements once one failed.
+ * The elements are scheduled by the shared [ParallelScheduler], each worker reuses one [ParallelOperationContext].
  */
 class ParallelForEachCommand(
     token: ParallelForEachToken,
@@ -33,13 +32,13 @@ class ParallelForEachCommand(
         get() = super.token as ParallelForEachToken;
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val sourceCollection = source.execute(executionContext).value;
-        // Options can have for now just `workers: X`
+        val sourceCollection = source.evaluate(executionContext);
+        // Options: `workers`, `chunk` and `cancelOnError`
         val localOptions = options?.execute(executionContext)?.value as? ObjectNode?;
 
         val workers = Math.clamp(
             ConvertUtils.tryParseLong(localOptions?.get("workers"), 6) ?: 6,
-            1, Transformer.maxParallelWorkers
+            1, executionContext.operationContext.maxParallelWorkers
         ).toInt();
 
         // we'll run as a normal foreach
@@ -51,77 +50,53 @@ class ParallelForEachCommand(
             is IIslIterable -> sourceCollection.getInnerIterator();
             is Iterable<Any?> -> sourceCollection
             else -> null;
-        };
+        } ?: return CommandResult(JsonNodeFactory.instance.arrayNode(), null, true);
 
-        val sourceList = source?.toList() ?: emptyList()
-        val results = ConcurrentHashMap<Int, CommandResult>()
-        val errors = ConcurrentHashMap<Int, Exception>()
-        val semaphore = Semaphore(workers)
-
-        // Use virtual thread executor
-        val executor = Executors.newVirtualThreadPerTaskExecutor()
-        
-        try {
-            val futures = sourceList.mapIndexed { i, it ->
-                executor.submit {
-                    semaphore.acquire()
-                    try {
-                        val localOperationContext = ParallelOperationContext(executionContext.operationContext)
-                        val localExecutionContext = ExecutionContext(
+        val results = try {
+            ParallelScheduler.map(
+                source.iterator(),
+                if (source is Collection<*>) source.size else -1,
+                workers,
+                ConvertUtils.tryParseInt(localOptions?.get("chunk"), 0) ?: 0,
+                localOptions?.get("cancelOnError")?.asBoolean(false) == true,
+                {
+                    val localOperationContext = ParallelOperationContext(executionContext.operationContext)
+                    Pair(
+                        localOperationContext,
+                        ExecutionContext(
                             localOperationContext,
                             executionContext.localContext,
                             executionContext.executionHook,
                             executionContext.coroutineContext
                         )
-                        localOperationContext.setVariableCanonical(foreachIteratorKey, JsonConvert.convert(it))
-                        localOperationContext.setVariableCanonical(foreachIteratorIndexKey, JsonConvert.convert(i))
-
-                        val itValue = statements.execute(localExecutionContext)
-                        results[i] = itValue
-                    } catch (e: Exception) {
-                        // Collect errors but don't stop other iterations (supervisor behavior)
-                        errors[i] = e
-                    } finally {
-                        semaphore.release()
-                    }
+                    )
                 }
+            ) { (localOperationContext, localExecutionContext), i, it ->
+                // one context per worker, each element starts without the variables of the previous one
+                localOperationContext.reset()
+                localOperationContext.setVariableCanonical(foreachIteratorKey, JsonConvert.convert(it))
+                localOperationContext.setVariableCanonical(foreachIteratorIndexKey, JsonConvert.convert(i))
+
+                statements.execute(localExecutionContext)
             }
-            
-            // Wait for all futures to complete
-            futures.forEach { it.get() }
-        } finally {
-            executor.shutdown()
+        } catch (t: TransformException) {
+            throw t
+        } catch (e: Exception) {
+            throw TransformException(e.message + " at ${token.position}", token.position, e)
         }
 
         // Build result array from collected results, maintaining order
-        val result = JsonNodeFactory.instance.arrayNode()
-        
-        for (i in sourceList.indices) {
-            val r = results[i]
-            if (r != null) {
-                try {
-                    if (r.validResult == false)
-                        continue // ignore
+        val result = JsonNodeFactory.instance.arrayNode(results.size)
+        for (r in results) {
+            try {
+                if (r.validResult == false)
+                    continue // ignore
 
-                    result.add(JsonConvert.convert(r.value))
-                } catch (t: TransformException) {
-                    throw t
-                } catch (e: Exception) {
-                    throw TransformException(e.message + " at ${token.position}", token.position, e)
-                }
-            } else {
-                // Check if there was an error for this index
-                val error = errors[i]
-                if (error != null) {
-                    when (error) {
-                        is TransformException -> throw error
-                        else -> throw TransformException(
-                            error.message + " at ${token.position}",
-                            token.position,
-                            error
-                        )
-                    }
-                }
+                result.add(JsonConvert.convert(r.value))
+            } catch (t: TransformException) {
+                throw t
+            } catch (e: Exception) {
+                throw TransformException(e.message + " at ${token.position}", token.position, e)
             }
         }
 
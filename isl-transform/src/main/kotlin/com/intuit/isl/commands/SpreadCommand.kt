@@ -5,17 +5,31 @@ import com.fasterxml.jackson.databind.node.ObjectNode
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.common.ExecutionContext
 import com.intuit.isl.parser.tokens.IIslToken
+import com.intuit.isl.utils.ConstantObjectNode
 
+/**
+ * Spread `...$obj` / `...$arr`. The spread value is a copy of the source, so changing it never changes the source.
+ * A source known to never change - a constant object ([ConstantObjectNode], see
+ * [com.intuit.isl.commands.ConstantObjectBuildCommand]) - is shared by its own copy-on-write copy. Any other source is
+ * deep copied, unless [sharesSource] was set by [com.intuit.isl.commands.builder.SpreadSharingPass]: then nested
+ * objects and arrays are shared with the source through copy-on-write [ConstantObjectNode]s as well.
+ */
 class SpreadCommand(token: IIslToken, val variable: IIslCommand): BaseCommand(token) {
+    /**
+     * Share structure with the source whatever variable it comes from.
+     */
+    internal var sharesSource = false;
+
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val value = variable.execute(executionContext).value;
+        val value = variable.evaluate(executionContext);
 
         if(value is ObjectNode) {
-            val clone = value.deepCopy();
+            // the copy of a constant object is a view over the same constant
+            val clone = if (sharesSource) ConstantObjectNode.share(value) else value.deepCopy();
             // append - this will do the spread
             return CommandResult(clone, null, true);
         } else  if(value is ArrayNode) {
-            val clone = value.deepCopy();
+            val clone = if (sharesSource) ConstantObjectNode.share(value) else value.deepCopy();
             // append - this will do the spread
             return CommandResult(clone, null, true);
         }
@@ -26,4 +40,4 @@ class SpreadCommand(token: IIslToken, val variable: IIslCommand): BaseCommand(to
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
         return visitor.visit(this);
     }
-}
\ No newline at end of file
+}
@@ -9,7 +9,7 @@ import com.intuit.isl.utils.JsonConvert
  * Similar to an object build command but there is no Object {} output but we run and capture last valid result
  * Similar to Kotlin pretty much
  */
-class StatementsBuildCommand(token: IIslToken, val commands: List<IIslCommand>) : BaseCommand(token) {
+class StatementsBuildCommand(token: IIslToken, var commands: List<IIslCommand>) : BaseCommand(token) {
     override fun execute(executionContext: ExecutionContext): CommandResult {
         // run the list of statements - collect the results
         var commandResult: CommandResult? = null;
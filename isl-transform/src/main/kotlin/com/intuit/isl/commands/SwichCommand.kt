@@ -7,11 +7,11 @@ import com.intuit.isl.parser.tokens.IIslToken
 class SwitchCaseCommand(token: IIslToken, val value: IIslCommand, val cases: Array<SwitchCaseBranchCommand>) :
     BaseCommand(token) {
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val leftResult = value.execute(executionContext);
+        val leftValue = value.evaluate(executionContext);
 
         cases
             .forEach {
-                val result = it.execute(leftResult.value, executionContext);
+                val result = it.execute(leftValue, executionContext);
                 if (result.first)
                     return result.second!!;
             }
@@ -36,8 +36,8 @@ class SwitchCaseCommand(token: IIslToken, val value: IIslCommand, val cases: Arr
         }
 
         fun execute(left: Any?, context: ExecutionContext): Pair<Boolean, CommandResult?> {
-            val rightResult = right.execute(context);
-            if (ConditionEvaluator.evaluate(left, condition, rightResult.value))
+            val rightValue = right.evaluate(context);
+            if (ConditionEvaluator.evaluate(left, condition, rightValue))
                 return Pair(true, result.execute(context));
             return Pair(false, null);
         }
@@ -1,16 +1,17 @@
 package com.intuit.isl.commands
 
+import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.node.ValueNode
 import com.intuit.isl.common.ExecutionContext
 import com.intuit.isl.common.getVariableCanonical
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.parser.tokens.VariableSelectorValueToken
+import com.intuit.isl.utils.CompiledJsonPath
 import com.intuit.isl.utils.IIslReference
 import com.intuit.isl.utils.InstantNode
 import com.intuit.isl.utils.JsonConvert
 import com.jayway.jsonpath.Configuration
-import com.jayway.jsonpath.JsonPath
 import com.jayway.jsonpath.Option
 import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider
 import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider
@@ -26,6 +27,10 @@ open class VariableSelectorValueCommand(token: VariableSelectorValueToken) : Bas
         return CommandResult(variable)
     }
 
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        return CommandResult.unwrap(executionContext.operationContext.getVariableCanonical(variableKey))
+    }
+
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
         return visitor.visit(this)
     }
@@ -35,8 +40,8 @@ open class VariableSelectorValueCommand(token: VariableSelectorValueToken) : Bas
  * Select the value from a variable ($var.property1.property2....)
  */
 class VariableWithPathSelectorValueCommand(token: VariableSelectorValueToken) : VariableSelectorValueCommand(token) {
-    // Pre-Compile
-    private val path: JsonPath = JsonPath.compile(token.path)
+    // Pre-Compile - natively where we can, see [CompiledJsonPath]
+    private val path: CompiledJsonPath = CompiledJsonPath.compile(token.path!!)
 
     companion object {
         val configuration: Configuration = initConfiguration()
@@ -56,13 +61,18 @@ class VariableWithPathSelectorValueCommand(token: VariableSelectorValueToken) :
         val variable = executionContext.operationContext.getVariableCanonical(variableKey)
 
         if (variable != null) {
-            val result = path.read<Any?>(variable, configuration)
+            val result = path.read(variable, configuration)
             return CommandResult(result)
         }
 
         return CommandResult(variable)
     }
 
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        val variable = executionContext.operationContext.getVariableCanonical(variableKey) ?: return null
+        return CommandResult.unwrap(path.read(variable, configuration))
+    }
+
     // We need a custom JacksonNodeProvider to avoid the Json Paths selection to convert our InstantNodes into TextNodes
     // during the selection process
     private class InstantJacksonJsonNodeJsonProvider(objectMapper: ObjectMapper?) :
@@ -91,12 +101,20 @@ class VariableWithPathSelectorValueCommand(token: VariableSelectorValueToken) :
 class FastVariableWithPathSelectorValueCommand(token: VariableSelectorValueToken, val pathParts: Array<String>) :
     VariableSelectorValueCommand(token) {
     override fun execute(executionContext: ExecutionContext): CommandResult {
+        return CommandResult(select(executionContext))
+    }
+
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        return CommandResult.unwrap(select(executionContext))
+    }
+
+    private fun select(executionContext: ExecutionContext): JsonNode? {
         var variable = executionContext.operationContext.getVariableCanonical(variableKey)
 
         for (pathPart in pathParts) {
             variable = variable?.get(pathPart);
         }
-        return CommandResult(variable)
+        return variable
     }
 }
 
@@ -107,10 +125,14 @@ class FastSingleVariableWithPathSelectorValueCommand(token: VariableSelectorValu
     VariableSelectorValueCommand(token) {
     private val path = token.path;
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        var variable = executionContext.operationContext.getVariableCanonical(variableKey)
+        return CommandResult(select(executionContext))
+    }
 
-        variable = variable?.get(path);
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        return CommandResult.unwrap(select(executionContext))
+    }
 
-        return CommandResult(variable)
+    private fun select(executionContext: ExecutionContext): JsonNode? {
+        return executionContext.operationContext.getVariableCanonical(variableKey)?.get(path)
     }
 }
\ No newline at end of file
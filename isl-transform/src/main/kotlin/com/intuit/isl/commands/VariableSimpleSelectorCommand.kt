@@ -5,7 +5,9 @@ import com.fasterxml.jackson.databind.node.ArrayNode
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.getVariableCanonical
+import com.intuit.isl.common.getVariableSlot
 import com.intuit.isl.common.setVariableCanonical
 import com.intuit.isl.parser.tokens.SimplePropertySelectorValueToken
 import com.intuit.isl.parser.tokens.SimpleVariableSelectorValueToken
@@ -16,7 +18,8 @@ import com.intuit.isl.utils.JsonConvert
  */
 class VariableSimpleSelectorCommand(
     token: SimpleVariableSelectorValueToken,
-    private val expression: IEvaluableConditionCommand?
+    private val expression: IEvaluableConditionCommand?,
+    layout: VariableSlotLayout? = null
 ) :
     BaseCommand(token) {
 
@@ -24,6 +27,9 @@ class VariableSimpleSelectorCommand(
 
     private val variableKey = token.name.lowercase()
 
+    // null outside of functions, e.g. for commands built by hand
+    internal val variableSlot = layout?.slotFor(variableKey)
+
     override val token: SimpleVariableSelectorValueToken
         get() = super.token as SimpleVariableSelectorValueToken;
 
@@ -63,13 +69,35 @@ class VariableSimpleSelectorCommand(
 
             return CommandResult(variable);
         }
+
+        /**
+         * [resolvePart] without a condition selector, as a plain value.
+         */
+        internal fun resolveValue(variable: JsonNode?, indexSelector: Int?): Any? {
+            if (indexSelector == null)
+                return CommandResult.unwrap(variable);
+            if (variable is ArrayNode && indexSelector >= 0 && indexSelector < variable.size())
+                return CommandResult.unwrap(variable[indexSelector]);
+            return null;
+        }
     }
 
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val variable = executionContext.operationContext.getVariableCanonical(variableKey);
+        return resolvePart(readVariable(executionContext), executionContext, token.indexSelector, expression);
+    }
 
-        return resolvePart(variable, executionContext, token.indexSelector, expression);
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        if (expression != null)
+            return super.evaluate(executionContext);
+        return resolveValue(readVariable(executionContext), token.indexSelector);
+    }
+
+    private fun readVariable(executionContext: ExecutionContext): JsonNode? {
+        return if (variableSlot != null)
+            executionContext.operationContext.getVariableSlot(variableSlot)
+        else
+            executionContext.operationContext.getVariableCanonical(variableKey);
     }
 
 
@@ -92,7 +120,7 @@ class VariablePropertySelectorCommand(
         get() = super.token as SimplePropertySelectorValueToken;
 
     override fun execute(executionContext: ExecutionContext): CommandResult {
-        val variable = previousCommand.execute(executionContext).value;
+        val variable = previousCommand.evaluate(executionContext);
 
         if (variable is ObjectNode) {
             // read the child property
@@ -104,6 +132,16 @@ class VariablePropertySelectorCommand(
         return CommandResult.NULL
     }
 
+    override fun evaluate(executionContext: ExecutionContext): Any? {
+        if (expression != null)
+            return super.evaluate(executionContext);
+
+        val variable = previousCommand.evaluate(executionContext);
+        if (variable is ObjectNode)
+            return VariableSimpleSelectorCommand.resolveValue(variable[token.name], token.indexSelector);
+        return null;
+    }
+
     override fun <T> visit(visitor: ICommandVisitor<T>): T {
         return visitor.visit(this);
     }
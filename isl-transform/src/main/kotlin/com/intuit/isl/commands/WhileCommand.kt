@@ -17,6 +17,8 @@ class WhileCommand(
 
     internal val whileCondition: IEvaluableConditionCommand get() = expression
     internal val whileMaxLoops: IIslCommand? get() = maxLoops
+    // set by the declaring function so loop iterations count towards its tiering profile
+    internal var profile: FunctionProfile? = null
     companion object {
         const val MAX_LOOPS = 5000;
         const val DEFAULT_LOOPS = 50;
@@ -25,12 +27,13 @@ class WhileCommand(
     override fun execute(executionContext: ExecutionContext): CommandResult {
         var loops = DEFAULT_LOOPS;
         if (maxLoops != null) {
-            val res = maxLoops.execute(executionContext).value as? ObjectNode;
+            val res = maxLoops.evaluate(executionContext) as? ObjectNode;
             loops = ConvertUtils.tryParseInt(res?.get("maxLoops"), DEFAULT_LOOPS)!!;
             if (loops > MAX_LOOPS)
                 loops = MAX_LOOPS;
         }
 
+        val maxIterations = loops;
         val result = JsonNodeFactory.instance.arrayNode(10);
         while (expression.evaluateCondition(executionContext) && loops > 0) {
             val statementsRes = statements.execute(executionContext)
@@ -40,6 +43,7 @@ class WhileCommand(
 
             loops -= 1;
         }
+        profile?.recordBackEdges(maxIterations - loops);
 
         return CommandResult(result, null, true);
     }
@@ -0,0 +1,323 @@
+package com.intuit.isl.commands.builder
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.ArrayNode
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.fasterxml.jackson.databind.node.MissingNode
+import com.fasterxml.jackson.databind.node.NullNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.fasterxml.jackson.databind.node.ValueNode
+import com.intuit.isl.commands.AssignPropertyCommand
+import com.intuit.isl.commands.CommandResult
+import com.intuit.isl.commands.CompiledCommand
+import com.intuit.isl.commands.ConditionCommand
+import com.intuit.isl.commands.ConstantObjectBuildCommand
+import com.intuit.isl.commands.CoverageStatementIdAssigner
+import com.intuit.isl.commands.ForEachCommand
+import com.intuit.isl.commands.FunctionDeclarationCommand
+import com.intuit.isl.commands.FunctionReturnCommandHandler
+import com.intuit.isl.commands.IFunctionDeclarationCommand
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.LiteralValueCommand
+import com.intuit.isl.commands.ObjectBuildCommand
+import com.intuit.isl.commands.StatementsBuildCommand
+import com.intuit.isl.commands.VariablePropertySelectorCommand
+import com.intuit.isl.commands.VariableSimpleSelectorCommand
+import com.intuit.isl.commands.WhileCommand
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.getVariableCanonical
+import com.intuit.isl.common.getVariableSlot
+import com.intuit.isl.common.removeVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
+import com.intuit.isl.parser.tokens.FunctionDeclarationToken
+import com.intuit.isl.runtime.TransformModule
+import com.intuit.isl.types.TypedJsonNodeFactory
+import com.intuit.isl.utils.IIslIterable
+import com.intuit.isl.utils.JsonConvert
+import java.io.Closeable
+import java.util.IdentityHashMap
+
+private typealias ValueCode = (ExecutionContext) -> Any?
+private typealias ResultCode = (ExecutionContext) -> CommandResult
+private typealias MemberCode = (ExecutionContext, ObjectNode) -> Unit
+
+/**
+ * Closure tier: turns the body of a [FunctionDeclarationCommand] into a tree of specialized Kotlin closures.
+ * No bytecode is generated - the closures are plain JVM lambdas the JIT inlines like any other code, so the tier
+ * needs no code generation library and works wherever the interpreter does.
+ *
+ * The interpreter pays for a virtual `execute` per node and a [CommandResult] per result even where only the
+ * value is used. Here the structural commands (object builds, statements, conditions, foreach, property assignments
+ * and simple selectors) are lowered into closures that pass plain values around and resolve each child's role
+ * (property, append, value) once at compile time instead of on every run.
+ * Every other command - modifiers, function calls, math, etc. - is embedded as-is and runs through the interpreter,
+ * so the compiled body always has the exact semantics of the interpreted one.
+ *
+ * Compiled bodies are only used when no execution hook is attached; debugging and coverage keep interpreting.
+ */
+object ClosureCompiler {
+    /**
+     * Compile [function] and install the result. Returns false when the function shape is not supported
+     * (e.g. annotated functions), in which case it keeps running in the interpreter.
+     */
+    fun compile(function: IFunctionDeclarationCommand): Boolean {
+        return compile(function, function);
+    }
+
+    /**
+     * Compile the body of [source] - a declaration of the same function, e.g. one rebuilt with more optimizations -
+     * and install it on [function]. Its loops count towards the profile of [function].
+     */
+    fun compile(function: IFunctionDeclarationCommand, source: IFunctionDeclarationCommand): Boolean {
+        if (function !is FunctionDeclarationCommand)
+            return false;
+        if (function.compiledStatements != null)
+            return true;
+
+        val handler = source.statements as? FunctionReturnCommandHandler ?: return false;
+        val body = handler.statements;
+        if (source !== function) {
+            CoverageStatementIdAssigner.walkCommandGraph(body, IdentityHashMap()) {
+                when (it) {
+                    is ForEachCommand -> it.profile = function.profile
+                    is WhileCommand -> it.profile = function.profile
+                }
+            };
+        }
+        val compiledBody = CompiledCommand(body, compileResult(body));
+        function.compiledStatements = FunctionReturnCommandHandler(handler.token as FunctionDeclarationToken, compiledBody);
+        return true;
+    }
+
+    /**
+     * Compile every function of [module]. Returns the number of functions now running compiled.
+     */
+    fun compile(module: TransformModule): Int {
+        return module.functions.count { compile(it) };
+    }
+
+    private fun compileResult(command: IIslCommand): ResultCode {
+        return compileStructure(command) ?: command::execute;
+    }
+
+    /**
+     * Lowered form of the structural commands, null for everything that keeps running through the interpreter.
+     */
+    private fun compileStructure(command: IIslCommand): ResultCode? {
+        return when (command.javaClass) {
+            ObjectBuildCommand::class.java -> {
+                val build = compileObjectBuild(command as ObjectBuildCommand);
+                return { context -> CommandResult(build(context)) };
+            }
+
+            StatementsBuildCommand::class.java -> compileStatements(command as StatementsBuildCommand)
+            ConditionCommand::class.java -> compileCondition(command as ConditionCommand)
+            ForEachCommand::class.java -> compileForEach(command as ForEachCommand)
+            else -> null
+        }
+    }
+
+    /**
+     * Commands whose results never carry a property name, append or valid flag - only the value matters.
+     */
+    private fun isPlainValue(command: IIslCommand): Boolean {
+        return when (command.javaClass) {
+            LiteralValueCommand::class.java,
+            ObjectBuildCommand::class.java,
+            ConstantObjectBuildCommand::class.java -> true
+
+            VariableSimpleSelectorCommand::class.java -> (command as VariableSimpleSelectorCommand).indexCondition == null
+            VariablePropertySelectorCommand::class.java -> (command as VariablePropertySelectorCommand).propertyIndexCondition == null
+            else -> false
+        }
+    }
+
+    /**
+     * Value as [CommandResult.value] would return it.
+     */
+    private fun compileValue(command: IIslCommand): ValueCode {
+        when (command.javaClass) {
+            LiteralValueCommand::class.java -> {
+                val value = unwrap((command as LiteralValueCommand).token.value);
+                return { value };
+            }
+
+            ObjectBuildCommand::class.java -> return compileObjectBuild(command as ObjectBuildCommand)
+
+            VariableSimpleSelectorCommand::class.java -> {
+                command as VariableSimpleSelectorCommand;
+                if (command.indexCondition == null) {
+                    val key = command.token.name.lowercase();
+                    val slot = command.variableSlot;
+                    val index = command.token.indexSelector;
+                    if (slot != null) {
+                        if (index == null)
+                            return { context -> unwrap(context.operationContext.getVariableSlot(slot)) };
+                        return { context -> atIndex(context.operationContext.getVariableSlot(slot), index) };
+                    }
+                    if (index == null)
+                        return { context -> unwrap(context.operationContext.getVariableCanonical(key)) };
+                    return { context -> atIndex(context.operationContext.getVariableCanonical(key), index) };
+                }
+            }
+
+            VariablePropertySelectorCommand::class.java -> {
+                command as VariablePropertySelectorCommand;
+                if (command.propertyIndexCondition == null) {
+                    val previous = compileValue(command.propertyPrevious);
+                    val name = command.token.name;
+                    val index = command.token.indexSelector;
+                    if (index == null)
+                        return { context -> (previous(context) as? ObjectNode)?.let { unwrap(it[name]) } };
+                    return { context -> (previous(context) as? ObjectNode)?.let { atIndex(it[name], index) } };
+                }
+            }
+        }
+
+        // interpreted commands are asked for their value only, so expression commands skip the CommandResult
+        val result = compileStructure(command) ?: return command::evaluate;
+        return { context -> result(context).value };
+    }
+
+    private fun compileObjectBuild(command: ObjectBuildCommand): (ExecutionContext) -> ObjectNode {
+        val members = command.commands.map { compileMember(command, it) }.toTypedArray();
+        val seedVariableName = command.seedVariableName;
+        val islType = command.token.islType;
+
+        return { context ->
+            val result = if (seedVariableName != null)
+                context.operationContext.getVariableCanonical(seedVariableName) as? ObjectNode
+                    ?: TypedJsonNodeFactory.instance.typedObjectNode(islType)
+            else
+                TypedJsonNodeFactory.instance.typedObjectNode(islType);
+
+            for (member in members)
+                member(context, result);
+            result
+        };
+    }
+
+    private fun compileMember(owner: ObjectBuildCommand, child: IIslCommand): MemberCode {
+        if (child is AssignPropertyCommand && child.token.islType == null && child.token.name.isNotEmpty() && isPlainValue(child.value)) {
+            // the property name is known up front and the value can't ask to be skipped
+            val name = child.token.name;
+            val value = compileValue(child.value);
+            return { context, result ->
+                setProperty(result, name, JsonConvert.handleConvert(value(context), owner, child));
+            };
+        }
+
+        val code = compileResult(child);
+        return { context, result ->
+            val commandResult = code(context);
+            val propertyName = commandResult.propertyName;
+            if (!propertyName.isNullOrEmpty() && commandResult.append != false) {
+                setProperty(result, propertyName, JsonConvert.handleConvert(commandResult.value, owner, child));
+            } else if (commandResult.append == true) {
+                (commandResult.value as? ObjectNode)?.fields()?.forEach {
+                    result.set<JsonNode>(it.key, it.value);
+                }
+            }
+        };
+    }
+
+    private fun setProperty(result: ObjectNode, propertyName: String, realValue: JsonNode) {
+        // same merge rules as ObjectBuildCommand for prop1.prop2.prop3 style assignments
+        val existingNode = result.get(propertyName);
+        if (existingNode != null && existingNode !is ValueNode) {
+            JsonConvert.merge(existingNode, realValue);
+        } else {
+            result.set<JsonNode>(propertyName, realValue);
+        }
+    }
+
+    private fun compileStatements(command: StatementsBuildCommand): ResultCode {
+        val statements = command.commands.map { compileResult(it) }.toTypedArray();
+        return { context ->
+            var commandResult: CommandResult? = null;
+            for (statement in statements) {
+                val cr = statement(context);
+                if (cr.propertyName.isNullOrEmpty() && cr.value != null)
+                    commandResult = cr;
+            }
+            commandResult ?: CommandResult.NULL_NOT_VALID
+        };
+    }
+
+    private fun compileCondition(command: ConditionCommand): ResultCode {
+        val expression = command.branchCondition;
+        val trueResult = compileValue(command.trueBranch);
+        val falseResult = command.falseBranch?.let { compileValue(it) };
+        return { context ->
+            if (expression.evaluateCondition(context))
+                CommandResult(trueResult(context), null, true)
+            else if (falseResult == null)
+                CommandResult.NULL_APPEND_FALSE
+            else
+                CommandResult(falseResult(context), null, true)
+        };
+    }
+
+    private fun compileForEach(command: ForEachCommand): ResultCode {
+        val source = compileValue(command.foreachSource);
+        val statements = compileResult(command.statements);
+        val iteratorKey = command.token.iterator.lowercase();
+        val iteratorIndexKey = (command.token.iterator + "index").lowercase();
+        val iteratorSlot = command.iteratorSlot;
+        val iteratorIndexSlot = command.iteratorIndexSlot;
+        val profile = command.profile;
+
+        return { context ->
+            val sourceCollection = source(context);
+            val items = when (sourceCollection) {
+                is IIslIterable -> sourceCollection.getInnerIterator();
+                is Iterable<Any?> -> sourceCollection
+                else -> null;
+            };
+
+            val defaultSize = if (sourceCollection is Collection<Any?>) sourceCollection.size else 10;
+            var result: ArrayNode? = null;
+
+            val iterator = items?.iterator();
+            var i = 0;
+            try {
+                while (iterator != null && iterator.hasNext()) {
+                    val item = iterator.next();
+                    context.operationContext.setVariableSlotOrCanonical(iteratorSlot, iteratorKey, JsonConvert.convert(item));
+                    context.operationContext.setVariableSlotOrCanonical(iteratorIndexSlot, iteratorIndexKey, JsonConvert.convert(i++));
+
+                    val itValue = statements(context);
+                    if (itValue.validResult == false)
+                        continue;
+
+                    val converted = itValue.value ?: continue;
+                    if (result == null) result = JsonNodeFactory.instance.arrayNode(defaultSize);
+                    result!!.add(JsonConvert.convert(converted));
+                }
+            } finally {
+                // same as [ForEachCommand.forEachResult]
+                (iterator as? Closeable)?.close();
+            }
+
+            // hot loops keep counting towards tiering, as in the interpreter
+            profile?.recordBackEdges(i);
+
+            context.operationContext.removeVariableCanonical(iteratorKey);
+            context.operationContext.removeVariableCanonical(iteratorIndexKey);
+
+            CommandResult(result ?: JsonNodeFactory.instance.arrayNode(), null, true)
+        };
+    }
+
+    private fun atIndex(variable: Any?, index: Int): Any? {
+        if (variable is ArrayNode && index >= 0 && index < variable.size())
+            return unwrap(variable[index]);
+        return null;
+    }
+
+    private fun unwrap(value: Any?): Any? {
+        if (value is NullNode || value is MissingNode)
+            return null;
+        return value;
+    }
+}
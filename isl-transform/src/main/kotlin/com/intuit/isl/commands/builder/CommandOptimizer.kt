@@ -0,0 +1,358 @@
+package com.intuit.isl.commands.builder
+
+import com.intuit.isl.commands.*
+import com.intuit.isl.commands.modifiers.HardwiredModifierValueCommand
+import com.intuit.isl.commands.modifiers.ModifierValueCommand
+import com.intuit.isl.parser.tokens.FunctionReturnToken
+import com.intuit.isl.parser.tokens.LiteralValueToken
+import com.intuit.isl.parser.tokens.VariableSelectorValueToken
+import java.util.IdentityHashMap
+
+/**
+ * One optimization over the command graph of a function body. Passes must keep the exact semantics (and output)
+ * of the graph they are given - [SpreadSharingPass] and [ParallelHostCallsPass] are the exceptions.
+ * No pass runs unless it is listed in [CommandOptimizer.enabledPasses].
+ */
+interface IOptimizationPass {
+    /**
+     * Name used to enable the pass through [CommandOptimizer.enabledPasses].
+     */
+    val name: String
+
+    /**
+     * Optimize [body] and return it - either the same command (possibly changed in place) or a replacement.
+     */
+    fun run(body: IIslCommand): IIslCommand
+}
+
+/**
+ * Step 2.5: the optimization pipeline the [ExecutionBuilder] runs on every function body after building the commands
+ * and before the function is added to the [com.intuit.isl.runtime.TransformModule].
+ * Passes are opt-in: only the [passes] named in [enabledPasses] run, in the order of [passes], each on the output of
+ * the previous one. [dump] receives the graph before and after every pass for debugging.
+ */
+class CommandOptimizer(
+    val passes: List<IOptimizationPass> = standardPasses(),
+    val enabledPasses: Set<String> = emptySet(),
+    private val dump: ((PassDump) -> Unit)? = null
+) {
+    /**
+     * Graph of [functionName] before and after running [passName], as printed by [describe].
+     */
+    data class PassDump(
+        val functionName: String,
+        val passName: String,
+        val before: String,
+        val after: String
+    ) {
+        val changed: Boolean
+            get() = before != after;
+    }
+
+    fun isEnabled(passName: String): Boolean {
+        return enabledPasses.contains(passName);
+    }
+
+    fun optimize(functionName: String, body: IIslCommand): IIslCommand {
+        var result = body;
+        for (pass in passes) {
+            if (!isEnabled(pass.name))
+                continue;
+
+            if (dump == null) {
+                result = pass.run(result);
+            } else {
+                val before = describe(result);
+                result = pass.run(result);
+                dump.invoke(PassDump(functionName, pass.name, before, describe(result)));
+            }
+        }
+        return result;
+    }
+
+    companion object {
+        const val FUNCTION_INLINING = "function-inlining";
+        const val CONSTANT_PROPAGATION = "constant-propagation";
+        const val DEAD_BRANCH_ELIMINATION = "dead-branch-elimination";
+        const val NESTED_PROPERTY_MERGE = "nested-property-merge";
+        const val SPREAD_SHARING = "spread-sharing";
+        const val PARALLEL_HOST_CALLS = "parallel-host-calls";
+
+        fun standardPasses(): List<IOptimizationPass> {
+            return listOf(
+                FunctionInliningPass, ConstantPropagationPass, DeadBranchEliminationPass, NestedPropertyMergePass,
+                SpreadSharingPass, ParallelHostCallsPass
+            );
+        }
+
+        /**
+         * Names of all [standardPasses].
+         */
+        fun standardPassNames(): Set<String> {
+            return standardPasses().mapTo(LinkedHashSet()) { it.name };
+        }
+
+        /**
+         * What the compiler uses unless told otherwise: no pass runs, the graph is the one built from the script.
+         */
+        val default = CommandOptimizer();
+
+        /**
+         * Opt-in set of the passes that keep the output of every script: [FUNCTION_INLINING], [CONSTANT_PROPAGATION]
+         * and [NESTED_PROPERTY_MERGE]. Debuggers and coverage hooks see the optimized graph, e.g. a literal instead of
+         * the read of a propagated variable.
+         * [DEAD_BRANCH_ELIMINATION] is left out as it removes unreachable code coverage reports would otherwise list as
+         * not covered, [SPREAD_SHARING] as it is only safe for scripts that don't change spread sources in place and
+         * [PARALLEL_HOST_CALLS] as it is only safe for host extensions that don't depend on the order they are called in.
+         */
+        val recommended = CommandOptimizer(enabledPasses = setOf(FUNCTION_INLINING, CONSTANT_PROPAGATION, NESTED_PROPERTY_MERGE));
+
+        /**
+         * Leaves the graph exactly as built.
+         */
+        val none = CommandOptimizer(emptyList());
+
+        /**
+         * Indented tree of [command] and everything below it, one command per line.
+         */
+        fun describe(command: IIslCommand): String {
+            val builder = StringBuilder();
+            describe(command, 0, builder, IdentityHashMap());
+            return builder.toString();
+        }
+
+        private fun describe(
+            command: IIslCommand,
+            depth: Int,
+            builder: StringBuilder,
+            seen: IdentityHashMap<IIslCommand, Unit>
+        ) {
+            builder.append("  ".repeat(depth)).append(command.javaClass.simpleName);
+            val detail = when (command) {
+                is AssignPropertyCommand -> command.token.name
+                is AssignVariableCommand -> command.token.name
+                is LiteralValueCommand -> "`${command.token.value}`"
+                is VariableSelectorValueCommand -> command.variableName
+                is VariableSimpleSelectorCommand -> command.token.name
+                is MathExpressionCommand -> command.operator
+                is SimpleConditionCommand -> command.condition
+                is ConditionExpressionCommand -> command.condition
+                is ConstantObjectBuildCommand -> command.prototype.toString()
+                is FunctionCallCommand -> command.token.name
+                is InlinedFunctionCallCommand -> command.token.name
+                is ModifierValueCommand -> command.token.name
+                is SpreadCommand -> if (command.sharesSource) "shared" else null
+                else -> null
+            };
+            if (detail != null)
+                builder.append(' ').append(detail);
+            builder.append('\n');
+
+            // hardwired calls and recursion can lead back to a function that is already printed
+            if (seen.put(command, Unit) != null)
+                return;
+            CommandGraph.forEachChild(command) { describe(it, depth + 1, builder, seen) };
+        }
+    }
+}
+
+/**
+ * Helpers shared by the optimization passes.
+ */
+internal object CommandRewriter {
+    /**
+     * Bottom-up rewrite of the expression tree of [command]: children are rewritten first, then [transform] is applied
+     * to the (possibly rebuilt) command. Only commands whose structure is known here are rebuilt, everything else is
+     * passed to [transform] with its children untouched - statement lists nested in it are reached through
+     * [statementLists] instead.
+     */
+    fun rewrite(command: IIslCommand, transform: (IIslCommand) -> IIslCommand): IIslCommand {
+        val rebuilt: IIslCommand = when (command) {
+            is AssignPropertyCommand -> {
+                val value = rewrite(command.value, transform);
+                if (value === command.value) command else withParent(AssignPropertyCommand(command.token, value), value)
+            }
+
+            is AssignVariableCommand -> {
+                val value = rewrite(command.value, transform);
+                if (value === command.value) command else withParent(
+                    AssignVariableCommand(command.token, value, command.layout), value
+                )
+            }
+
+            is FunctionReturnCommand -> {
+                val value = rewrite(command.returnExpression, transform);
+                if (value === command.returnExpression) command else withParent(
+                    FunctionReturnCommand(command.token as FunctionReturnToken, value).also { it.useReturnValue = command.useReturnValue },
+                    value
+                )
+            }
+
+            is MathExpressionCommand -> {
+                val left = rewrite(command.left, transform);
+                val right = rewrite(command.right, transform);
+                if (left === command.left && right === command.right) command else withParent(
+                    MathExpressionCommand(command.token, left, right, command.operator), left, right
+                )
+            }
+
+            is CoalesceCommand -> {
+                val left = rewrite(command.left, transform);
+                val right = rewrite(command.right, transform);
+                if (left === command.left && right === command.right) command else withParent(
+                    CoalesceCommand(command.token, left, right), left, right
+                )
+            }
+
+            is InterpolateCommand -> {
+                val parts = rewriteAll(command.interpolationParts, transform);
+                if (parts == null) command else withParent(InterpolateCommand(command.token, parts), *parts.toTypedArray())
+            }
+
+            is ArrayCommand -> {
+                val elements = rewriteAll(command.elementCommands, transform);
+                if (elements == null) command else withParent(
+                    ArrayCommand(command.token, elements, command.seedVariableName), *elements.toTypedArray()
+                )
+            }
+
+            is SimpleConditionCommand -> {
+                val left = rewrite(command.left, transform);
+                val right = command.right?.let { rewrite(it, transform) };
+                if (left === command.left && right === command.right) command else withParent(
+                    SimpleConditionCommand(command.token, left, command.condition, right), left, right
+                )
+            }
+
+            is ConditionExpressionCommand -> {
+                val left = rewriteCondition(command.left, transform);
+                val right = rewriteCondition(command.right, transform);
+                if (left === command.left && right === command.right) command else withParent(
+                    ConditionExpressionCommand(command.token, left, command.condition, right),
+                    left as? IIslCommand, right as? IIslCommand
+                )
+            }
+
+            is ConditionCommand -> {
+                val condition = rewriteCondition(command.branchCondition, transform);
+                val trueBranch = rewrite(command.trueBranch, transform);
+                val falseBranch = command.falseBranch?.let { rewrite(it, transform) };
+                if (condition === command.branchCondition && trueBranch === command.trueBranch && falseBranch === command.falseBranch)
+                    command
+                else withParent(
+                    ConditionCommand(command.token, condition, trueBranch, falseBranch),
+                    condition as? IIslCommand, trueBranch, falseBranch
+                )
+            }
+
+            is ResolvedConditionCommand -> {
+                val branch = rewrite(command.branch, transform);
+                if (branch === command.branch) command else withParent(ResolvedConditionCommand(command.token, branch), branch)
+            }
+
+            is InlinedFunctionCallCommand -> {
+                val body = rewrite(command.body, transform);
+                if (body === command.body) command else withParent(
+                    InlinedFunctionCallCommand(command.call, body), body
+                )
+            }
+
+            // the map, filter, reduce and conditional modifiers have their own structure and are left alone
+            is ModifierValueCommand -> if (command.javaClass != ModifierValueCommand::class.java &&
+                command.javaClass != HardwiredModifierValueCommand::class.java
+            ) command else {
+                val value = rewrite(command.value, transform);
+                val arguments = rewriteAll(command.modifierArgumentCommands, transform);
+                if (value === command.value && arguments == null) command else withParent(
+                    command.copyWith(value, arguments ?: command.modifierArgumentCommands),
+                    value, *(arguments ?: command.modifierArgumentCommands).toTypedArray()
+                )
+            }
+
+            else -> command
+        };
+        return transform(rebuilt);
+    }
+
+    /**
+     * Copy of the expression tree of [command] that shares no command with it, e.g. to place the expression of a
+     * function at a call site. Every command has to be one [rewrite] rebuilds or one of the leaves copied here.
+     */
+    fun copy(command: IIslCommand): IIslCommand {
+        return rewrite(command) {
+            when {
+                it is LiteralValueCommand -> LiteralValueCommand(it.token)
+                it is ConstantObjectBuildCommand -> ConstantObjectBuildCommand(it.token, it.prototype)
+                it.javaClass == VariableSelectorValueCommand::class.java ->
+                    VariableSelectorValueCommand(it.token as VariableSelectorValueToken)
+                // rebuilt only when they have elements
+                it is ArrayCommand && it.elementCommands.isEmpty() -> ArrayCommand(it.token, ArrayList(), it.seedVariableName)
+                it is InterpolateCommand && it.interpolationParts.isEmpty() -> InterpolateCommand(it.token, ArrayList())
+                else -> it
+            }
+        };
+    }
+
+    private fun rewriteAll(commands: List<IIslCommand>, transform: (IIslCommand) -> IIslCommand): ArrayList<IIslCommand>? {
+        var changed = false;
+        val result = ArrayList<IIslCommand>(commands.size);
+        for (c in commands) {
+            val rewritten = rewrite(c, transform);
+            changed = changed || rewritten !== c;
+            result.add(rewritten);
+        }
+        return if (changed) result else null;
+    }
+
+    private fun rewriteCondition(
+        condition: IEvaluableConditionCommand,
+        transform: (IIslCommand) -> IIslCommand
+    ): IEvaluableConditionCommand {
+        if (condition !is IIslCommand)
+            return condition;
+        return rewrite(condition, transform) as? IEvaluableConditionCommand ?: condition;
+    }
+
+    /**
+     * Every object build and statement list reachable from [root] (including [root] itself).
+     */
+    fun statementLists(root: IIslCommand): List<IIslCommand> {
+        val result = ArrayList<IIslCommand>();
+        CoverageStatementIdAssigner.walkCommandGraph(root, IdentityHashMap()) {
+            if (it is ObjectBuildCommand || it is StatementsBuildCommand)
+                result.add(it);
+        };
+        return result;
+    }
+
+    /**
+     * Replace the statements of an object build or statement list.
+     */
+    fun setStatements(list: IIslCommand, statements: List<IIslCommand>) {
+        when (list) {
+            is ObjectBuildCommand -> list.commands = statements.toMutableList()
+            is StatementsBuildCommand -> list.commands = statements
+        }
+        statements.forEach { it.parent = list };
+    }
+
+    fun getStatements(list: IIslCommand): List<IIslCommand> {
+        return when (list) {
+            is ObjectBuildCommand -> list.commands
+            is StatementsBuildCommand -> list.commands
+            else -> emptyList()
+        };
+    }
+
+    /**
+     * Literal holding [value], positioned where [original] was.
+     */
+    fun literal(original: IIslCommand, value: Any?): LiteralValueCommand {
+        return LiteralValueCommand(LiteralValueToken(value, original.token.position));
+    }
+
+    private fun withParent(command: IIslCommand, vararg children: IIslCommand?): IIslCommand {
+        children.forEach { it?.parent = command }
+        return command
+    }
+}
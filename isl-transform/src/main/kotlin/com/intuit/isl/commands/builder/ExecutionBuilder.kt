@@ -8,25 +8,35 @@ import com.intuit.isl.runtime.ITransformer
 import com.intuit.isl.runtime.TransformCompilationException
 import com.intuit.isl.runtime.TransformModule
 import com.intuit.isl.runtime.Transformer
+import com.intuit.isl.utils.CompiledJsonPath
+import com.intuit.isl.utils.ConvertUtils
 import com.intuit.isl.utils.Position
 import com.intuit.isl.utils.justOne
 import com.intuit.isl.commands.modifiers.ConditionModifierValueCommand
 import com.intuit.isl.commands.modifiers.MapModifierValueCommand
 import com.intuit.isl.commands.modifiers.ReduceModifierValueCommand
 import com.intuit.isl.utils.parseSimpleJsonPath
-import com.jayway.jsonpath.JsonPath
 import java.util.*
+import java.util.concurrent.ConcurrentSkipListMap
 
 /**
  * Step 2: Take a Token Graph and build a Command Graph.
  * Execution builder takes a root token and builds an execution graph out of a combination of commands.
  * Execution builder can also apply static optimizations at this level.
+ *
+ * With [lazyFunctions] the module is returned without compiling any function. Each function (and the functions it
+ * calls) is compiled on first use, so the builder stays attached to the module until every function is built.
+ *
+ * Every function body goes through the [optimizer] pipeline before it is added to the module.
+ * The module keeps the builder to rebuild hot functions with another optimizer, see [rebuildFunction].
  */
 class ExecutionBuilder(
     private val moduleName: String,
     private val rootToken: ModuleImplementationToken,
     private val moduleFinder: ((name: String) -> ITransformer?)? = null,
-    private val operationContext: IOperationContext? = null
+    private val operationContext: IOperationContext? = null,
+    private val lazyFunctions: Boolean = false,
+    private val optimizer: CommandOptimizer = CommandOptimizer.default
 ) : IIslTokenVisitor<IIslCommand> {
 
     // Used for hard-wiring all internal methods & extensions
@@ -65,12 +75,7 @@ class ExecutionBuilder(
     fun build(): TransformModule {
         val module = visit(rootToken);
 
-        // TODO: optimize graph
-        // prop1.prop2.prop3: value1
-        // prop1.prop2.prop4: value2 should be bundles into one bigger statement
-        // prop1: { prop2: { prop3: value1, prop4: value2 } } }
-        // this means we need to unwrap and bundle multiple lines together into a single object
-        // one of the many optimizations we can nicely do
+        // graph optimizations run per function as it is built, see [optimizer]
 
         // TODO: Hardwired cross function calls @.This.Method ()
         return module;
@@ -112,11 +117,8 @@ class ExecutionBuilder(
     override fun visit(token: AssignPropertyToken): IIslCommand {
         val value = token.value.visit(this);
 
-        // TODO: Unwrap deep properties into object assignments
-        // prop1.prop2.prop3: value should become
-        // prop1: { prop2: { prop3: value } } }
-        // this means we need to unwrap and bundle multiple lines together into a single object
-        // one of the many optimizations we can nicely do
+        // prop1.prop2.prop3: value arrives here already unwrapped into prop1: { prop2: { prop3: value } }
+        // consecutive ones are bundled by the NestedPropertyMergePass
         return withParent(AssignPropertyCommand(token, value), value);
     }
 
@@ -137,7 +139,7 @@ class ExecutionBuilder(
         }
 
         val value = token.value.visit(this);
-        return withParent(AssignVariableCommand(token, value), value);
+        return withParent(AssignVariableCommand(token, value, slotLayout), value);
     }
 
     private fun tryBuildSelfSpreadOptimization(token: AssignVariableToken): IIslCommand? {
@@ -150,7 +152,7 @@ class ExecutionBuilder(
                     ObjectBuildCommand(valueToken, remainingCommands.toMutableList(), token.name),
                     *remainingCommands.toTypedArray()
                 );
-                withParent(AssignVariableCommand(token, seededBuild), seededBuild);
+                withParent(AssignVariableCommand(token, seededBuild, slotLayout), seededBuild);
             }
             is DeclareArrayToken -> {
                 val first = valueToken.values.firstOrNull() ?: return null;
@@ -160,7 +162,7 @@ class ExecutionBuilder(
                     ArrayCommand(valueToken, ArrayList(remainingCommands), token.name),
                     *remainingCommands.toTypedArray()
                 );
-                withParent(AssignVariableCommand(token, seededBuild), seededBuild);
+                withParent(AssignVariableCommand(token, seededBuild, slotLayout), seededBuild);
             }
             else -> null;
         }
@@ -199,7 +201,12 @@ class ExecutionBuilder(
                     token.statements.position
                 );
             }
-            withParent(HardwiredFunctionCallCommand(token, arguments, existingMethod));
+            // functions of this module are kept with the call so small ones can be inlined, see [FunctionInliningPass]
+            val methodName = token.name.replace(".", ":").lowercase();
+            val target = if (methodName.substringBefore(":") == "this")
+                compileFunction(methodName.substringAfter(":"))
+            else null;
+            withParent(HardwiredFunctionCallCommand(token, arguments, existingMethod, target));
         } else {
             if (statements != null)
                 withParent(StatementFunctionCallCommand(token, arguments, statements));
@@ -261,13 +268,46 @@ class ExecutionBuilder(
             else -> token.statements.visit(this);
         }
 
-        return withParent(ForEachCommand(token, source, statements));
+        return withParent(ForEachCommand(token, source, statements, slotLayout));
     }
 
     override fun visit(token: LiteralValueToken): IIslCommand {
         return withParent(LiteralValueCommand(token));
     }
 
+    private fun parallelOperation(name: String): ParallelModifierValueCommand.Operation? {
+        return when (name.lowercase()) {
+            "map.parallel" -> ParallelModifierValueCommand.Operation.MAP
+            "filter.parallel" -> ParallelModifierValueCommand.Operation.FILTER
+            "reduce.parallel" -> ParallelModifierValueCommand.Operation.REDUCE
+            else -> null
+        }
+    }
+
+    private fun buildParallelModifier(
+        token: ModifierValueToken,
+        operation: ParallelModifierValueCommand.Operation,
+        previousValue: IIslCommand,
+        arguments: List<IIslCommand>
+    ): IIslCommand {
+        // `| filter.parallel( $fit > 1 )` parses as a conditional modifier,
+        // `| map.parallel( $.id )` as a conditional modifier with a first argument
+        // and `| map.parallel( {{ $ * 2 }} )` as a standard modifier
+        if (operation == ParallelModifierValueCommand.Operation.FILTER) {
+            val condition = (token as? GenericConditionalModifierValueToken)?.condition?.visit(this)
+                ?: arguments.justOne(token, "Condition");
+            if (condition !is IEvaluableConditionCommand)
+                throw TransformCompilationException("Modifier ${token.name} needs a condition.", token.position);
+            return ParallelModifierValueCommand(token, operation, previousValue, null, condition);
+        }
+
+        val argument = if (token is GenericConditionalModifierValueToken)
+            (token.firstArgument ?: token.condition).visit(this)
+        else
+            arguments.justOne(token, "Expression");
+        return ParallelModifierValueCommand(token, operation, previousValue, argument, null);
+    }
+
     override fun visit(token: ModifierValueToken): IIslCommand {
         if (token is MapModifierValueToken && token.previousToken is FilterModifierValueToken) {
             val filterToken = token.previousToken as FilterModifierValueToken
@@ -276,7 +316,8 @@ class ExecutionBuilder(
                 token,
                 baseValue,
                 filterToken.condition.visit(this) as IEvaluableConditionCommand,
-                token.argument.visit(this)
+                token.argument.visit(this),
+                slotLayout
             )
             return withParent(fused, baseValue)
         }
@@ -289,13 +330,15 @@ class ExecutionBuilder(
             modifierCommand = FilterModifierValueCommand(
                 token,
                 previousValue,
-                token.condition.visit(this) as IEvaluableConditionCommand
+                token.condition.visit(this) as IEvaluableConditionCommand,
+                slotLayout
             );
         else if (token is MapModifierValueToken)
             modifierCommand = MapModifierValueCommand(
                 token,
                 previousValue,
-                token.argument.visit(this)
+                token.argument.visit(this),
+                slotLayout
             );
         else if (token is ConditionModifierValueToken) {
             val trueResult = token.trueModifier.visit(this);
@@ -309,8 +352,11 @@ class ExecutionBuilder(
             modifierCommand = ReduceModifierValueCommand(
                 token,
                 previousValue,
-                arguments.justOne(token, "Math Expression")
+                arguments.justOne(token, "Math Expression"),
+                slotLayout
             )
+        } else if (parallelOperation(token.name) != null) {
+            modifierCommand = buildParallelModifier(token, parallelOperation(token.name)!!, previousValue, arguments);
         } else if (token is GenericConditionalModifierValueToken) {
             val expression = token.condition.visit(this) as IEvaluableConditionCommand;
 
@@ -365,7 +411,7 @@ class ExecutionBuilder(
      * ([VariableSelectorValueToken] on `$` or string [LiteralValueToken] starting with `$`).
      * Invalid paths return null so runtime still reports [com.intuit.isl.runtime.TransformException] with position.
      */
-    private fun tryPrecompileJsonPathForModifierArgument(token: ModifierValueToken): JsonPath? {
+    private fun tryPrecompileJsonPathForModifierArgument(token: ModifierValueToken): CompiledJsonPath? {
         val selectorArgument = token.arguments.firstOrNull() ?: return null
         val selector = when (selectorArgument) {
             is VariableSelectorValueToken -> {
@@ -382,7 +428,7 @@ class ExecutionBuilder(
             }
             else -> return null
         }
-        return runCatching { JsonPath.compile(selector) }.getOrNull()
+        return runCatching { CompiledJsonPath.compile(selector) }.getOrNull()
     }
 
     private fun buildModifierCommand(
@@ -467,7 +513,7 @@ class ExecutionBuilder(
 
     override fun visit(token: SimpleVariableSelectorValueToken): IIslCommand {
         val condition = token.conditionSelector?.visit(this) as IEvaluableConditionCommand?;
-        return withParent(VariableSimpleSelectorCommand(token, condition));
+        return withParent(VariableSimpleSelectorCommand(token, condition, slotLayout));
     }
 
     override fun visit(token: SimplePropertySelectorValueToken): IIslCommand {
@@ -593,9 +639,62 @@ class ExecutionBuilder(
         return currentCommand;
     }
 
+    private fun isParallelCallsAnnotation(token: AnnotationDeclarationToken): Boolean {
+        return token.annotationName.equals(ParallelHostCallsPass.annotationName, ignoreCase = true);
+    }
+
+    /**
+     * Workers of a `@parallelCalls( workers )` function: the literal argument, or one per call.
+     */
+    private fun parallelCallsWorkers(token: AnnotationDeclarationToken): Int {
+        val argument = token.arguments.firstOrNull() ?: return ParallelHostCallsPass.maxAnnotationWorkers;
+        val workers = ConvertUtils.tryParseInt((argument as? LiteralValueToken)?.value)
+            ?: throw TransformCompilationException(
+                "@${ParallelHostCallsPass.annotationName} expects a number of workers", token.position
+            );
+        return Math.clamp(workers.toLong(), 1, ParallelHostCallsPass.maxAnnotationWorkers);
+    }
+
     override fun visit(token: FunctionDeclarationToken): IIslCommand {
+        return visitFunction(token, optimizer);
+    }
+
+    private fun visitFunction(token: FunctionDeclarationToken, optimizer: CommandOptimizer): IIslCommand {
+        // functions can be built while another one is half way (hardwired calls), each gets its own slot layout
+        val outerLayout = slotLayout;
+        slotLayout = VariableSlotLayout();
+        try {
+            return buildFunction(token, optimizer);
+        } finally {
+            slotLayout = outerLayout;
+        }
+    }
+
+    /**
+     * A new declaration of [functionName] whose body went through [optimizer] instead of the module's optimizer,
+     * e.g. for the closure tier (see [com.intuit.isl.runtime.TieredExecution]). The function of the module stays as
+     * it is; the functions it calls are the ones of the module.
+     */
+    internal fun rebuildFunction(functionName: String, optimizer: CommandOptimizer): IFunctionDeclarationCommand? {
+        // the builder is not thread-safe, see the lazy module below
+        synchronized(this) {
+            val function = rootToken.functions.find { it.functionName.equals(functionName, true) } ?: return null;
+            try {
+                return visitFunction(function, optimizer) as IFunctionDeclarationCommand;
+            } catch (e: Exception) {
+                compilationStack.clear();
+                throw e;
+            }
+        }
+    }
 
+    private fun buildFunction(token: FunctionDeclarationToken, optimizer: CommandOptimizer): IIslCommand {
         var statements = token.statements.visit(this);
+        // `@parallelCalls` groups the calls of this function with its own workers, before the module passes run
+        val parallelCalls = token.annotations.firstOrNull(::isParallelCallsAnnotation);
+        if (parallelCalls != null)
+            statements = ParallelHostCallsPass.run(statements, parallelCallsWorkers(parallelCalls));
+        statements = optimizer.optimize(token.functionName, statements);
 
         // check if very last statement is a return - then change it so that it does not throw an exception
         if (statements is ObjectBuildCommand) {
@@ -632,6 +731,9 @@ class ExecutionBuilder(
 
     private val imports = TreeMap<String, ITransformer>(String.CASE_INSENSITIVE_ORDER);
 
+    // variable slots of the function currently being built, see [VariableFrame]
+    private var slotLayout: VariableSlotLayout? = null;
+
     override fun visit(token: ModuleImplementationToken): TransformModule {
         // Import all external modules first
         token.imports
@@ -655,14 +757,37 @@ class ExecutionBuilder(
 
             set.add(it.functionName.lowercase());
 
-            compileFunction(it.functionName);
+            if (!lazyFunctions)
+                compileFunction(it.functionName);
         }
 
-        return TransformModule(moduleName, compiledFunctions.values.toList(), token);
+        if (lazyFunctions) {
+            // the builder is not thread-safe - racing first calls are serialized here and build each function once
+            val module = TransformModule(moduleName, listOf(), token) { functionName ->
+                synchronized(this) {
+                    try {
+                        if (localFunctionExists(functionName)) compileFunction(functionName) else null
+                    } catch (e: Exception) {
+                        // a failed build must not leave the function looking like a recursive call on the next try
+                        compilationStack.clear();
+                        throw e;
+                    }
+                }
+            };
+            lazyModule = module;
+            module.functionRebuilder = ::rebuildFunction;
+            return module;
+        }
+
+        val module = TransformModule(moduleName, compiledFunctions.values.toList(), token);
+        module.functionRebuilder = ::rebuildFunction;
+        return module;
     }
 
-    private val compiledFunctions = TreeMap<String, IFunctionDeclarationCommand>(String.CASE_INSENSITIVE_ORDER);
+    // concurrent as RecursiveFunctionDeclarationCommand reads it at runtime while lazy compilation may still add to it
+    private val compiledFunctions = ConcurrentSkipListMap<String, IFunctionDeclarationCommand>(String.CASE_INSENSITIVE_ORDER);
     private val compilationStack = TreeSet(String.CASE_INSENSITIVE_ORDER);
+    private var lazyModule: TransformModule? = null;
 
     private fun localFunctionExists(functionName: String): Boolean {
         return rootToken.functions.find { it.functionName.equals(functionName, true) } != null;
@@ -692,6 +817,7 @@ class ExecutionBuilder(
 
         val compiled = visit(function) as IFunctionDeclarationCommand;
         compiledFunctions[functionName] = compiled;
+        lazyModule?.attachFunction(compiled);
 
         compilationStack.remove(function.functionName);
         return compiled;
@@ -18,6 +18,7 @@ interface ICommandVisitor<T> {
     fun visit(command: WhileCommand): T;
     fun visit(command: FunctionCallCommand): T;
     fun visit(command: StatementFunctionCallCommand): T;
+    fun visit(command: InlinedFunctionCallCommand): T;
     fun visit(command: AnnotationCommand): T;
     fun visit(command: FunctionDeclarationCommand): T;
     fun visit(command: FunctionReturnCommand): T;
@@ -27,6 +28,7 @@ interface ICommandVisitor<T> {
     fun visit(command: FilterMapModifierValueCommand): T;
     fun visit(command: MapModifierValueCommand): T;
     fun visit(command: ReduceModifierValueCommand): T;
+    fun visit(command: ParallelModifierValueCommand): T;
     fun visit(command: GenericConditionalModifierCommand): T;
 
     fun visit(command: VariableSelectorValueCommand): T;
@@ -34,11 +36,13 @@ interface ICommandVisitor<T> {
     fun visit(command: VariablePropertySelectorCommand): T;
 
     fun visit(command: ObjectBuildCommand): T;
+    fun visit(command: ParallelCallsCommand): T;
     fun visit(command: ConstantObjectBuildCommand): T;
     fun visit(command: SpreadCommand): T;
     fun visit(command: StatementsBuildCommand): T;
 
     fun visit(command: ConditionCommand): T;
+    fun visit(command: ResolvedConditionCommand): T;
     fun visit(command: ConditionExpressionCommand): T;
     fun visit(command: SimpleConditionCommand): T;
     fun visit(command: CoalesceCommand): T;
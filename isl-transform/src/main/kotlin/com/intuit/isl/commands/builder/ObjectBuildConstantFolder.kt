@@ -45,7 +45,7 @@ object ObjectBuildConstantFolder {
             }
         }
 
-    private fun isConstantValue(cmd: IIslCommand): Boolean = when (cmd) {
+    internal fun isConstantValue(cmd: IIslCommand): Boolean = when (cmd) {
         is LiteralValueCommand -> true
         is ConstantObjectBuildCommand -> true
         is ObjectBuildCommand -> isConstantObjectBuild(cmd)
@@ -0,0 +1,518 @@
+package com.intuit.isl.commands.builder
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.intuit.isl.commands.*
+import com.intuit.isl.commands.modifiers.ModifierValueCommand
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.parser.tokens.ForEachToken
+import com.intuit.isl.utils.JsonConvert
+import java.util.IdentityHashMap
+
+/**
+ * Replaces calls of small functions of the same module (`@.This.FullName( $first, $last )`) by the expression the
+ * function returns, reading the parameters straight from the call arguments. A function is inlined when its body is a
+ * single `return` of a short side effect free expression - literals, parameter reads, math, conditions,
+ * interpolations and pure built-in modifiers - and every argument is a literal or a plain variable read, so evaluating
+ * an argument once, several times or not at all makes no difference.
+ * Only functions of the module being built are inlined, calls of imported modules are left as they are.
+ * Inlined calls are not counted in the function profile; with an execution hook attached the original call runs.
+ */
+object FunctionInliningPass : IOptimizationPass {
+    override val name = CommandOptimizer.FUNCTION_INLINING;
+
+    // larger functions gain little from skipping the call and would grow every caller
+    private const val maxExpressionSize = 32;
+
+    // built-in modifiers that only compute a new value out of their arguments
+    private val pureModifiers = setOf(
+        "trim", "trimstart", "trimend", "uppercase", "lowercase", "capitalize", "titlecase", "camelcase", "snakecase",
+        "length", "default", "substring", "substringafter", "substringupto", "left", "right", "padstart", "padend",
+        "replace", "indexof", "lastindexof", "isempty", "isnotempty", "negate", "absolute", "precision", "typeof"
+    );
+
+    override fun run(body: IIslCommand): IIslCommand {
+        for (list in CommandRewriter.statementLists(body)) {
+            val statements = CommandRewriter.getStatements(list);
+            val rewritten = statements.map { CommandRewriter.rewrite(it, ::inline) };
+            if (rewritten.indices.any { rewritten[it] !== statements[it] })
+                CommandRewriter.setStatements(list, rewritten);
+        }
+        return CommandRewriter.rewrite(body, ::inline);
+    }
+
+    private fun inline(command: IIslCommand): IIslCommand {
+        if (command !is HardwiredFunctionCallCommand)
+            return command;
+        // recursive calls are left alone, their target is a RecursiveFunctionDeclarationCommand
+        val function = command.target as? FunctionDeclarationCommand ?: return command;
+        val expression = returnExpression(function) ?: return command;
+
+        // same parameter names the function runner sets
+        val parameters = function.token.arguments.map { (if (it.name.startsWith("$")) it.name else "$" + it.name).lowercase() };
+        val arguments = command.callArguments;
+        if (arguments.size < parameters.size || !arguments.all(::isPureArgument))
+            return command;
+        if (!isInlinable(expression, parameters.toSet()))
+            return command;
+
+        // later parameters win, as they would when the runner sets them one after the other
+        val values = parameters.zip(arguments.map(::argumentValue)).toMap();
+        // a copy of the expression: the function and every other call site keep their own nodes and parents
+        val body = CommandRewriter.rewrite(CommandRewriter.copy(expression)) {
+            if (it.javaClass == VariableSelectorValueCommand::class.java)
+                values[(it as VariableSelectorValueCommand).variableName.lowercase()] ?: it
+            else it
+        };
+        return InlinedFunctionCallCommand(command, body).also {
+            command.parent = it;
+            body.parent = it;
+        };
+    }
+
+    /**
+     * Expression of a function that is nothing but `return <expression>`.
+     */
+    private fun returnExpression(function: FunctionDeclarationCommand): IIslCommand? {
+        // annotations wrap the handler, typed functions convert the result
+        val handler = function.statements as? FunctionReturnCommandHandler ?: return null;
+        if (function.token.islType != null)
+            return null;
+        val statement = handler.statements as? FunctionReturnCommand ?: return null;
+        return if (statement.useReturnValue) statement.returnExpression else null;
+    }
+
+    private fun isInlinable(expression: IIslCommand, parameters: Set<String>): Boolean {
+        var size = 0;
+        var inlinable = true;
+        forEachNode(expression) {
+            size++;
+            inlinable = inlinable && when (it.javaClass) {
+                LiteralValueCommand::class.java, ConstantObjectBuildCommand::class.java, MathExpressionCommand::class.java,
+                InterpolateCommand::class.java, CoalesceCommand::class.java, SimpleConditionCommand::class.java,
+                ResolvedConditionCommand::class.java, InlinedFunctionCallCommand::class.java -> true
+
+                // modifiers of imported modules and the host could have side effects or read the context
+                ModifierValueCommand::class.java -> pureModifiers.contains((it as ModifierValueCommand).token.name.lowercase())
+
+                // the callee only sees its parameters
+                VariableSelectorValueCommand::class.java ->
+                    parameters.contains((it as VariableSelectorValueCommand).variableName.lowercase())
+
+                // a seeded array writes its variable
+                ArrayCommand::class.java -> (it as ArrayCommand).seedVariableName == null
+                ConditionCommand::class.java -> (it as ConditionCommand).branchCondition is IIslCommand
+                ConditionExpressionCommand::class.java ->
+                    (it as ConditionExpressionCommand).left is IIslCommand && it.right is IIslCommand
+
+                else -> false
+            };
+        };
+        return inlinable && size <= maxExpressionSize;
+    }
+
+    private fun forEachNode(command: IIslCommand, action: (IIslCommand) -> Unit) {
+        action(command);
+        // a call inlined into the function counts with the expression it evaluates
+        if (command is InlinedFunctionCallCommand)
+            forEachNode(command.body, action);
+        else
+            CommandGraph.forEachChild(command) { forEachNode(it, action) };
+    }
+
+    internal fun isPureArgument(argument: IIslCommand): Boolean {
+        return when (argument.javaClass) {
+            LiteralValueCommand::class.java, VariableSelectorValueCommand::class.java,
+            FastSingleVariableWithPathSelectorValueCommand::class.java, FastVariableWithPathSelectorValueCommand::class.java -> true
+
+            VariableSimpleSelectorCommand::class.java -> (argument as VariableSimpleSelectorCommand).indexCondition == null
+            VariablePropertySelectorCommand::class.java -> (argument as VariablePropertySelectorCommand).propertyIndexCondition == null &&
+                    isPureArgument(argument.propertyPrevious)
+
+            else -> false
+        };
+    }
+
+    /**
+     * What the function reads for the parameter [argument] is passed to: a literal is converted now, exactly as the
+     * runner converts it into the parameter variable.
+     */
+    private fun argumentValue(argument: IIslCommand): IIslCommand {
+        if (argument !is LiteralValueCommand)
+            return argument;
+        val value = JsonConvert.convert(argument.evaluate(ConstantPropagationPass.scratchContext()));
+        return CommandRewriter.literal(argument, value);
+    }
+}
+
+/**
+ * Propagates variables that are assigned a constant scalar exactly once, at the top level of the function:
+ * `$rate = 5; total: {{ $amount * $rate }}` reads the literal instead of the variable after the assignment, and math
+ * and string interpolations that end up with only literals are folded into a single literal.
+ * The assignment itself is kept, so the variable still exists for anything reading it by name.
+ */
+object ConstantPropagationPass : IOptimizationPass {
+    override val name = CommandOptimizer.CONSTANT_PROPAGATION;
+
+    // written by the foreach, filter, map and reduce commands (and condition selectors) behind the scenes
+    private val implicitVariables = setOf("\$", "\$fit", "\$it", "\$acc");
+
+    override fun run(body: IIslCommand): IIslCommand {
+        if (body !is ObjectBuildCommand && body !is StatementsBuildCommand)
+            return body;
+
+        val writes = HashMap<String, Int>();
+        var hasStatementFunctions = false;
+        walk(body) {
+            when (it) {
+                is AssignVariableCommand -> writes.merge(it.token.name, 1, Int::plus)
+                is ObjectBuildCommand -> it.seedVariableName?.let { name -> writes.merge(name.lowercase(), 2, Int::plus) }
+                is ArrayCommand -> it.seedVariableName?.let { name -> writes.merge(name.lowercase(), 2, Int::plus) }
+                // statement functions (e.g. the pagination helpers) set variables of the caller
+                is StatementFunctionCallCommand -> hasStatementFunctions = true
+            }
+            (it.token as? ForEachToken)?.let { token ->
+                writes.merge(token.iterator.lowercase(), 2, Int::plus);
+                writes.merge((token.iterator + "index").lowercase(), 2, Int::plus);
+            }
+        };
+        if (hasStatementFunctions)
+            return body;
+
+        var index = 0;
+        while (index < CommandRewriter.getStatements(body).size) {
+            val statement = CommandRewriter.getStatements(body)[index];
+            index++;
+
+            if (statement !is AssignVariableCommand || statement.token.topPropertyName != null || statement.token.islType != null)
+                continue;
+            val name = statement.token.name;
+            if (writes[name] != 1 || implicitVariables.contains(name))
+                continue;
+            val value = constantScalar(statement.value) ?: continue;
+
+            val statements = CommandRewriter.getStatements(body);
+            val rewritten = ArrayList(statements.subList(0, index));
+            for (next in statements.subList(index, statements.size)) {
+                // innermost lists first, so object builds see their final children when they are folded
+                for (list in CommandRewriter.statementLists(next).asReversed()) {
+                    CommandRewriter.setStatements(
+                        list,
+                        CommandRewriter.getStatements(list).map { c -> CommandRewriter.rewrite(c) { replaceRead(it, name, value) } }
+                    );
+                }
+                rewritten.add(CommandRewriter.rewrite(next) { replaceRead(it, name, value) });
+            }
+            CommandRewriter.setStatements(body, rewritten);
+        }
+        return body;
+    }
+
+    private fun replaceRead(command: IIslCommand, name: String, value: JsonNode): IIslCommand {
+        if (command.javaClass == VariableSelectorValueCommand::class.java &&
+            (command as VariableSelectorValueCommand).variableName.lowercase() == name
+        )
+            return CommandRewriter.literal(command, value);
+        return fold(command);
+    }
+
+    /**
+     * Math and interpolation over literals only, evaluated now.
+     */
+    internal fun fold(command: IIslCommand): IIslCommand {
+        val constant = when (command) {
+            is MathExpressionCommand -> command.left is LiteralValueCommand && command.right is LiteralValueCommand
+            is InterpolateCommand -> command.interpolationParts.all { it is LiteralValueCommand }
+            is ObjectBuildCommand -> return if (command.seedVariableName == null) ObjectBuildConstantFolder.tryFold(command) else command
+            else -> false
+        };
+        if (!constant)
+            return command;
+
+        return try {
+            val value = command.execute(scratchContext()).value;
+            if (value is JsonNode && value.isContainerNode) command else CommandRewriter.literal(command, value)
+        } catch (_: Exception) {
+            command
+        };
+    }
+
+    /**
+     * The immutable value [command] always produces, converted the way the variable assignment stores it.
+     */
+    private fun constantScalar(command: IIslCommand): JsonNode? {
+        if (!ObjectBuildConstantFolder.isConstantValue(command))
+            return null;
+        return try {
+            val node = JsonConvert.convert(command.execute(scratchContext()).value);
+            if (node.isTextual || node.isNumber || node.isBoolean) node else null
+        } catch (_: Exception) {
+            null
+        };
+    }
+
+    private fun walk(root: IIslCommand, visit: (IIslCommand) -> Unit) {
+        CoverageStatementIdAssigner.walkCommandGraph(root, IdentityHashMap(), visit);
+    }
+
+    internal fun scratchContext(): ExecutionContext {
+        return ExecutionContext(OperationContext(), null);
+    }
+}
+
+/**
+ * Removes the branch that can never run from conditions that only compare literals
+ * (`if ( "prod" == "prod" )`, or after [ConstantPropagationPass] `$env = "prod"; if ( $env == "prod" )`).
+ * The taken branch is kept as a [ResolvedConditionCommand]; a condition without a taken branch is dropped from its
+ * object build or statement list altogether.
+ */
+object DeadBranchEliminationPass : IOptimizationPass {
+    override val name = CommandOptimizer.DEAD_BRANCH_ELIMINATION;
+
+    override fun run(body: IIslCommand): IIslCommand {
+        for (list in CommandRewriter.statementLists(body)) {
+            val statements = CommandRewriter.getStatements(list);
+            val result = ArrayList<IIslCommand>(statements.size);
+            var changed = false;
+            for (statement in statements) {
+                val rewritten = CommandRewriter.rewrite(statement, ::resolve);
+                changed = changed || rewritten !== statement;
+                if (isDead(rewritten)) {
+                    changed = true;
+                    continue;
+                }
+                result.add(rewritten);
+            }
+            if (changed)
+                CommandRewriter.setStatements(list, result);
+        }
+        return body;
+    }
+
+    private fun resolve(command: IIslCommand): IIslCommand {
+        if (command !is ConditionCommand)
+            return command;
+        return when (constantCondition(command.branchCondition)) {
+            true -> ResolvedConditionCommand(command.token, command.trueBranch).also { command.trueBranch.parent = it }
+            false -> command.falseBranch?.let { branch ->
+                ResolvedConditionCommand(command.token, branch).also { branch.parent = it }
+            } ?: command
+            null -> command
+        };
+    }
+
+    /**
+     * A condition that never runs anything, directly or as the value of a property - the object build skips both.
+     */
+    private fun isDead(command: IIslCommand): Boolean {
+        val condition = when (command) {
+            is ConditionCommand -> command
+            is AssignPropertyCommand -> command.value as? ConditionCommand ?: return false
+            else -> return false
+        };
+        return condition.falseBranch == null && constantCondition(condition.branchCondition) == false;
+    }
+
+    private fun constantCondition(condition: IEvaluableConditionCommand): Boolean? {
+        if (!isConstant(condition))
+            return null;
+        return try {
+            condition.evaluateCondition(ConstantPropagationPass.scratchContext())
+        } catch (_: Exception) {
+            null
+        };
+    }
+
+    private fun isConstant(condition: IEvaluableConditionCommand): Boolean {
+        return when (condition) {
+            is SimpleConditionCommand -> condition.left is LiteralValueCommand &&
+                    (condition.right == null || condition.right is LiteralValueCommand)
+
+            is ConditionExpressionCommand -> isConstant(condition.left) && isConstant(condition.right)
+            else -> false
+        };
+    }
+}
+
+/**
+ * Bundles consecutive assignments to the same property into one nested build:
+ * `prop1.prop2.x: $a; prop1.prop2.y: $b` is built as `prop1: { prop2: { x: $a, y: $b } }` instead of building two
+ * objects and merging the second into the first at runtime. Evaluation order is unchanged - only adjacent
+ * assignments are bundled and a property name seen twice at the same level stops the bundling.
+ */
+object NestedPropertyMergePass : IOptimizationPass {
+    override val name = CommandOptimizer.NESTED_PROPERTY_MERGE;
+
+    override fun run(body: IIslCommand): IIslCommand {
+        for (list in CommandRewriter.statementLists(body)) {
+            // statement lists ignore properties, only object builds collect them
+            if (list !is ObjectBuildCommand)
+                continue;
+
+            val result = ArrayList<IIslCommand>(list.commands.size);
+            var changed = false;
+            for (statement in list.commands) {
+                val merged = result.lastOrNull()?.let { tryMerge(it, statement) };
+                if (merged != null) {
+                    result[result.size - 1] = merged;
+                    changed = true;
+                } else {
+                    result.add(statement);
+                }
+            }
+            if (changed)
+                CommandRewriter.setStatements(list, result);
+        }
+        return body;
+    }
+
+    private fun tryMerge(first: IIslCommand, second: IIslCommand): IIslCommand? {
+        if (first !is AssignPropertyCommand || second !is AssignPropertyCommand)
+            return null;
+        if (first.token.name != second.token.name || first.token.islType != null || second.token.islType != null)
+            return null;
+
+        val value = mergeObjects(first.value, second.value) ?: return null;
+        return AssignPropertyCommand(first.token, value).also { value.parent = it };
+    }
+
+    private fun mergeObjects(first: IIslCommand, second: IIslCommand): IIslCommand? {
+        if (first is ConstantObjectBuildCommand && second is ConstantObjectBuildCommand) {
+            // exactly what the object build does at runtime with the two copies
+            val merged = JsonConvert.merge(first.prototype.deepCopy(), second.prototype.deepCopy()) as ObjectNode;
+            return ConstantObjectBuildCommand(first.token, merged);
+        }
+
+        if (first !is ObjectBuildCommand || second !is ObjectBuildCommand)
+            return null;
+        if (!isPlainObject(first) || !isPlainObject(second))
+            return null;
+
+        val combined = ArrayList<IIslCommand>(first.commands);
+        val names = first.commands.mapTo(HashSet()) { (it as AssignPropertyCommand).token.name };
+        for (child in second.commands) {
+            child as AssignPropertyCommand;
+            val last = combined.last() as AssignPropertyCommand;
+            if (last.token.name == child.token.name) {
+                combined[combined.size - 1] = tryMerge(last, child) ?: return null;
+                continue;
+            }
+            if (!names.add(child.token.name))
+                return null;
+            combined.add(child);
+        }
+
+        val result = ObjectBuildCommand(first.token, combined);
+        combined.forEach { it.parent = result };
+        return result;
+    }
+
+    private fun isPlainObject(command: ObjectBuildCommand): Boolean {
+        return command.seedVariableName == null && command.token.islType == null && command.commands.isNotEmpty() &&
+                command.commands.all { it is AssignPropertyCommand };
+    }
+}
+
+/**
+ * Lets every spread (`...$payload`) share nested objects and arrays with its source instead of deep copying it,
+ * not only spreads of constant objects (see [SpreadCommand]). Changing the spread result still never changes the
+ * source, but changing the source in place after the spread shows through the parts of the result that were not
+ * changed yet - unlike the other passes this one relies on the script not doing that.
+ */
+object SpreadSharingPass : IOptimizationPass {
+    override val name = CommandOptimizer.SPREAD_SHARING;
+
+    override fun run(body: IIslCommand): IIslCommand {
+        CoverageStatementIdAssigner.walkCommandGraph(body, IdentityHashMap()) {
+            if (it is SpreadCommand)
+                it.sharesSource = true;
+        };
+        return body;
+    }
+}
+
+/**
+ * Runs consecutive properties of an object build that call host extensions at the same time:
+ * `user: @.Users.Get( $id ); orders: @.Orders.List( $id ); prefs: @.Prefs.Get( $id );` takes as long as the slowest
+ * call instead of the three of them, see [ParallelCallsCommand]. A property qualifies when its value is a call of a
+ * host extension (not a function of a module) whose arguments are literals or plain variable reads - nothing runs
+ * between the calls of a group, so no call can depend on a variable set after another one. The property name must
+ * not be set by any other statement of the object and no statement before it may add properties of unknown names
+ * (spreads, conditions), so the result is exactly the one built in order.
+ *
+ * The calls themselves must not depend on each other's side effects, which can't be told from the script - the pass
+ * is off by default. Turn it on for a module by listing it in [CommandOptimizer.enabledPasses], the calls then run
+ * in parallel when [com.intuit.isl.common.IOperationContext.maxParallelWorkers] of the operation is above 1. Or turn it on for one function
+ * with the built-in `@parallelCalls` annotation, whose calls run in parallel on workers of their own:
+ * `@parallelCalls( 4 )` on up to 4, `@parallelCalls` on one per call (at most [maxAnnotationWorkers]).
+ */
+object ParallelHostCallsPass : IOptimizationPass {
+    override val name = CommandOptimizer.PARALLEL_HOST_CALLS;
+
+    /**
+     * Annotation turning the pass on for the function it is placed on.
+     */
+    const val annotationName = "parallelCalls";
+
+    /**
+     * Most workers a `@parallelCalls` function runs its calls on, same limit as
+     * [com.intuit.isl.runtime.Transformer.maxParallelWorkers].
+     */
+    const val maxAnnotationWorkers = 50;
+
+    override fun run(body: IIslCommand): IIslCommand {
+        return run(body, null);
+    }
+
+    /**
+     * Group the calls of [body], running each group on up to [workers] workers (null for the
+     * [com.intuit.isl.common.IOperationContext.maxParallelWorkers] of the operation).
+     */
+    fun run(body: IIslCommand, workers: Int?): IIslCommand {
+        for (list in CommandRewriter.statementLists(body)) {
+            // statement lists ignore properties and seeded objects already have properties of unknown names
+            if (list !is ObjectBuildCommand || list.seedVariableName != null)
+                continue;
+
+            val names = HashMap<String, Int>();
+            list.commands.forEach { if (it is AssignPropertyCommand) names.merge(it.token.name, 1, Int::plus) };
+
+            val result = ArrayList<IIslCommand>(list.commands.size);
+            val group = ArrayList<AssignPropertyCommand>();
+            var unknownNames = false;
+            for (statement in list.commands) {
+                if (!unknownNames && statement is AssignPropertyCommand && names[statement.token.name] == 1 && isHostCall(statement)) {
+                    group.add(statement);
+                    continue;
+                }
+                addGroup(result, group, workers);
+                result.add(statement);
+                unknownNames = unknownNames || !(statement is AssignPropertyCommand || statement is AssignVariableCommand || statement is NoopCommand);
+            }
+            addGroup(result, group, workers);
+
+            if (result.size != list.commands.size)
+                CommandRewriter.setStatements(list, result);
+        }
+        return body;
+    }
+
+    private fun isHostCall(property: AssignPropertyCommand): Boolean {
+        // hardwired calls go to functions of a module
+        val call = property.value;
+        return property.token.name.isNotEmpty() && call.javaClass == FunctionCallCommand::class.java &&
+                (call as FunctionCallCommand).callArguments.all(FunctionInliningPass::isPureArgument);
+    }
+
+    private fun addGroup(result: MutableList<IIslCommand>, group: MutableList<AssignPropertyCommand>, workers: Int?) {
+        if (group.size > 1) {
+            val calls = ParallelCallsCommand(group.first().token, group.toList(), workers);
+            group.forEach { it.parent = calls };
+            result.add(calls);
+        } else {
+            result.addAll(group);
+        }
+        group.clear();
+    }
+}
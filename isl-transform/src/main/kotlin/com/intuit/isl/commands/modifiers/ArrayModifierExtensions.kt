@@ -13,7 +13,7 @@ import com.intuit.isl.utils.ConvertUtils
 import com.intuit.isl.utils.JsonConvert
 import com.intuit.isl.utils.ObjectRefNode
 import com.jayway.jsonpath.InvalidPathException
-import com.jayway.jsonpath.JsonPath
+import com.intuit.isl.utils.CompiledJsonPath
 import com.intuit.isl.runtime.TransformException
 import java.math.BigDecimal
 import java.util.LinkedHashMap
@@ -234,7 +234,7 @@ object ArrayModifierExtensions {
 
             iterator?.forEach {
                 val id = ConvertUtils.tryToString(
-                    path.read<Any?>(it, VariableWithPathSelectorValueCommand.configuration)
+                    path.read(it, VariableWithPathSelectorValueCommand.configuration)
                 )
                 if (tempSet.contains(id))
                     return@forEach // ignore
@@ -369,7 +369,7 @@ object ArrayModifierExtensions {
      * For `group.by`, the first user argument lives at [FunctionExecuteContext.thirdParameter]
      * (after the piped value and the wildcard segment `"by"`).
      */
-    private fun resolveGroupByJsonPath(context: FunctionExecuteContext, selectorArgument: IIslToken): JsonPath? {
+    private fun resolveGroupByJsonPath(context: FunctionExecuteContext, selectorArgument: IIslToken): CompiledJsonPath? {
         if (selectorArgument is VariableSelectorValueToken && selectorArgument.variableName == "$") {
             val selector = if (selectorArgument.path.isNullOrBlank()) {
                 "$"
@@ -385,9 +385,9 @@ object ArrayModifierExtensions {
         return null
     }
 
-    private fun compileGroupByPath(selector: String, context: FunctionExecuteContext): JsonPath {
+    private fun compileGroupByPath(selector: String, context: FunctionExecuteContext): CompiledJsonPath {
         try {
-            return JsonPath.compile(selector)
+            return CompiledJsonPath.compile(selector)
         } catch (e: InvalidPathException) {
             throw TransformException(
                 "|group.by invalid JSON path '$selector' - ${e.message}",
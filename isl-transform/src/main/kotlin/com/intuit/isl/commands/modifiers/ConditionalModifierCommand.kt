@@ -32,6 +32,8 @@ class PotentialGenericConditionalModifierCommand(
     override val token: GenericConditionalModifierValueToken
         get() = super.token as GenericConditionalModifierValueToken;
 
+    private val fullExtensionName = "modifier.${name.lowercase()}";
+
     // We hit a modifier that has a first param that could be either a condition
     // or an argument - we'll have to wait until execution to see what this is
 //    init {
@@ -40,15 +42,15 @@ class PotentialGenericConditionalModifierCommand(
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
-        val standardModifier = executionContext.operationContext.getExtension("modifier.${modifierName}")
+        val standardModifier = extensionSite.resolve(executionContext.operationContext)
         val result =
             if (standardModifier != null) {
                 val prevValue = value.execute(executionContext)
                 internalRunModifier(this, executionContext, prevValue, super.modifierArguments, standardModifier)
             } else {
                 val extension =
-                    executionContext.operationContext.getConditionalExtension("modifier.${modifierName}")
-                        ?: executionContext.operationContext.getConditionalExtension("modifier.${name.lowercase()}")
+                    executionContext.operationContext.getConditionalExtension(extensionSite.name)
+                        ?: executionContext.operationContext.getConditionalExtension(fullExtensionName)
                 if (extension == null) {
                     CommandResult("Unknown Extension: ${name}")
                 } else {
@@ -91,12 +93,16 @@ class GenericConditionalModifierCommand(
         }
     }
 
+    // extension names built once, not on every call
+    private val wildcardExtensionName = "modifier.$modifierName";
+    private val fullExtensionName = "modifier.$name";
+
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
         val extension =
-            executionContext.operationContext.getConditionalExtension("modifier.$modifierName")
-                ?: executionContext.operationContext.getConditionalExtension("modifier.$name")
+            executionContext.operationContext.getConditionalExtension(wildcardExtensionName)
+                ?: executionContext.operationContext.getConditionalExtension(fullExtensionName)
         val result =
             if (extension == null) {
                 CommandResult("Unknown Extension: ${name}")
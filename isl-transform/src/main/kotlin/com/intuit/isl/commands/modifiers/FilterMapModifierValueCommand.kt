@@ -6,9 +6,11 @@ import com.intuit.isl.commands.CommandResult
 import com.intuit.isl.commands.IEvaluableConditionCommand
 import com.intuit.isl.commands.IIslCommand
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.getVariableCanonical
 import com.intuit.isl.common.removeVariableCanonical
 import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.parser.tokens.MapModifierValueToken
 import com.intuit.isl.utils.JsonConvert
@@ -21,8 +23,11 @@ class FilterMapModifierValueCommand(
     token: MapModifierValueToken,
     private val value: IIslCommand,
     private val filterExpression: IEvaluableConditionCommand,
-    private val mapArgument: IIslCommand
+    private val mapArgument: IIslCommand,
+    layout: VariableSlotLayout? = null
 ) : BaseCommand(token) {
+    private val filterItemSlot = layout?.slotFor("\$fit")
+    private val itemSlot = layout?.slotFor("\$")
 
     internal val filterMapSource: IIslCommand get() = value
     internal val filterMapPredicate: IEvaluableConditionCommand get() = filterExpression
@@ -30,7 +35,7 @@ class FilterMapModifierValueCommand(
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
-        val sourceCollection = value.execute(executionContext).value
+        val sourceCollection = value.evaluate(executionContext)
 
         val source = when (sourceCollection) {
             is Iterable<Any?> -> sourceCollection
@@ -42,10 +47,10 @@ class FilterMapModifierValueCommand(
         val resultArray = JsonNodeFactory.instance.arrayNode(defaultSize)
 
         source?.forEach { it ->
-            executionContext.operationContext.setVariableCanonical("\$fit", JsonConvert.convert(it))
-            executionContext.operationContext.setVariableCanonical("\$", JsonConvert.convert(it))
+            executionContext.operationContext.setVariableSlotOrCanonical(filterItemSlot, "\$fit", JsonConvert.convert(it))
+            executionContext.operationContext.setVariableSlotOrCanonical(itemSlot, "\$", JsonConvert.convert(it))
             if (filterExpression.evaluateCondition(executionContext)) {
-                resultArray.add(JsonConvert.convert(mapArgument.execute(executionContext).value))
+                resultArray.add(JsonConvert.convert(mapArgument.evaluate(executionContext)))
             }
         }
 
@@ -6,9 +6,11 @@ import com.intuit.isl.commands.CommandResult
 import com.intuit.isl.commands.IEvaluableConditionCommand
 import com.intuit.isl.commands.IIslCommand
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.getVariableCanonical
 import com.intuit.isl.common.removeVariableCanonical
 import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.parser.tokens.FilterModifierValueToken
 import com.intuit.isl.utils.JsonConvert
@@ -16,15 +18,18 @@ import com.intuit.isl.utils.JsonConvert
 class FilterModifierValueCommand(
     token: FilterModifierValueToken,
     private val value: IIslCommand,
-    private val expression: IEvaluableConditionCommand
+    private val expression: IEvaluableConditionCommand,
+    layout: VariableSlotLayout? = null
 ) : BaseCommand(token) {
+    private val filterItemSlot = layout?.slotFor("\$fit")
+    private val itemSlot = layout?.slotFor("\$")
 
     internal val filterSource: IIslCommand get() = value
     internal val filterExpression: IEvaluableConditionCommand get() = expression
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
-        val sourceCollection = value.execute(executionContext).value
+        val sourceCollection = value.evaluate(executionContext)
 
         val source = when (sourceCollection) {
             is Iterable<Any?> -> sourceCollection
@@ -37,8 +42,8 @@ class FilterModifierValueCommand(
         val resultArray = JsonNodeFactory.instance.arrayNode(defaultSize)
 
         source?.forEach { it ->
-            executionContext.operationContext.setVariableCanonical("\$fit", JsonConvert.convert(it))
-            executionContext.operationContext.setVariableCanonical("\$", JsonConvert.convert(it))
+            executionContext.operationContext.setVariableSlotOrCanonical(filterItemSlot, "\$fit", JsonConvert.convert(it))
+            executionContext.operationContext.setVariableSlotOrCanonical(itemSlot, "\$", JsonConvert.convert(it))
             if (expression.evaluateCondition(executionContext)) {
                 resultArray.add(JsonConvert.convert(it))
             }
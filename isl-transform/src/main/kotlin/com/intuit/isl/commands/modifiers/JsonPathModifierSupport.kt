@@ -5,8 +5,8 @@ import com.intuit.isl.parser.tokens.ModifierValueToken
 import com.intuit.isl.parser.tokens.VariableSelectorValueToken
 import com.intuit.isl.runtime.TransformException
 import com.intuit.isl.utils.ConvertUtils
+import com.intuit.isl.utils.CompiledJsonPath
 import com.jayway.jsonpath.InvalidPathException
-import com.jayway.jsonpath.JsonPath
 
 /**
  * Shared JSON Path handling for object/array modifiers that take a path argument
@@ -17,7 +17,7 @@ import com.jayway.jsonpath.JsonPath
  */
 object JsonPathModifierSupport {
 
-    fun evaluateJsonPathFromParameter(context: FunctionExecuteContext): JsonPath? {
+    fun evaluateJsonPathFromParameter(context: FunctionExecuteContext): CompiledJsonPath? {
         (context.command as? HardwiredModifierValueCommand)?.precompiledModifierJsonPath?.let { return it }
 
         val token = context.command.token as? ModifierValueToken ?: return null
@@ -33,7 +33,7 @@ object JsonPathModifierSupport {
                 ConvertUtils.tryToString(context.secondParameter) ?: "\$"
 
         try {
-            return JsonPath.compile(selector)
+            return CompiledJsonPath.compile(selector)
         } catch (e: InvalidPathException) {
             throw TransformException(
                 "|${context.functionName} Invalid Path '$selector' - ${e.message}",
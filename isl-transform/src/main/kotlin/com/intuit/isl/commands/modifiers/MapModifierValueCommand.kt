@@ -5,8 +5,9 @@ import com.intuit.isl.commands.BaseCommand
 import com.intuit.isl.commands.CommandResult
 import com.intuit.isl.commands.IIslCommand
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.removeVariableCanonical
-import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.parser.tokens.MapModifierValueToken
 import com.intuit.isl.utils.JsonConvert
@@ -14,15 +15,17 @@ import com.intuit.isl.utils.JsonConvert
 class MapModifierValueCommand(
     token: MapModifierValueToken,
     private val previousValue: IIslCommand,
-    private val argument: IIslCommand
+    private val argument: IIslCommand,
+    layout: VariableSlotLayout? = null
 ) : BaseCommand(token) {
+    private val itemSlot = layout?.slotFor("\$")
 
     internal val mapPreviousValue: IIslCommand get() = previousValue
     internal val mapArgument: IIslCommand get() = argument
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
-        val sourceCollection = previousValue.execute(executionContext).value
+        val sourceCollection = previousValue.evaluate(executionContext)
 
         val source = when (sourceCollection) {
             is Iterable<Any?> -> sourceCollection
@@ -33,8 +36,8 @@ class MapModifierValueCommand(
         val array = JsonNodeFactory.instance.arrayNode(defaultSize)
 
         source?.forEach { it ->
-            executionContext.operationContext.setVariableCanonical("\$", JsonConvert.convert(it))
-            array.add(JsonConvert.convert(argument.execute(executionContext).value))
+            executionContext.operationContext.setVariableSlotOrCanonical(itemSlot, "\$", JsonConvert.convert(it))
+            array.add(JsonConvert.convert(argument.evaluate(executionContext)))
         }
         executionContext.operationContext.removeVariableCanonical("\$")
 
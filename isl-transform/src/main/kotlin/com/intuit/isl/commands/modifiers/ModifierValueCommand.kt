@@ -5,15 +5,16 @@ import com.intuit.isl.common.FunctionExecuteContext
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.commands.BaseCommand
 import com.intuit.isl.commands.CommandResult
+import com.intuit.isl.commands.ExtensionCallSite
 import com.intuit.isl.commands.FunctionCallCommand
 import com.intuit.isl.commands.IIslCommand
 import com.intuit.isl.common.ContextAwareExtensionMethod
 import com.intuit.isl.parser.tokens.ModifierValueToken
-import com.jayway.jsonpath.JsonPath
+import com.intuit.isl.utils.CompiledJsonPath
 
 open class ModifierValueCommand(
     token: ModifierValueToken,
-    realModifierName: String,
+    protected val realModifierName: String,
     val value: IIslCommand,
     protected val modifierArguments: List<IIslCommand>
 ) : BaseCommand(token) {
@@ -37,7 +38,7 @@ open class ModifierValueCommand(
             val args = mutableListOf(prevValue.value);
             if (command.modifierSelector != null)
                 args.add(command.modifierSelector);
-            arguments.mapTo(args) { it.execute(executionContext).value };
+            arguments.mapTo(args) { it.evaluate(executionContext) };
 
             val functionContext = FunctionExecuteContext(command.token.name, command, executionContext, args.toTypedArray());
 
@@ -61,6 +62,15 @@ open class ModifierValueCommand(
         }
     }
 
+    internal val extensionSite = ExtensionCallSite("modifier.$modifierName");
+
+    /**
+     * The same modifier applied to [value] with [arguments], for build time rewrites of the command graph.
+     */
+    internal open fun copyWith(value: IIslCommand, arguments: List<IIslCommand>): ModifierValueCommand {
+        return ModifierValueCommand(token, realModifierName, value, arguments);
+    }
+
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
@@ -75,7 +85,7 @@ open class ModifierValueCommand(
         executionContext: ExecutionContext
     ): CommandResult {
         // Apply our modifier
-        val modifier = executionContext.operationContext.getExtension("modifier.${modifierName}");
+        val modifier = extensionSite.resolve(executionContext.operationContext);
 
         if (modifier == null) {
             val error = "Unknown Modifier: ${token.name}";
@@ -97,8 +107,12 @@ class HardwiredModifierValueCommand(
      * When the first modifier argument is a static JSON Path (`$.field` or `"$.field"`),
      * [com.intuit.isl.commands.builder.ExecutionBuilder] compiles it once at build time.
      */
-    val precompiledModifierJsonPath: JsonPath? = null
+    val precompiledModifierJsonPath: CompiledJsonPath? = null
 ) : ModifierValueCommand(token, realModifierName, value, arguments) {
+    override fun copyWith(value: IIslCommand, arguments: List<IIslCommand>): ModifierValueCommand {
+        return HardwiredModifierValueCommand(token, realModifierName, value, arguments, callback, precompiledModifierJsonPath);
+    }
+
     override fun internalExecute(
         prevValue: CommandResult,
         executionContext: ExecutionContext
@@ -238,7 +238,7 @@ object ObjectModifierExtensions {
         if (path == null)
             return first
         
-        val result = path.read<Any?>(first, VariableWithPathSelectorValueCommand.configuration)
+        val result = path.read(first, VariableWithPathSelectorValueCommand.configuration)
         return result
     }
     
@@ -277,7 +277,7 @@ object ObjectModifierExtensions {
         val command = expression?.let { CommandBuilder().expression(it) }
         return command?.let { cmd ->
             val ec = ExecutionContext(context.executionContext.operationContext, null)
-            cmd.execute(ec).value
+            cmd.evaluate(ec)
         }
     }
     
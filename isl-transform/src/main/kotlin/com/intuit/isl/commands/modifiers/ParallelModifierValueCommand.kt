@@ -0,0 +1,152 @@
+package com.intuit.isl.commands.modifiers
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.intuit.isl.commands.BaseCommand
+import com.intuit.isl.commands.CommandResult
+import com.intuit.isl.commands.IEvaluableConditionCommand
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.builder.ICommandVisitor
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.ParallelOperationContext
+import com.intuit.isl.parser.tokens.ModifierValueToken
+import com.intuit.isl.runtime.ParallelScheduler
+import com.intuit.isl.runtime.TransformException
+import com.intuit.isl.utils.JsonConvert
+
+/**
+ * `| map.parallel( expression )`, `| filter.parallel( condition )` and `| reduce.parallel( {{ expression }} )`.
+ * Same variables as the sequential [MapModifierValueCommand], [FilterModifierValueCommand] and
+ * [ReduceModifierValueCommand], but the elements run on up to [com.intuit.isl.common.IOperationContext.maxParallelWorkers]
+ * workers of the [ParallelScheduler], each worker on its own [ParallelOperationContext]. Results keep the source order.
+ *
+ * `reduce.parallel` reduces contiguous slices of the source in parallel, then reduces the partial results in order
+ * with the same expression - `$acc` is the result so far, `$it` the result of the next slice.
+ * This is only correct for associative expressions like `{{ $acc + $it }}`.
+ */
+class ParallelModifierValueCommand(
+    token: ModifierValueToken,
+    val operation: Operation,
+    private val value: IIslCommand,
+    private val argument: IIslCommand?,
+    private val condition: IEvaluableConditionCommand?
+) : BaseCommand(token) {
+    enum class Operation { MAP, FILTER, REDUCE }
+
+    internal val parallelSource: IIslCommand get() = value
+    internal val parallelArgument: IIslCommand? get() = argument
+    internal val parallelCondition: IEvaluableConditionCommand? get() = condition
+
+    override fun execute(executionContext: ExecutionContext): CommandResult {
+        val hook = executionContext.executionHook
+        hook?.onBeforeExecute(this, executionContext)
+        val sourceCollection = value.evaluate(executionContext)
+
+        val source = when (sourceCollection) {
+            is Iterable<Any?> -> sourceCollection
+            else -> null
+        }
+
+        val resultValue = try {
+            when (operation) {
+                Operation.MAP -> map(executionContext, source)
+                Operation.FILTER -> filter(executionContext, source)
+                Operation.REDUCE -> reduce(executionContext, source)
+            }
+        } catch (t: TransformException) {
+            throw t
+        } catch (e: Exception) {
+            throw TransformException(e.message + " at ${token.position}", token.position, e)
+        }
+
+        val result = CommandResult(resultValue)
+        hook?.onAfterExecute(this, executionContext, result)
+        return result
+    }
+
+    private fun map(executionContext: ExecutionContext, source: Iterable<Any?>?): JsonNode {
+        val values = runEach(executionContext, source) { (localOperationContext, localExecutionContext), it ->
+            localOperationContext.shadowVariable("\$", JsonConvert.convert(it))
+            JsonConvert.convert(argument!!.evaluate(localExecutionContext))
+        }
+        val array = JsonNodeFactory.instance.arrayNode(values.size)
+        values.forEach { array.add(it) }
+        return array
+    }
+
+    private fun filter(executionContext: ExecutionContext, source: Iterable<Any?>?): JsonNode {
+        val values = runEach(executionContext, source) { (localOperationContext, localExecutionContext), it ->
+            val item = JsonConvert.convert(it)
+            localOperationContext.shadowVariable("\$fit", item)
+            localOperationContext.shadowVariable("\$", item)
+            if (condition!!.evaluateCondition(localExecutionContext)) item else null
+        }
+        val array = JsonNodeFactory.instance.arrayNode(values.size)
+        values.forEach { if (it != null) array.add(it) }
+        return array
+    }
+
+    private fun reduce(executionContext: ExecutionContext, source: Iterable<Any?>?): Any? {
+        val items = source?.toList() ?: emptyList()
+        val workers = executionContext.operationContext.maxParallelWorkers
+        val sliceSize = maxOf(1, (items.size + workers - 1) / workers)
+        val partials = runEach(executionContext, items.chunked(sliceSize)) { worker, slice ->
+            var acc = "" as Any?
+            for (item in slice as List<*>)
+                acc = accumulate(worker, acc, item)
+            acc
+        }
+
+        if (partials.size <= 1)
+            return partials.firstOrNull() ?: ""
+        val worker = newWorker(executionContext)
+        return partials.reduce { acc, partial -> accumulate(worker, acc, partial) }
+    }
+
+    private fun accumulate(worker: Pair<ParallelOperationContext, ExecutionContext>, acc: Any?, item: Any?): Any? {
+        val (localOperationContext, localExecutionContext) = worker
+        // each step only sees its own `$it` and `$acc`
+        localOperationContext.reset()
+        localOperationContext.shadowVariable("\$it", JsonConvert.convert(item))
+        localOperationContext.shadowVariable("\$acc", JsonConvert.convert(acc))
+        return argument!!.evaluate(localExecutionContext)
+    }
+
+    private fun <R> runEach(
+        executionContext: ExecutionContext,
+        source: Iterable<Any?>?,
+        body: (Pair<ParallelOperationContext, ExecutionContext>, Any?) -> R
+    ): List<R> {
+        if (source == null)
+            return emptyList()
+        return ParallelScheduler.map(
+            source.iterator(),
+            if (source is Collection<*>) source.size else -1,
+            executionContext.operationContext.maxParallelWorkers,
+            0,
+            false,
+            { newWorker(executionContext) }
+        ) { worker, _, it ->
+            // one context per worker, each element starts without the variables of the previous one
+            worker.first.reset()
+            body(worker, it)
+        }
+    }
+
+    private fun newWorker(executionContext: ExecutionContext): Pair<ParallelOperationContext, ExecutionContext> {
+        val localOperationContext = ParallelOperationContext(executionContext.operationContext)
+        return Pair(
+            localOperationContext,
+            ExecutionContext(
+                localOperationContext,
+                executionContext.localContext,
+                executionContext.executionHook,
+                executionContext.coroutineContext
+            )
+        )
+    }
+
+    override fun <T> visit(visitor: ICommandVisitor<T>): T {
+        return visitor.visit(this);
+    }
+}
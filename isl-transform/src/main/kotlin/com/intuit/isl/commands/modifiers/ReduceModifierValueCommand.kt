@@ -1,9 +1,10 @@
 package com.intuit.isl.commands.modifiers
 
 import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.VariableSlotLayout
 import com.intuit.isl.common.getVariableCanonical
 import com.intuit.isl.common.resetVariableCanonical
-import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.common.setVariableSlotOrCanonical
 import com.intuit.isl.commands.builder.ICommandVisitor
 import com.intuit.isl.commands.BaseCommand
 import com.intuit.isl.commands.CommandResult
@@ -14,15 +15,18 @@ import com.intuit.isl.utils.JsonConvert
 class ReduceModifierValueCommand(
     token: ModifierValueToken,
     private val value: IIslCommand,
-    private val argument: IIslCommand
+    private val argument: IIslCommand,
+    layout: VariableSlotLayout? = null
 ) : BaseCommand(token) {
+    private val itSlot = layout?.slotFor("\$it")
+    private val accSlot = layout?.slotFor("\$acc")
 
     internal val reduceSource: IIslCommand get() = value
     internal val reduceArgument: IIslCommand get() = argument
     override fun execute(executionContext: ExecutionContext): CommandResult {
         val hook = executionContext.executionHook
         hook?.onBeforeExecute(this, executionContext)
-        val sourceCollection = value.execute(executionContext).value
+        val sourceCollection = value.evaluate(executionContext)
 
         val source = when (sourceCollection) {
             is Iterable<Any?> -> sourceCollection
@@ -33,9 +37,9 @@ class ReduceModifierValueCommand(
         val oldIt = executionContext.operationContext.getVariableCanonical("\$it")
         var acc = "" as Any?
         source?.forEach { it ->
-            executionContext.operationContext.setVariableCanonical("\$it", JsonConvert.convert(it))
-            executionContext.operationContext.setVariableCanonical("\$acc", JsonConvert.convert(acc))
-            acc = argument.execute(executionContext).value
+            executionContext.operationContext.setVariableSlotOrCanonical(itSlot, "\$it", JsonConvert.convert(it))
+            executionContext.operationContext.setVariableSlotOrCanonical(accSlot, "\$acc", JsonConvert.convert(acc))
+            acc = argument.evaluate(executionContext)
         }
         executionContext.operationContext.resetVariableCanonical("\$it", oldIt)
         executionContext.operationContext.resetVariableCanonical("\$acc", oldAcc)
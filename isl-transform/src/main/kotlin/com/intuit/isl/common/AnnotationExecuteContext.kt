@@ -17,9 +17,15 @@ data class AnnotationExecuteContext(
     val firstParameter: Any?
         get() = parameters.elementAtOrNull(0);
 
+    /**
+     * Values of the variables the function sees: its parameters and the global variables of its callers.
+     */
     val functionParameters: Array<*>
-        get() = executionContext.operationContext.variables.map { it.value.value }
-            .toTypedArray();
+        get() {
+            val context = executionContext.operationContext;
+            val variables = (context as? BaseOperationContext)?.visibleVariables() ?: context.variables;
+            return variables.map { it.value.value }.toTypedArray();
+        }
 
     val functionName: String
         get() = command.function.functionName;
@@ -28,7 +34,7 @@ data class AnnotationExecuteContext(
      * Run next command - now sync since all commands are sync
      */
     fun runNextCommand(): Any? {
-        return nextCommand.execute(executionContext).value;
+        return nextCommand.evaluate(executionContext);
     }
 
     /**
@@ -37,6 +43,6 @@ data class AnnotationExecuteContext(
      */
     @Deprecated("Use runNextCommand() instead - both are sync now", ReplaceWith("runNextCommand()"))
     fun runNextCommandSync(): Any? {
-        return nextCommand.execute(executionContext).value;
+        return nextCommand.evaluate(executionContext);
     }
 }
\ No newline at end of file
@@ -2,7 +2,10 @@ package com.intuit.isl.common
 
 import com.fasterxml.jackson.databind.JsonNode
 import com.intuit.isl.runtime.TransformException
+import com.intuit.isl.runtime.Transformer
+import com.intuit.isl.utils.ConstantObjectNode
 import com.intuit.isl.utils.Position
+import java.util.concurrent.CompletionStage
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.HashMap
 
@@ -12,6 +15,7 @@ import kotlin.collections.HashMap
  */
 open class BaseOperationContext : IOperationContext {
     override val variables = HashMap<String, TransformVariable>();
+    internal val variableFrame = VariableFrame();
 
     // We carry two sets of extensions ! which have various priorities
     // `extensions` are the publicly registered set of extensions and modifiers that were done from code
@@ -27,6 +31,18 @@ open class BaseOperationContext : IOperationContext {
     // These are not carried in child contexts - they are sync-only internal module functions
     protected var internalExtensions: HashMap<String, ContextAwareExtensionMethod>;
     
+    // global variables of the calling contexts: the closest caller that has or hides global variables.
+    // Function calls reference it instead of copying the globals into every new context, see [inheritedVariable]
+    private var callerScope: BaseOperationContext? = null;
+    // true once this context has a global variable or hides a global variable of its callers
+    private var scopesGlobals = false;
+
+    // workers of this operation, null to follow Transformer.maxParallelWorkers
+    private var parallelWorkers: Int? = null;
+
+    // frozen host registrations shared by many contexts, looked up after the ones registered on this context
+    internal var template: OperationContextTemplate? = null;
+
     // Performance optimization: Cache extension lookups to avoid repeated HashMap traversals
     private val extensionCache = ConcurrentHashMap<String, ContextAwareExtensionMethod?>()
 
@@ -70,7 +86,6 @@ open class BaseOperationContext : IOperationContext {
     }
 
     open fun clone(newInternals: HashMap<String, ContextAwareExtensionMethod>): IOperationContext {
-        // we also want to copy across all global variables
         val newContext = BaseOperationContext(
             this.extensions,
             this.annotations,
@@ -79,13 +94,128 @@ open class BaseOperationContext : IOperationContext {
             this.conditionalExtensions,
 //            this.interceptor
         );
-
-        this.variables.filter { it.value.global }
-            .forEach { newContext.setTransformVariableCanonical(it.key, it.value) }
+        newContext.template = this.template;
+        newContext.parallelWorkers = this.parallelWorkers;
+        // the global variables stay where they are, the new context falls through to them.
+        // Hosts can fill the variables of a root context directly so that one is always part of the chain.
+        newContext.callerScope = if (scopesGlobals || callerScope == null) this else callerScope;
 
         return newContext;
     }
 
+    /**
+     * Maximum parallel workers of this operation, clamped to 1..50 like [Transformer.maxParallelWorkers].
+     * Function calls and batch workers keep the value of the context they were created from.
+     */
+    override var maxParallelWorkers: Int
+        get() = parallelWorkers ?: Transformer.maxParallelWorkers
+        set(value) {
+            parallelWorkers = Math.clamp(value.toLong(), 1, 50).toInt();
+        }
+
+    /**
+     * The template whose extensions this context uses when it has no registrations of its own,
+     * see [com.intuit.isl.commands.ExtensionCallSite].
+     */
+    internal val linkableTemplate: OperationContextTemplate?
+        get() = if (extensions.isEmpty()) template else null;
+
+    internal val moduleExtensions: Map<String, ContextAwareExtensionMethod>
+        get() = internalExtensions;
+
+    /**
+     * Global variable [name] of the calling contexts. The closest caller that has a variable with that name decides:
+     * a local variable of a caller hides the globals of its own callers, same as when the globals were copied
+     * from context to context.
+     */
+    internal fun inheritedVariable(name: String): TransformVariable? {
+        var scope = callerScope;
+        while (scope != null) {
+            val variable = scope.variables[name];
+            if (variable != null)
+                return if (variable.global) variable else null;
+            scope = scope.callerScope;
+        }
+        return null;
+    }
+
+    /**
+     * Variable [name] of this context, or the inherited global.
+     */
+    internal fun visibleVariable(name: String): TransformVariable? {
+        return variables[name] ?: inheritedVariable(name);
+    }
+
+    /**
+     * The variables of this context plus the global variables inherited from the calling contexts, e.g. for debuggers.
+     */
+    fun visibleVariables(): Map<String, TransformVariable> {
+        val scopes = ArrayList<BaseOperationContext>();
+        var scope = callerScope;
+        while (scope != null) {
+            scopes.add(scope);
+            scope = scope.callerScope;
+        }
+        val result = HashMap<String, TransformVariable>();
+        for (s in scopes.asReversed()) {
+            for ((name, variable) in s.variables) {
+                if (variable.global) result[name] = variable;
+                else result.remove(name);
+            }
+        }
+        result.putAll(variables);
+        return result;
+    }
+
+    /**
+     * Validate and store [variable], writes always stay in this context.
+     */
+    internal fun putVariable(name: String, variable: TransformVariable) {
+        val local = variables[name];
+        val existing = local ?: inheritedVariable(name);
+        if (existing?.readOnly == true)
+            throw Exception("Could not set readonly variable=$name.");
+        if (variable.global || (local == null && existing != null))
+            scopesGlobals = true;
+        variables[name] = variable;
+    }
+
+    /**
+     * Replace all variables with copies of the ones in [snapshot] so the context can be reused for another run,
+     * see [com.intuit.isl.runtime.Transformer.runTransformBatch].
+     * Objects and arrays are copy-on-write copies ([ConstantObjectNode.share]): writes like `$var.prop = 1` only
+     * change the copy of this run, never the snapshot or the runs of other workers.
+     */
+    internal fun resetVariables(snapshot: Map<String, TransformVariable>) {
+        variables.clear();
+        for ((name, variable) in snapshot) {
+            val value = variable.value;
+            variables[name] = variable.copy(value = if (value != null && value.isContainerNode) ConstantObjectNode.share(value) else value);
+        }
+        scopesGlobals = true;
+        variableFrame.invalidate();
+    }
+
+    /**
+     * Freeze the extensions, annotations, statement and conditional extensions registered so far into an
+     * [OperationContextTemplate] that creates cheap per-request contexts. Variables are not part of the template.
+     */
+    fun freeze(): OperationContextTemplate {
+        val template = this.template;
+        return OperationContextTemplate(
+            merge(template?.extensions, extensions),
+            merge(template?.annotations, annotations),
+            merge(template?.statementExtensions, statementExtensions),
+            merge(template?.conditionalExtensions, conditionalExtensions)
+        );
+    }
+
+    private fun <T> merge(frozen: Map<String, T>?, registered: Map<String, T>): Map<String, T> {
+        val result = HashMap<String, T>(frozen ?: emptyMap());
+        result.putAll(registered);
+        return result;
+    }
+
     fun useModuleFunctions(functionExtensions: HashMap<String, ContextAwareExtensionMethod>): IOperationContext {
         this.internalExtensions = functionExtensions;
         // Clear cache when internal extensions change since cached lookups may now be invalid
@@ -120,6 +250,19 @@ open class BaseOperationContext : IOperationContext {
         return this;
     }
 
+    /**
+     * Register a host extension that returns a [CompletionStage], e.g. the call of a non-blocking client.
+     * The script waits for it by parking its virtual thread, no coroutine is started for the call.
+     */
+    fun registerFutureExtensionMethod(
+        fullName: String,
+        callback: java.util.function.Function<FunctionExecuteContext, out CompletionStage<*>>
+    ): BaseOperationContext {
+        extensions[fullName.lowercase()] = { context -> SuspendBridge.callFuture(callback.apply(context)) };
+        extensionCache.clear()
+        return this;
+    }
+
     override fun registerSyncExtensionMethod(
         fullName: String,
         callback: ContextAwareExtensionMethod
@@ -165,7 +308,7 @@ open class BaseOperationContext : IOperationContext {
         }
         
         // Check external (sync-wrapped) extensions
-        val externalExt = extensions[name] ?: RootOperationContext.getExtension(name)
+        val externalExt = extensions[name] ?: template?.extensions?.get(name) ?: RootOperationContext.getExtension(name)
         if (externalExt != null) {
             extensionCache[name] = externalExt
         }
@@ -175,17 +318,20 @@ open class BaseOperationContext : IOperationContext {
 
     override fun getConditionalExtension(name: String): ConditionalExtension? {
         // Performance optimization: assume name is already lowercase
-        return conditionalExtensions[name] ?: RootOperationContext.getConditionalExtension(name);
+        return conditionalExtensions[name] ?: template?.conditionalExtensions?.get(name)
+            ?: RootOperationContext.getConditionalExtension(name);
     }
 
     override fun getAnnotation(annotationName: String): AsyncExtensionAnnotation? {
         // Performance optimization: assume name is already lowercase
-        return annotations[annotationName] ?: RootOperationContext.getAnnotations(annotationName);
+        return annotations[annotationName] ?: template?.annotations?.get(annotationName)
+            ?: RootOperationContext.getAnnotations(annotationName);
     }
 
     override fun getStatementExtension(name: String): StatementsExtensionMethod? {
         // Performance optimization: assume name is already lowercase
-        return statementExtensions[name] ?: RootOperationContext.getStatementExtension(name);
+        return statementExtensions[name] ?: template?.statementExtensions?.get(name)
+            ?: RootOperationContext.getStatementExtension(name);
     }
 
     /**
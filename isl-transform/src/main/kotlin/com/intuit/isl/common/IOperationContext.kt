@@ -70,6 +70,13 @@ interface IOperationContext {
     fun getTransformVariable(name: String): TransformVariable?;
     fun removeVariable(name: String);
     val variables: HashMap<String, TransformVariable>;
+
+    /**
+     * Maximum workers of the parallel loops, modifiers and calls of this operation.
+     * Defaults to [com.intuit.isl.runtime.Transformer.maxParallelWorkers].
+     */
+    val maxParallelWorkers: Int
+        get() = com.intuit.isl.runtime.Transformer.maxParallelWorkers;
 //    val interceptor: ICommandInterceptor?;
 }
 
@@ -10,6 +10,10 @@ class LocalOperationContext(
     val context: IOperationContext
 ) : IOperationContext {
     override val variables: HashMap<String, TransformVariable> = HashMap()
+    internal val variableFrame = VariableFrame()
+
+    override val maxParallelWorkers: Int
+        get() = context.maxParallelWorkers
 
     override fun registerExtensionMethod(
         fullName: String,
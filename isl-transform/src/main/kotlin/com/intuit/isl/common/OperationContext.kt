@@ -11,6 +11,13 @@ open class OperationContext : BaseOperationContext {
     constructor() {
     }
 
+    /**
+     * Per-request context on top of a frozen [OperationContextTemplate], see [OperationContextTemplate.newContext].
+     */
+    internal constructor(template: OperationContextTemplate) {
+        this.template = template;
+    }
+
     /**
      * Register an extension method in format `Service.MethodName`.
      * Java style - directly stores as sync callback (no wrapping needed)
@@ -76,7 +83,7 @@ open class OperationContext : BaseOperationContext {
         fullName: String,
         callback: AsyncContextAwareExtensionMethod
     ): OperationContext {
-        if (!extensions.containsKey(fullName.lowercase())) {
+        if (!extensions.containsKey(fullName.lowercase()) && template?.extensions?.containsKey(fullName.lowercase()) != true) {
             // Wrap async extension to sync
             extensions[fullName.lowercase()] = { context ->
                 SuspendBridge.callSuspend(context.executionContext.coroutineContext) {
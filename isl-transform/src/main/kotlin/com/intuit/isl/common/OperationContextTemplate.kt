@@ -0,0 +1,31 @@
+package com.intuit.isl.common
+
+/**
+ * Frozen set of host extensions, annotations, statement and conditional extensions that many requests share.
+ * Register everything once on an [OperationContext], [BaseOperationContext.freeze] it at startup
+ * and create the context of each request with [newContext]:
+ * ```
+ * val template = OperationContext()
+ *     .registerExtensionMethod("Call.Api") { ... }
+ *     .freeze();
+ * ...
+ * val context = template.newContext();
+ * context.setVariable("\$input", input);
+ * ```
+ * The template is immutable and thread-safe. A new context registers nothing, it only carries its own variables and
+ * looks up extensions in the template. Extensions registered on the new context take precedence over the template.
+ * Variables of the frozen context are not part of the template.
+ */
+class OperationContextTemplate internal constructor(
+    internal val extensions: Map<String, ContextAwareExtensionMethod>,
+    internal val annotations: Map<String, AsyncExtensionAnnotation>,
+    internal val statementExtensions: Map<String, StatementsExtensionMethod>,
+    internal val conditionalExtensions: Map<String, ConditionalExtension>
+) {
+    /**
+     * New context for one request, not thread safe like any [OperationContext].
+     */
+    fun newContext(): OperationContext {
+        return OperationContext(this);
+    }
+}
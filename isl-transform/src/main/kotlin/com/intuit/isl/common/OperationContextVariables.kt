@@ -6,17 +6,18 @@ import com.fasterxml.jackson.databind.JsonNode
  * Variable keys in [IOperationContext.variables] are always lowercased.
  * These helpers skip [String.lowercase] and must only be called with names that are already canonical.
  * Hosts and other external callers should use [IOperationContext.getVariable], [setVariable], etc.
+ * Commands built inside a function use the slot variants ([getVariableSlot], [setVariableSlot]) where they can.
  */
 
 internal fun IOperationContext.getVariableCanonical(name: String): JsonNode? = when (this) {
-    is BaseOperationContext -> variables[name]?.value
+    is BaseOperationContext -> visibleVariable(name)?.value
     is LocalOperationContext -> variables[name]?.value
     is ParallelOperationContext -> variables[name]?.value ?: context.getVariableCanonical(name)
     else -> getVariable(name)
 }
 
 internal fun IOperationContext.getTransformVariableCanonical(name: String): TransformVariable? = when (this) {
-    is BaseOperationContext -> variables[name]
+    is BaseOperationContext -> visibleVariable(name)
     is LocalOperationContext -> variables[name]
     is ParallelOperationContext -> variables[name] ?: context.getTransformVariableCanonical(name)
     else -> getTransformVariable(name)
@@ -28,50 +29,88 @@ internal fun IOperationContext.setVariableCanonical(
     setIsModified: Boolean? = null
 ): IOperationContext {
     assert(name.startsWith("$"))
-    when (this) {
-        is BaseOperationContext -> {
-            val existing = variables[name]
-            if (existing?.readOnly == true)
-                throw Exception("Could not set readonly variable=$name.")
-            variables[name] = TransformVariable(node)
-            return this
-        }
-        is LocalOperationContext -> {
-            val existing = variables[name]
-            if (existing?.readOnly == true)
-                throw Exception("Could not set readonly variable=$name.")
-            variables[name] = TransformVariable(node)
-            return this
-        }
-        is ParallelOperationContext -> {
-            val existing = variables[name]
-            if (existing?.readOnly == true)
-                throw Exception("Could not set readonly variable=$name.")
-            if (context.getVariableCanonical(name) != null)
-                throw Exception("Could not set readonly outside scope variable=$name.")
-            variables[name] = TransformVariable(node)
-            return this
-        }
-        else -> return setVariable(name, node, setIsModified)
-    }
+    if (!putVariableCell(name, TransformVariable(node)))
+        return setVariable(name, node, setIsModified)
+    variableFrameOrNull()?.invalidate()
+    return this
 }
 
 internal fun IOperationContext.setTransformVariableCanonical(name: String, variable: TransformVariable): IOperationContext {
     assert(name.startsWith("$"))
+    if (!putVariableCell(name, variable))
+        return setVariable(name, variable)
+    variableFrameOrNull()?.invalidate()
+    return this
+}
+
+internal fun IOperationContext.removeVariableCanonical(name: String) {
+    when (this) {
+        is BaseOperationContext -> variables.remove(name)
+        is LocalOperationContext -> variables.remove(name)
+        is ParallelOperationContext -> variables.remove(name)
+        else -> removeVariable(name)
+    }
+    variableFrameOrNull()?.invalidate()
+}
+
+/**
+ * Slot based read, see [VariableFrame]. Same result as [getVariableCanonical] with the slot name.
+ */
+internal fun IOperationContext.getVariableSlot(slot: VariableSlot): JsonNode? = when (this) {
+    is BaseOperationContext -> (variableFrame.read(variables, slot) ?: inheritedVariable(slot.name))?.value
+    is LocalOperationContext -> variableFrame.read(variables, slot)?.value
+    // the outer context is shared by all parallel workers - read it by name without touching its frame
+    is ParallelOperationContext -> variableFrame.read(variables, slot)?.value ?: context.getVariableCanonical(slot.name)
+    else -> getVariable(slot.name)
+}
+
+/**
+ * Slot based write, see [VariableFrame]. Same effect as [setVariableCanonical] with the slot name.
+ */
+internal fun IOperationContext.setVariableSlot(slot: VariableSlot, node: JsonNode) {
+    val frame = variableFrameOrNull()
+    if (frame == null) {
+        setVariable(slot.name, node, null)
+        return
+    }
+    if (frame.tryWrite(slot, node))
+        return
+
+    val cell = TransformVariable(node)
+    putVariableCell(slot.name, cell)
+    frame.own(slot, cell)
+}
+
+/**
+ * [setVariableSlot] when the command has a [slot], [setVariableCanonical] with [name] otherwise.
+ */
+internal fun IOperationContext.setVariableSlotOrCanonical(slot: VariableSlot?, name: String, node: JsonNode) {
+    if (slot != null) setVariableSlot(slot, node)
+    else setVariableCanonical(name, node)
+}
+
+private fun IOperationContext.variableFrameOrNull(): VariableFrame? = when (this) {
+    is BaseOperationContext -> variableFrame
+    is LocalOperationContext -> variableFrame
+    is ParallelOperationContext -> variableFrame
+    else -> null
+}
+
+/**
+ * Validate and store [variable] in the map of the known context types. Returns false for other context types.
+ */
+private fun IOperationContext.putVariableCell(name: String, variable: TransformVariable): Boolean {
     when (this) {
         is BaseOperationContext -> {
-            val existing = variables[name]
-            if (existing?.readOnly == true)
-                throw Exception("Could not set readonly variable=$name.")
-            variables[name] = variable
-            return this
+            putVariable(name, variable)
+            return true
         }
         is LocalOperationContext -> {
             val existing = variables[name]
             if (existing?.readOnly == true)
                 throw Exception("Could not set readonly variable=$name.")
             variables[name] = variable
-            return this
+            return true
         }
         is ParallelOperationContext -> {
             val existing = variables[name]
@@ -80,18 +119,9 @@ internal fun IOperationContext.setTransformVariableCanonical(name: String, varia
             if (context.getVariableCanonical(name) != null)
                 throw Exception("Could not set readonly outside scope variable=$name.")
             variables[name] = variable
-            return this
+            return true
         }
-        else -> return setVariable(name, variable)
-    }
-}
-
-internal fun IOperationContext.removeVariableCanonical(name: String) {
-    when (this) {
-        is BaseOperationContext -> variables.remove(name)
-        is LocalOperationContext -> variables.remove(name)
-        is ParallelOperationContext -> variables.remove(name)
-        else -> removeVariable(name)
+        else -> return false
     }
 }
 
@@ -11,6 +11,27 @@ class ParallelOperationContext(
     val context: IOperationContext
 ) : IOperationContext {
     override val variables: HashMap<String, TransformVariable> = HashMap()
+    internal val variableFrame = VariableFrame()
+
+    override val maxParallelWorkers: Int
+        get() = context.maxParallelWorkers
+
+    /**
+     * Forget the variables set so far, so a parallel worker can reuse the context for its next element.
+     */
+    internal fun reset() {
+        variables.clear()
+        variableFrame.invalidate()
+    }
+
+    /**
+     * Set a variable of this context only, hiding an outer variable with the same canonical [name].
+     * Used for iterators like `$` and `$fit` that the parallel modifiers set for every element.
+     */
+    internal fun shadowVariable(name: String, node: JsonNode) {
+        variables[name] = TransformVariable(node)
+        variableFrame.invalidate()
+    }
 
     override fun registerExtensionMethod(
         fullName: String,
@@ -1,5 +1,6 @@
 package com.intuit.isl.common
 
+import com.intuit.isl.commands.builder.ParallelHostCallsPass
 import com.intuit.isl.commands.modifiers.*
 import com.intuit.isl.utils.CryptoExtensions
 import com.intuit.isl.utils.DateExtensions
@@ -37,6 +38,9 @@ object RootOperationContext {
         RetryModifiers.registerRetry(defaultContext);
         RegexModifierExtensions.registerDefaultExtensions(defaultContext);
 
+        // compile-time annotation, the builder already grouped the calls of the function, see [ParallelHostCallsPass]
+        defaultContext.registerAnnotation(ParallelHostCallsPass.annotationName) { it.runNextCommand() };
+
         // Custom Pagination Extensions (now sync)
         defaultContext.registerStatementMethod("Pagination.Page", PagePagination::execute);
         defaultContext.registerStatementMethod("Pagination.Cursor", CursorPagination::execute);
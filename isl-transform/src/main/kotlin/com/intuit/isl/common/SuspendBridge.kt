@@ -1,39 +1,133 @@
 package com.intuit.isl.common
 
-import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.Job
+import com.intuit.isl.runtime.Transformer
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.LongAdder
+import kotlin.coroutines.Continuation
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.coroutines.ContinuationInterceptor
+import kotlin.coroutines.intrinsics.COROUTINE_SUSPENDED
+import kotlin.coroutines.intrinsics.startCoroutineUninterceptedOrReturn
 
 /**
- * Bridge utility for calling suspend functions from non-suspend code.
- * 
+ * Bridge utility for calling suspend functions and futures from non-suspend code.
+ *
  * This is used at the boundaries where the internal ISL engine (non-suspend, running on virtual threads)
- * needs to call out to host-provided extensions (suspend functions).
- * 
- * On a virtual thread, runBlocking is cheap - it blocks the virtual thread (not an OS thread)
- * and creates a minimal coroutine scope to run the suspend lambda.
+ * needs to call out to host-provided extensions (suspend functions or [CompletionStage]s) and annotations.
+ *
+ * No event loop is created per call: the suspend function starts right on the calling thread and most of them
+ * complete without ever suspending. Only when it really suspends the calling (virtual) thread parks until it
+ * completes, see [HostBridgeMetrics].
  */
 internal object SuspendBridge {
     /**
      * Call a suspend function from non-suspend code, preserving the coroutine context.
-     * 
-     * Filters out the ContinuationInterceptor (dispatcher) from the context to ensure
-     * the suspend function runs on the current thread, not on a different thread from the dispatcher.
-     * This preserves thread affinity while still respecting cancellation and other context elements.
-     * 
+     *
+     * The function runs on the current thread until it first suspends. Once resumed it continues on the virtual
+     * thread dispatcher of the [Transformer] instead of the dispatcher of [capturedContext], while the current
+     * thread waits for the result. The Job (cancellation) and other context elements are kept.
+     *
      * @param capturedContext The coroutine context from the original entry point (preserves cancellation, logging context, etc.)
      * @param block The suspend function to call
      * @return The result of the suspend function
      */
     fun <T> callSuspend(capturedContext: CoroutineContext = EmptyCoroutineContext, block: suspend () -> T): T {
-        // Filter out the dispatcher to run on current thread
-        // Keep Job for cancellation and other context elements
-        val contextWithoutDispatcher = capturedContext.minusKey(ContinuationInterceptor)
-        
-        // On a virtual thread, this blocks the VT (cheap — no OS thread wasted)
-        // and creates a minimal coroutine scope to run the suspend lambda on the current thread
-        return runBlocking(contextWithoutDispatcher) { block() }
+        val completion = FutureContinuation<T>(capturedContext.minusKey(ContinuationInterceptor) + Transformer.vtDispatcher)
+
+        val result = block.startCoroutineUninterceptedOrReturn(completion)
+        if (result !== COROUTINE_SUSPENDED) {
+            HostBridgeMetrics.suspendInline.increment()
+            @Suppress("UNCHECKED_CAST")
+            return result as T
+        }
+        return await(completion.future, HostBridgeMetrics.suspendWaited, HostBridgeMetrics.suspendWaitNanos)
+    }
+
+    /**
+     * Wait for [stage] of an extension registered with [BaseOperationContext.registerFutureExtensionMethod].
+     * On a virtual thread this parks the virtual thread, no OS thread is blocked.
+     */
+    fun <T> callFuture(stage: CompletionStage<T>): T {
+        val future = stage.toCompletableFuture()
+        if (future.isDone) {
+            HostBridgeMetrics.futureCompleted.increment()
+            return unwrap { future.get() }
+        }
+        return await(future, HostBridgeMetrics.futureWaited, HostBridgeMetrics.futureWaitNanos)
+    }
+
+    private fun <T> await(future: CompletableFuture<T>, counter: LongAdder, nanos: LongAdder): T {
+        val start = System.nanoTime()
+        try {
+            return unwrap { future.get() }
+        } finally {
+            counter.increment()
+            nanos.add(System.nanoTime() - start)
+        }
+    }
+
+    private inline fun <T> unwrap(get: () -> T): T {
+        try {
+            return get()
+        } catch (e: ExecutionException) {
+            // the extension's own exception, as if it was thrown by a direct call
+            throw e.cause ?: e
+        }
+    }
+
+    private class FutureContinuation<T>(override val context: CoroutineContext) : Continuation<T> {
+        val future = CompletableFuture<T>()
+
+        override fun resumeWith(result: Result<T>) {
+            result.fold({ future.complete(it) }, { future.completeExceptionally(it) })
+        }
+    }
+}
+
+/**
+ * Counters of the calls from scripts to async host extensions and annotations, to see how much time is spent
+ * waiting in the bridge. Counted for the whole JVM, see [snapshot] and [reset].
+ */
+object HostBridgeMetrics {
+    internal val suspendInline = LongAdder()
+    internal val suspendWaited = LongAdder()
+    internal val suspendWaitNanos = LongAdder()
+    internal val futureCompleted = LongAdder()
+    internal val futureWaited = LongAdder()
+    internal val futureWaitNanos = LongAdder()
+
+    /**
+     * @property suspendInline suspend extensions that completed without suspending - no waiting at all
+     * @property suspendWaited suspend extensions the calling thread had to wait for
+     * @property suspendWaitNanos total time spent waiting for [suspendWaited]
+     * @property futureCompleted future extensions that returned an already completed future
+     * @property futureWaited future extensions the calling thread had to wait for
+     * @property futureWaitNanos total time spent waiting for [futureWaited]
+     */
+    data class Snapshot(
+        val suspendInline: Long,
+        val suspendWaited: Long,
+        val suspendWaitNanos: Long,
+        val futureCompleted: Long,
+        val futureWaited: Long,
+        val futureWaitNanos: Long
+    )
+
+    fun snapshot(): Snapshot {
+        return Snapshot(
+            suspendInline.sum(),
+            suspendWaited.sum(),
+            suspendWaitNanos.sum(),
+            futureCompleted.sum(),
+            futureWaited.sum(),
+            futureWaitNanos.sum()
+        )
+    }
+
+    fun reset() {
+        listOf(suspendInline, suspendWaited, suspendWaitNanos, futureCompleted, futureWaited, futureWaitNanos).forEach { it.reset() }
     }
 }
@@ -0,0 +1,113 @@
+package com.intuit.isl.common
+
+import com.fasterxml.jackson.databind.JsonNode
+
+/**
+ * Slot numbering of the variables used by one function, assigned by the ExecutionBuilder at build time.
+ * Commands resolve their [VariableSlot] once while the function is built and then access variables through
+ * the array-backed [VariableFrame] of the operation context instead of hashing the name on every access.
+ */
+class VariableSlotLayout internal constructor() {
+    private val slots = HashMap<String, VariableSlot>();
+
+    val size: Int
+        get() = slots.size;
+
+    /**
+     * Slot of the already canonical (lowercase) [name]. Only called while the owning function is being built.
+     */
+    internal fun slotFor(name: String): VariableSlot {
+        return slots.getOrPut(name) { VariableSlot(this, slots.size, name) };
+    }
+}
+
+class VariableSlot internal constructor(
+    internal val layout: VariableSlotLayout,
+    internal val index: Int,
+    val name: String
+)
+
+/**
+ * Per operation context cache of variable cells indexed by [VariableSlot].
+ *
+ * The `variables` map of the context stays the single source of truth, so name based access by hosts, the debugger
+ * or commands without a slot keeps working. The frame only remembers which [TransformVariable] the map holds for each
+ * slot, and - for cells it created itself - updates the value in place instead of allocating a new variable and
+ * re-hashing on every write. Any name based write or removal calls [invalidate], after which each slot re-resolves
+ * through the map once.
+ *
+ * Not thread-safe, same as the contexts that own it.
+ */
+internal class VariableFrame {
+    private var layout: VariableSlotLayout? = null;
+    private var cells: Array<TransformVariable?> = emptyArray();
+
+    // 0 = unknown, version = cached cell, -version = cached cell created (and only referenced) by this frame
+    private var states = IntArray(0);
+    private var version = 1;
+
+    fun invalidate() {
+        if (version == Int.MAX_VALUE) {
+            version = 1;
+            states.fill(0);
+        } else {
+            version++;
+        }
+    }
+
+    fun read(variables: HashMap<String, TransformVariable>, slot: VariableSlot): TransformVariable? {
+        val index = slot.index;
+        if (bind(slot)) {
+            val state = states[index];
+            if (state == version || state == -version)
+                return cells[index];
+        }
+
+        val cell = variables[slot.name];
+        cells[index] = cell;
+        states[index] = version;
+        return cell;
+    }
+
+    /**
+     * Write [node] straight into the cell of [slot] when this frame owns it. Returns false when the caller needs to
+     * go through the regular (validated) write and [own] the new cell.
+     */
+    fun tryWrite(slot: VariableSlot, node: JsonNode): Boolean {
+        if (layout !== slot.layout)
+            return false;
+        val index = slot.index;
+        if (index >= states.size || states[index] != -version)
+            return false;
+        cells[index]!!.value = node;
+        return true;
+    }
+
+    fun own(slot: VariableSlot, cell: TransformVariable) {
+        bind(slot);
+        cells[slot.index] = cell;
+        states[slot.index] = -version;
+    }
+
+    /**
+     * Make sure the frame is laid out for the function of [slot]. Returns false when anything had to change,
+     * in which case nothing cached can be trusted.
+     */
+    private fun bind(slot: VariableSlot): Boolean {
+        if (layout !== slot.layout) {
+            // a different function runs on this context now (e.g. a host reusing the context)
+            layout = slot.layout;
+            val size = maxOf(slot.layout.size, slot.index + 1);
+            cells = arrayOfNulls(size);
+            states = IntArray(size);
+            return false;
+        }
+        if (slot.index >= states.size) {
+            val size = maxOf(slot.layout.size, slot.index + 1);
+            cells = cells.copyOf(size);
+            states = states.copyOf(size);
+            return false;
+        }
+        return true;
+    }
+}
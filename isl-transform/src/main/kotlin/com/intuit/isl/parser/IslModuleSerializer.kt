@@ -0,0 +1,728 @@
+package com.intuit.isl.parser
+
+import com.intuit.isl.commands.NoopToken
+import com.intuit.isl.parser.tokens.*
+import com.intuit.isl.types.*
+import com.intuit.isl.utils.Position
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.math.BigDecimal
+import java.math.BigInteger
+
+/**
+ * Compact binary form of a parsed [ModuleImplementationToken] so precompiled projects can skip lexing and parsing.
+ *
+ * Layout: magic `ISLT`, [FORMAT_VERSION], the ISL version that produced the file, then the token tree written
+ * depth-first with one tag byte per token. Strings (names, paths, file names in positions) are interned in order of
+ * first appearance so repeated names cost a single varint.
+ *
+ * [read] returns null when the magic, format version or ISL version does not match; callers are expected to
+ * fall back to parsing the original source. [ModuleImplementationToken.warnings] are not carried.
+ */
+object IslModuleSerializer {
+    const val FORMAT_VERSION = 1
+    private const val MAGIC = 0x49534C54 // ISLT
+
+    // token tags
+    private const val T_NULL = 0
+    private const val T_ANNOTATION = 1
+    private const val T_ASSIGN_PROPERTY = 2
+    private const val T_ASSIGN_DYNAMIC_PROPERTY = 3
+    private const val T_ASSIGN_VARIABLE = 4
+    private const val T_CONDITION = 5
+    private const val T_CONDITION_EXPRESSION = 6
+    private const val T_SIMPLE_CONDITION = 7
+    private const val T_COALESCE = 8
+    private const val T_DECLARE_ARRAY = 9
+    private const val T_DECLARE_OBJECT = 10
+    private const val T_FOREACH = 11
+    private const val T_PARALLEL_FOREACH = 12
+    private const val T_FUNCTION_CALL = 13
+    private const val T_FUNCTION_DECLARATION = 14
+    private const val T_FUNCTION_RETURN = 15
+    private const val T_IMPORT = 16
+    private const val T_LITERAL = 17
+    private const val T_MATH = 18
+    private const val T_MODIFIER = 19
+    private const val T_FILTER_MODIFIER = 20
+    private const val T_MAP_MODIFIER = 21
+    private const val T_CONDITION_MODIFIER = 22
+    private const val T_GENERIC_CONDITIONAL_MODIFIER = 23
+    private const val T_SPREAD = 24
+    private const val T_STATEMENTS = 25
+    private const val T_INTERPOLATE = 26
+    private const val T_SWITCH = 27
+    private const val T_SWITCH_BRANCH = 28
+    private const val T_VARIABLE_SELECTOR = 29
+    private const val T_SIMPLE_VARIABLE_SELECTOR = 30
+    private const val T_SIMPLE_PROPERTY_SELECTOR = 31
+    private const val T_WHILE = 32
+    private const val T_NOOP = 33
+
+    // literal tags
+    private const val L_NULL = 0
+    private const val L_STRING = 1
+    private const val L_TRUE = 2
+    private const val L_FALSE = 3
+    private const val L_DECIMAL = 4
+    private const val L_LONG = 5
+    private const val L_DOUBLE = 6
+
+    // type tags
+    private const val Y_NULL = 0
+    private const val Y_BASIC = 1
+    private const val Y_ARRAY = 2
+    private const val Y_OBJECT = 3
+    private const val Y_REFERENCE = 4
+
+    fun write(module: ModuleImplementationToken, islVersion: String, stream: OutputStream) {
+        val out = DataOutputStream(stream)
+        out.writeInt(MAGIC)
+        out.writeInt(FORMAT_VERSION)
+        out.writeUTF(islVersion)
+        Writer(out).writeModule(module)
+        out.flush()
+    }
+
+    fun read(stream: InputStream, islVersion: String): ModuleImplementationToken? {
+        val input = DataInputStream(stream)
+        if (input.readInt() != MAGIC)
+            return null
+        if (input.readInt() != FORMAT_VERSION)
+            return null
+        if (input.readUTF() != islVersion)
+            return null
+        return Reader(input).readModule()
+    }
+
+    private class Writer(private val out: DataOutputStream) {
+        private val strings = HashMap<String, Int>()
+
+        fun writeModule(module: ModuleImplementationToken) {
+            writeString(module.name)
+            writePosition(module.position)
+            writeVarInt(module.imports.size)
+            module.imports.forEach { writeToken(it) }
+            writeVarInt(module.types.size)
+            module.types.forEach {
+                writeString(it.key)
+                writeType(it.value)
+            }
+            writeVarInt(module.functions.size)
+            module.functions.forEach { writeToken(it) }
+        }
+
+        fun writeToken(token: IIslToken?) {
+            if (token == null) {
+                out.writeByte(T_NULL)
+                return
+            }
+            when (token) {
+                is AnnotationDeclarationToken -> {
+                    out.writeByte(T_ANNOTATION)
+                    writeString(token.annotationName)
+                    writeTokens(token.arguments)
+                }
+                is AssignPropertyToken -> {
+                    out.writeByte(T_ASSIGN_PROPERTY)
+                    writeString(token.name)
+                    writeToken(token.value)
+                }
+                is AssignDynamicPropertyToken -> {
+                    out.writeByte(T_ASSIGN_DYNAMIC_PROPERTY)
+                    writeToken(token.name)
+                    writeToken(token.value)
+                }
+                is AssignVariableToken -> {
+                    out.writeByte(T_ASSIGN_VARIABLE)
+                    writeString(token.name)
+                    writeString(token.topPropertyName)
+                    writeToken(token.value)
+                }
+                is ConditionToken -> {
+                    out.writeByte(T_CONDITION)
+                    writeToken(token.expression)
+                    writeToken(token.trueResult)
+                    writeToken(token.falseResult)
+                    writeNullableInt(token.endifSourceLine)
+                }
+                is ConditionExpressionToken -> {
+                    out.writeByte(T_CONDITION_EXPRESSION)
+                    writeToken(token.left)
+                    writeString(token.condition)
+                    writeToken(token.right)
+                }
+                is SimpleConditionToken -> {
+                    out.writeByte(T_SIMPLE_CONDITION)
+                    writeToken(token.left)
+                    writeString(token.condition)
+                    writeToken(token.right)
+                }
+                is CoalesceToken -> {
+                    out.writeByte(T_COALESCE)
+                    writeToken(token.left)
+                    writeToken(token.right)
+                }
+                is DeclareArrayToken -> {
+                    out.writeByte(T_DECLARE_ARRAY)
+                    writeTokens(token.values.asList())
+                }
+                is DeclareObjectToken -> {
+                    out.writeByte(T_DECLARE_OBJECT)
+                    writeToken(token.statements)
+                }
+                is ParallelForEachToken -> {
+                    out.writeByte(T_PARALLEL_FOREACH)
+                    writeString(token.iterator)
+                    writeToken(token.options)
+                    writeToken(token.source)
+                    writeToken(token.statements)
+                }
+                is ForEachToken -> {
+                    out.writeByte(T_FOREACH)
+                    writeString(token.iterator)
+                    writeToken(token.source)
+                    writeToken(token.statements)
+                }
+                is FunctionCallToken -> {
+                    out.writeByte(T_FUNCTION_CALL)
+                    writeString(token.name)
+                    writeTokens(token.arguments)
+                    writeToken(token.statements)
+                }
+                is FunctionDeclarationToken -> {
+                    out.writeByte(T_FUNCTION_DECLARATION)
+                    out.writeByte(token.functionType.ordinal)
+                    writeString(token.functionName)
+                    writeTokens(token.annotations)
+                    writeProperties(token.arguments)
+                    writeToken(token.statements)
+                }
+                is FunctionReturnToken -> {
+                    out.writeByte(T_FUNCTION_RETURN)
+                    writeToken(token.value)
+                }
+                is ImportDeclarationToken -> {
+                    out.writeByte(T_IMPORT)
+                    writeString(token.name)
+                    writeString(token.sourceName)
+                }
+                is LiteralValueToken -> {
+                    out.writeByte(T_LITERAL)
+                    writeLiteral(token.value)
+                }
+                is MathExpressionToken -> {
+                    out.writeByte(T_MATH)
+                    writeToken(token.left)
+                    writeToken(token.right)
+                    writeString(token.operation)
+                }
+                is FilterModifierValueToken -> {
+                    out.writeByte(T_FILTER_MODIFIER)
+                    writeToken(token.previousToken)
+                    writeToken(token.condition)
+                }
+                is MapModifierValueToken -> {
+                    out.writeByte(T_MAP_MODIFIER)
+                    writeToken(token.previousToken)
+                    writeToken(token.argument)
+                }
+                is ConditionModifierValueToken -> {
+                    out.writeByte(T_CONDITION_MODIFIER)
+                    writeToken(token.previousToken)
+                    writeToken(token.condition)
+                    writeToken(token.trueModifier)
+                }
+                is GenericConditionalModifierValueToken -> {
+                    out.writeByte(T_GENERIC_CONDITIONAL_MODIFIER)
+                    writeString(token.name)
+                    writeToken(token.previousToken)
+                    writeToken(token.condition)
+                    writeToken(token.firstArgument)
+                    writeTokens(token.arguments)
+                }
+                is ModifierValueToken -> {
+                    out.writeByte(T_MODIFIER)
+                    writeString(token.name)
+                    writeToken(token.previousToken)
+                    writeTokens(token.arguments)
+                }
+                is SpreadToken -> {
+                    out.writeByte(T_SPREAD)
+                    writeToken(token.variable)
+                }
+                is StatementsToken -> {
+                    out.writeByte(T_STATEMENTS)
+                    writeTokens(token)
+                }
+                is StringInterpolateToken -> {
+                    out.writeByte(T_INTERPOLATE)
+                    writeTokens(token)
+                }
+                is SwitchCaseToken -> {
+                    out.writeByte(T_SWITCH)
+                    writeToken(token.value)
+                    writeTokens(token.cases.asList())
+                }
+                is SwitchCaseBranchToken -> {
+                    out.writeByte(T_SWITCH_BRANCH)
+                    writeToken(token.value)
+                    writeString(token.condition)
+                    writeToken(token.statements)
+                }
+                is VariableSelectorValueToken -> {
+                    out.writeByte(T_VARIABLE_SELECTOR)
+                    writeString(token.variableName)
+                    writeString(token.path)
+                }
+                is SimpleVariableSelectorValueToken -> {
+                    out.writeByte(T_SIMPLE_VARIABLE_SELECTOR)
+                    writeString(token.name)
+                    writeNullableInt(token.indexSelector)
+                    writeToken(token.conditionSelector)
+                }
+                is SimplePropertySelectorValueToken -> {
+                    out.writeByte(T_SIMPLE_PROPERTY_SELECTOR)
+                    writeString(token.name)
+                    writeToken(token.previousToken)
+                    writeNullableInt(token.indexSelector)
+                    writeToken(token.conditionSelector)
+                }
+                is WhileToken -> {
+                    out.writeByte(T_WHILE)
+                    writeToken(token.condition)
+                    writeToken(token.maxLoops)
+                    writeToken(token.statements)
+                }
+                is NoopToken -> out.writeByte(T_NOOP)
+                else -> throw IllegalArgumentException("Can't serialize token type ${token.javaClass.name}")
+            }
+            writePosition(token.position)
+            writeType(token.islType)
+        }
+
+        private fun writeTokens(tokens: List<IIslToken?>) {
+            writeVarInt(tokens.size)
+            tokens.forEach { writeToken(it) }
+        }
+
+        private fun writeProperties(properties: List<JsonProperty>?) {
+            if (properties == null) {
+                writeVarInt(0)
+                return
+            }
+            writeVarInt(properties.size + 1)
+            properties.forEach {
+                writeString(it.name)
+                writeType(it.value)
+            }
+        }
+
+        private fun writeType(type: IslType?) {
+            when (type) {
+                null -> out.writeByte(Y_NULL)
+                is JsonBasicType -> {
+                    out.writeByte(Y_BASIC)
+                    out.writeByte(type.type.ordinal)
+                    val values = type.values
+                    if (values == null) {
+                        writeVarInt(0)
+                    } else {
+                        writeVarInt(values.size + 1)
+                        values.forEach { writeLiteral(it) }
+                    }
+                }
+                is JsonArrayType -> {
+                    out.writeByte(Y_ARRAY)
+                    writeType(type.itemType)
+                }
+                is IslObjectType -> {
+                    out.writeByte(Y_OBJECT)
+                    writeString(type.name)
+                    writeProperties(type.properties)
+                }
+                is JsonReferenceType -> {
+                    out.writeByte(Y_REFERENCE)
+                    writeString(type.url)
+                }
+                else -> throw IllegalArgumentException("Can't serialize type ${type.javaClass.name}")
+            }
+        }
+
+        private fun writeLiteral(value: Any?) {
+            when (value) {
+                null -> out.writeByte(L_NULL)
+                is String -> {
+                    out.writeByte(L_STRING)
+                    writeString(value)
+                }
+                true -> out.writeByte(L_TRUE)
+                false -> out.writeByte(L_FALSE)
+                is BigDecimal -> {
+                    out.writeByte(L_DECIMAL)
+                    val unscaled = value.unscaledValue().toByteArray()
+                    writeVarInt(unscaled.size)
+                    out.write(unscaled)
+                    out.writeInt(value.scale())
+                }
+                is Int, is Long -> {
+                    out.writeByte(L_LONG)
+                    out.writeLong((value as Number).toLong())
+                }
+                is Double, is Float -> {
+                    out.writeByte(L_DOUBLE)
+                    out.writeDouble((value as Number).toDouble())
+                }
+                else -> throw IllegalArgumentException("Can't serialize literal ${value.javaClass.name}")
+            }
+        }
+
+        private fun writePosition(position: Position) {
+            writeString(position.file)
+            writeVarInt(position.line)
+            writeVarInt(position.column)
+            writeNullableInt(position.endLine)
+            writeNullableInt(position.endColumn)
+        }
+
+        private fun writeNullableInt(value: Int?) {
+            out.writeBoolean(value != null)
+            if (value != null)
+                writeVarInt(value)
+        }
+
+        private fun writeString(value: String?) {
+            // 0 = null, 1 = new string follows, n >= 2 = reference to interned string n - 2
+            if (value == null) {
+                writeVarInt(0)
+                return
+            }
+            val index = strings[value]
+            if (index != null) {
+                writeVarInt(index + 2)
+                return
+            }
+            strings[value] = strings.size
+            writeVarInt(1)
+            out.writeUTF(value)
+        }
+
+        private fun writeVarInt(value: Int) {
+            // zig-zag so the occasional negative (e.g. a -1 index) stays small
+            var v = (value shl 1) xor (value shr 31)
+            while (v and 0x7F.inv() != 0) {
+                out.writeByte((v and 0x7F) or 0x80)
+                v = v ushr 7
+            }
+            out.writeByte(v)
+        }
+    }
+
+    private class Reader(private val input: DataInputStream) {
+        private val strings = ArrayList<String>()
+
+        fun readModule(): ModuleImplementationToken {
+            val name = readString()!!
+            val position = readPosition()
+            val imports = List(readVarInt()) { readToken() as ImportDeclarationToken }
+            val types = LinkedHashMap<String, IslType>()
+            repeat(readVarInt()) {
+                types[readString()!!] = readType()!!
+            }
+            val functions = List(readVarInt()) { readToken() as FunctionDeclarationToken }
+            return ModuleImplementationToken(name, imports, types, functions, position)
+        }
+
+        fun readToken(): IIslToken? {
+            val tag = input.readUnsignedByte()
+            // position and type come after the body - use a placeholder and fix up once read
+            val token: IIslToken = when (tag) {
+                T_NULL -> return null
+                T_ANNOTATION -> {
+                    val name = readString()!!
+                    val arguments = readTokens()
+                    AnnotationDeclarationToken(name, arguments, readPosition())
+                }
+                T_ASSIGN_PROPERTY -> {
+                    val name = readString()!!
+                    val value = readToken()!!
+                    AssignPropertyToken(name, value, null, readPosition())
+                }
+                T_ASSIGN_DYNAMIC_PROPERTY -> {
+                    val name = readToken() as StringInterpolateToken
+                    val value = readToken()!!
+                    AssignDynamicPropertyToken(name, value, null, readPosition())
+                }
+                T_ASSIGN_VARIABLE -> {
+                    val name = readString()!!
+                    val topPropertyName = readString()
+                    val value = readToken()!!
+                    AssignVariableToken(name, topPropertyName, null, value, readPosition())
+                }
+                T_CONDITION -> {
+                    val expression = readToken()!!
+                    val trueResult = readToken()!!
+                    val falseResult = readToken()
+                    val endifSourceLine = readNullableInt()
+                    ConditionToken(expression, trueResult, falseResult, readPosition(), endifSourceLine)
+                }
+                T_CONDITION_EXPRESSION -> {
+                    val left = readToken()!!
+                    val condition = readString()!!
+                    val right = readToken()
+                    ConditionExpressionToken(left, condition, right, readPosition())
+                }
+                T_SIMPLE_CONDITION -> {
+                    val left = readToken()!!
+                    val condition = readString()!!
+                    val right = readToken()
+                    SimpleConditionToken(left, condition, right, readPosition())
+                }
+                T_COALESCE -> {
+                    val left = readToken()!!
+                    val right = readToken()!!
+                    CoalesceToken(left, right, readPosition())
+                }
+                T_DECLARE_ARRAY -> {
+                    val values = readTokens().toTypedArray()
+                    DeclareArrayToken(values, readPosition())
+                }
+                T_DECLARE_OBJECT -> {
+                    val statements = readToken() as StatementsToken
+                    DeclareObjectToken(statements, readPosition())
+                }
+                T_PARALLEL_FOREACH -> {
+                    val iterator = readString()!!
+                    val options = readToken()
+                    val source = readToken()!!
+                    val statements = readToken()!!
+                    ParallelForEachToken(iterator, options, source, statements, readPosition())
+                }
+                T_FOREACH -> {
+                    val iterator = readString()!!
+                    val source = readToken()!!
+                    val statements = readToken()!!
+                    ForEachToken(iterator, source, statements, readPosition())
+                }
+                T_FUNCTION_CALL -> {
+                    val name = readString()!!
+                    val arguments = readTokens()
+                    val statements = readToken()
+                    FunctionCallToken(name, arguments, statements, readPosition())
+                }
+                T_FUNCTION_DECLARATION -> {
+                    val functionType = FunctionType.entries[input.readUnsignedByte()]
+                    val functionName = readString()!!
+                    val annotations = readTokens().map { it as AnnotationDeclarationToken }
+                    val arguments = readProperties() ?: listOf()
+                    val statements = readToken()!!
+                    // the declared type is restored below together with all other tokens
+                    FunctionDeclarationToken(
+                        functionType, functionName, annotations, arguments, statements, IslType.Any, readPosition()
+                    )
+                }
+                T_FUNCTION_RETURN -> {
+                    val value = readToken()!!
+                    FunctionReturnToken(value, readPosition())
+                }
+                T_IMPORT -> {
+                    val name = readString()!!
+                    val sourceName = readString()!!
+                    ImportDeclarationToken(name, sourceName, readPosition())
+                }
+                T_LITERAL -> {
+                    val value = readLiteral()
+                    LiteralValueToken(value, readPosition())
+                }
+                T_MATH -> {
+                    val left = readToken()!!
+                    val right = readToken()!!
+                    val operation = readString()!!
+                    MathExpressionToken(left, right, operation, readPosition())
+                }
+                T_FILTER_MODIFIER -> {
+                    val previous = readToken()!!
+                    val condition = readToken()!!
+                    FilterModifierValueToken(previous, condition, readPosition())
+                }
+                T_MAP_MODIFIER -> {
+                    val previous = readToken()!!
+                    val argument = readToken()!!
+                    MapModifierValueToken(previous, argument, readPosition())
+                }
+                T_CONDITION_MODIFIER -> {
+                    val previous = readToken()!!
+                    val condition = readToken()!!
+                    val trueModifier = readToken()!!
+                    ConditionModifierValueToken(previous, condition, trueModifier, readPosition())
+                }
+                T_GENERIC_CONDITIONAL_MODIFIER -> {
+                    val name = readString()!!
+                    val previous = readToken()!!
+                    val condition = readToken()!!
+                    val firstArgument = readToken()
+                    val arguments = readTokens()
+                    GenericConditionalModifierValueToken(
+                        name, previous, condition, firstArgument, arguments, readPosition()
+                    )
+                }
+                T_MODIFIER -> {
+                    val name = readString()!!
+                    val previous = readToken()!!
+                    val arguments = readTokens()
+                    ModifierValueToken(name, previous, arguments, readPosition())
+                }
+                T_SPREAD -> {
+                    val variable = readToken()!!
+                    SpreadToken(variable, readPosition())
+                }
+                T_STATEMENTS -> {
+                    val statements = readTokens()
+                    StatementsToken(statements, readPosition())
+                }
+                T_INTERPOLATE -> {
+                    val parts = ArrayList(readTokens())
+                    StringInterpolateToken(parts, readPosition())
+                }
+                T_SWITCH -> {
+                    val value = readToken()!!
+                    val cases = readTokens().map { it as SwitchCaseBranchToken }.toTypedArray()
+                    SwitchCaseToken(value, cases, readPosition())
+                }
+                T_SWITCH_BRANCH -> {
+                    val value = readToken()!!
+                    val condition = readString()!!
+                    val statements = readToken()!!
+                    SwitchCaseBranchToken(value, condition, statements, readPosition())
+                }
+                T_VARIABLE_SELECTOR -> {
+                    val variableName = readString()!!
+                    val path = readString()
+                    val name = when {
+                        path == null -> variableName
+                        path.startsWith("[") -> variableName + path
+                        else -> "$variableName.$path"
+                    }
+                    VariableSelectorValueToken(name, readPosition())
+                }
+                T_SIMPLE_VARIABLE_SELECTOR -> {
+                    val name = readString()!!
+                    val indexSelector = readNullableInt()
+                    val conditionSelector = readToken()
+                    SimpleVariableSelectorValueToken(name, indexSelector, conditionSelector, readPosition())
+                }
+                T_SIMPLE_PROPERTY_SELECTOR -> {
+                    val name = readString()!!
+                    val previous = readToken()!!
+                    val indexSelector = readNullableInt()
+                    val conditionSelector = readToken()
+                    SimplePropertySelectorValueToken(name, previous, indexSelector, conditionSelector, readPosition())
+                }
+                T_WHILE -> {
+                    val condition = readToken()!!
+                    val maxLoops = readToken()
+                    val statements = readToken()!!
+                    WhileToken(condition, maxLoops, statements, readPosition())
+                }
+                T_NOOP -> {
+                    readPosition()
+                    NoopToken()
+                }
+                else -> throw IllegalStateException("Unknown token tag $tag")
+            }
+            token.islType = readType()
+            return token
+        }
+
+        private fun readTokens(): List<IIslToken> {
+            val size = readVarInt()
+            val result = ArrayList<IIslToken>(size)
+            repeat(size) { result.add(readToken()!!) }
+            return result
+        }
+
+        private fun readProperties(): List<JsonProperty>? {
+            val size = readVarInt()
+            if (size == 0)
+                return null
+            return List(size - 1) { JsonProperty(readString()!!, readType()!!) }
+        }
+
+        private fun readType(): IslType? {
+            return when (val tag = input.readUnsignedByte()) {
+                Y_NULL -> null
+                Y_BASIC -> {
+                    val type = IslType.Type.entries[input.readUnsignedByte()]
+                    val size = readVarInt()
+                    val values = if (size == 0) null else List(size - 1) { readLiteral() }
+                    when {
+                        values == null && type == IslType.Type.ANY -> IslType.Any
+                        values == null && type == IslType.Type.STRING -> IslType.String
+                        else -> JsonBasicType(type, values)
+                    }
+                }
+                Y_ARRAY -> JsonArrayType(readType()!!)
+                Y_OBJECT -> {
+                    val name = readString()!!
+                    val properties = readProperties()
+                    if (name.isEmpty() && properties == null) IslType.Object else IslObjectType(name, properties)
+                }
+                Y_REFERENCE -> JsonReferenceType(readString()!!)
+                else -> throw IllegalStateException("Unknown type tag $tag")
+            }
+        }
+
+        private fun readLiteral(): Any? {
+            return when (val tag = input.readUnsignedByte()) {
+                L_NULL -> null
+                L_STRING -> readString()
+                L_TRUE -> true
+                L_FALSE -> false
+                L_DECIMAL -> {
+                    val unscaled = ByteArray(readVarInt())
+                    input.readFully(unscaled)
+                    BigDecimal(BigInteger(unscaled), input.readInt())
+                }
+                L_LONG -> input.readLong()
+                L_DOUBLE -> input.readDouble()
+                else -> throw IllegalStateException("Unknown literal tag $tag")
+            }
+        }
+
+        private fun readPosition(): Position {
+            val file = readString()!!
+            val line = readVarInt()
+            val column = readVarInt()
+            val endLine = readNullableInt()
+            val endColumn = readNullableInt()
+            return Position(file, line, column, endLine, endColumn)
+        }
+
+        private fun readNullableInt(): Int? {
+            return if (input.readBoolean()) readVarInt() else null
+        }
+
+        private fun readString(): String? {
+            return when (val code = readVarInt()) {
+                0 -> null
+                1 -> input.readUTF().also { strings.add(it) }
+                else -> strings[code - 2]
+            }
+        }
+
+        private fun readVarInt(): Int {
+            var shift = 0
+            var result = 0
+            while (true) {
+                val b = input.readUnsignedByte()
+                result = result or ((b and 0x7F) shl shift)
+                if (b and 0x80 == 0)
+                    break
+                shift += 7
+            }
+            return (result ushr 1) xor -(result and 1)
+        }
+    }
+}
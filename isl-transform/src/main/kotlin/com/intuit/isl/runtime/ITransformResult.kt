@@ -11,3 +11,13 @@ interface ITransformResult {
 
 class TransformResult(override val result: JsonNode?) : ITransformResult {
 }
+
+/**
+ * Result of one of the inputs of [Transformer.runTransformBatch] or a [TransformPipeline]: the [result], or the
+ * [error] this input failed with. A failed input does not affect the others.
+ * [index] is the position of the input in the batch or stream.
+ */
+class BatchTransformResult(val index: Int, override val result: JsonNode?, val error: Exception? = null) : ITransformResult {
+    val isSuccess: Boolean
+        get() = error == null;
+}
@@ -0,0 +1,140 @@
+package com.intuit.isl.runtime
+
+import java.io.Closeable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Runs the elements of parallel loops (`parallel foreach`) on a shared virtual thread executor.
+ *
+ * Instead of one task per element, [map] starts one task per worker. Workers pull the elements from the source
+ * iterator as they go, [chunkSize] at a time - cheap bodies take bigger chunks so they don't spend their time
+ * waiting for the source. Each chunk keeps its results in a plain array, the results are put together in source
+ * order once all workers finished.
+ */
+internal object ParallelScheduler {
+    private val executor: ExecutorService = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * [body] for every element of [source] on up to [workers] threads, results in source order.
+     * [size] is the number of elements when known, -1 otherwise.
+     * [newWorker] creates the state of one worker, passed to every [body] that worker runs.
+     * [chunkSize] of 0 picks one from the number of elements and workers.
+     *
+     * If elements failed, the exception of the first failing element is thrown once all workers stopped.
+     * With [cancelOnError] workers stop taking new elements as soon as one failed.
+     * A [Closeable] [source] is closed once all workers stopped.
+     */
+    fun <W, R> map(
+        source: Iterator<Any?>,
+        size: Int,
+        workers: Int,
+        chunkSize: Int,
+        cancelOnError: Boolean,
+        newWorker: () -> W,
+        body: (W, Int, Any?) -> R
+    ): List<R> {
+        val realChunkSize = when {
+            chunkSize > 0 -> chunkSize
+            // a few chunks per worker, so a slow chunk does not keep the others waiting
+            size > 0 -> (size / (workers * 4)).coerceIn(1, 64)
+            else -> 1
+        };
+        val run = ParallelRun(source, realChunkSize, cancelOnError);
+
+        val workerCount = if (size >= 0) workers.coerceAtMost(maxOf(size, 1)) else workers;
+        try {
+            if (workerCount == 1) {
+                run.work(newWorker(), body);
+            } else {
+                val futures = (1..workerCount).map { executor.submit { run.work(newWorker(), body) } };
+                futures.forEach { it.get() };
+            }
+        } finally {
+            // streamed sources hold their input open until they are read to the end, workers can stop before that
+            (source as? Closeable)?.close();
+        }
+
+        return run.results();
+    }
+
+    private class Chunk(val start: Int, val values: Array<Any?>) {
+        val results = arrayOfNulls<Any?>(values.size);
+    }
+
+    private class Failure(val error: Exception);
+
+    private object Skipped;
+
+    private class ParallelRun(
+        private val source: Iterator<Any?>,
+        private val chunkSize: Int,
+        private val cancelOnError: Boolean
+    ) {
+        private val lock = Any();
+        private val chunks = ArrayList<Chunk>();
+        private var next = 0;
+        private var sourceError: Exception? = null;
+
+        @Volatile
+        private var failed = false;
+
+        private fun pull(): Chunk? {
+            synchronized(lock) {
+                if (failed && cancelOnError)
+                    return null;
+                try {
+                    if (!source.hasNext())
+                        return null;
+                    val values = ArrayList<Any?>(chunkSize);
+                    while (values.size < chunkSize && source.hasNext())
+                        values.add(source.next());
+                    val chunk = Chunk(next, values.toTypedArray());
+                    next += values.size;
+                    chunks.add(chunk);
+                    return chunk;
+                } catch (e: Exception) {
+                    // the source itself failed, e.g. a streamed input that can't be parsed
+                    if (sourceError == null)
+                        sourceError = e;
+                    failed = true;
+                    return null;
+                }
+            }
+        }
+
+        fun <W, R> work(worker: W, body: (W, Int, Any?) -> R) {
+            while (true) {
+                val chunk = pull() ?: return;
+                for (i in chunk.values.indices) {
+                    if (failed && cancelOnError) {
+                        chunk.results[i] = Skipped;
+                        continue;
+                    }
+                    chunk.results[i] = try {
+                        body(worker, chunk.start + i, chunk.values[i])
+                    } catch (e: Exception) {
+                        failed = true;
+                        Failure(e)
+                    }
+                }
+            }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        fun <R> results(): List<R> {
+            if (failed) {
+                for (chunk in chunks)
+                    for (r in chunk.results)
+                        if (r is Failure) throw r.error;
+                sourceError?.let { throw it };
+            }
+
+            val result = ArrayList<R>(next);
+            for (chunk in chunks)
+                for (r in chunk.results)
+                    result.add(r as R);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.intuit.isl.runtime
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.intuit.isl.commands.AssignPropertyCommand
+import com.intuit.isl.commands.AssignVariableCommand
+import com.intuit.isl.commands.CoverageStatementIdAssigner
+import com.intuit.isl.commands.ForEachCommand
+import com.intuit.isl.commands.FunctionCallCommand
+import com.intuit.isl.commands.FunctionDeclarationCommand
+import com.intuit.isl.commands.FunctionReturnCommand
+import com.intuit.isl.commands.FunctionReturnCommandHandler
+import com.intuit.isl.commands.IFunctionDeclarationCommand
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.NoopCommand
+import com.intuit.isl.commands.ObjectBuildCommand
+import com.intuit.isl.commands.StatementFunctionCallCommand
+import com.intuit.isl.commands.modifiers.GenericConditionalModifierCommand
+import com.intuit.isl.commands.modifiers.ModifierValueCommand
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.types.TypedJsonNodeFactory
+import com.intuit.isl.utils.JsonConvert
+import java.util.*
+
+/**
+ * Writes the result of a [function] to a [JsonGenerator] while it runs, see [Transformer.runTransformStreamAsync].
+ *
+ * Works on functions that build an object out of top-level properties `name: value`. Each property is written as
+ * soon as nothing that runs after it can change it: no later statement sets the same property (`a.b: 1` and
+ * `a.c: 2` merge), appends properties (if/else, spreads, dynamic names) or changes a variable in place
+ * (`$var.prop = `, function calls, modifiers) which could change a value that is already in the output. Until then properties
+ * wait in a buffer, in their original order. A property whose value is a `foreach` that can be written right away
+ * is written element by element as the loop produces them, so the array is never held in memory.
+ * Functions that `return` or don't build an object are run as usual and written at the end.
+ */
+internal class StreamingOutputWriter(private val function: IFunctionDeclarationCommand) {
+    private val body: ObjectBuildCommand? = streamableBody(function);
+
+    // index of the last statement setting each property
+    private val lastWriter = HashMap<String, Int>();
+
+    // canFlushAfter[i] - once statement i ran, nothing after it can change what is already written
+    private val canFlushAfter: BooleanArray;
+
+    init {
+        val commands = body?.commands ?: emptyList();
+        canFlushAfter = BooleanArray(commands.size);
+        var blocked = false;
+        for (i in commands.indices.reversed()) {
+            canFlushAfter[i] = !blocked;
+            val c = commands[i];
+            if (c is AssignPropertyCommand)
+                lastWriter.putIfAbsent(c.token.name, i);
+            if (!isSafe(c))
+                blocked = true;
+        }
+    }
+
+    fun write(executionContext: ExecutionContext, generator: JsonGenerator) {
+        val body = body;
+        if (body == null) {
+            val result = function.execute(executionContext);
+            JsonConvert.mapper.writeTree(generator, JsonConvert.convert(result.value));
+            return;
+        }
+
+        // properties that could still change
+        val pending = TypedJsonNodeFactory.instance.objectNode();
+
+        generator.writeStartObject();
+        for ((i, c) in body.commands.withIndex()) {
+            if (c is AssignPropertyCommand && pending.size() == 0 && executionContext.executionHook == null && isStreamedLoop(c, i)) {
+                generator.writeFieldName(c.token.name);
+                generator.writeStartArray();
+                (c.value as ForEachCommand).forEachResult(executionContext) { _, value ->
+                    JsonConvert.mapper.writeTree(generator, value);
+                };
+                generator.writeEndArray();
+                continue;
+            }
+
+            executionContext.executionHook?.onBeforeExecute(c, executionContext)
+            val commandResult = c.execute(executionContext);
+            executionContext.executionHook?.onAfterExecute(c, executionContext, commandResult)
+
+            body.addResult(pending, c, commandResult);
+            if (canFlushAfter[i])
+                flush(pending, generator, i);
+        }
+        flush(pending, generator, body.commands.size);
+        generator.writeEndObject();
+    }
+
+    // writes the leading pending properties no statement after [index] sets again
+    private fun flush(pending: ObjectNode, generator: JsonGenerator, index: Int) {
+        val fields = pending.fields();
+        while (fields.hasNext()) {
+            val field = fields.next();
+            if ((lastWriter[field.key] ?: -1) > index)
+                return;
+            generator.writeFieldName(field.key);
+            JsonConvert.mapper.writeTree(generator, field.value);
+            fields.remove();
+        }
+    }
+
+    private fun isStreamedLoop(c: AssignPropertyCommand, index: Int): Boolean {
+        return c.token.islType == null &&
+                c.value.javaClass == ForEachCommand::class.java &&
+                lastWriter[c.token.name] == index && canFlushAfter[index];
+    }
+
+    companion object {
+        private fun streamableBody(function: IFunctionDeclarationCommand): ObjectBuildCommand? {
+            if (function !is FunctionDeclarationCommand)
+                return null;
+            // annotations wrap the handler
+            val handler = function.statements as? FunctionReturnCommandHandler ?: return null;
+            val body = handler.statements as? ObjectBuildCommand ?: return null;
+            if (handler.token.islType != null || body.token.islType != null || body.seedVariableName != null)
+                return null;
+
+            // a return replaces whatever was written so far
+            var returns = false;
+            CoverageStatementIdAssigner.walkCommandGraph(body, IdentityHashMap()) {
+                if (it is FunctionReturnCommand) returns = true;
+            }
+            return if (returns) null else body;
+        }
+
+        /**
+         * True if [command] can't change properties or values that were already written.
+         */
+        private fun isSafe(command: IIslCommand): Boolean {
+            val sets = when (command) {
+                is AssignPropertyCommand, is NoopCommand -> true
+                is AssignVariableCommand -> command.token.topPropertyName == null
+                // anything else could append properties
+                else -> false
+            };
+            if (!sets)
+                return false;
+
+            var changesInPlace = false;
+            CoverageStatementIdAssigner.walkCommandGraph(command, IdentityHashMap()) {
+                when (it) {
+                    is AssignVariableCommand -> if (it.token.topPropertyName != null) changesInPlace = true
+                    is FunctionCallCommand, is StatementFunctionCallCommand -> changesInPlace = true
+                    // modifiers like `push` add to the node they are given
+                    is ModifierValueCommand, is GenericConditionalModifierCommand -> changesInPlace = true
+                }
+            }
+            return !changesInPlace;
+        }
+    }
+}
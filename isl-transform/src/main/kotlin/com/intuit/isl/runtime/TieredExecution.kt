@@ -0,0 +1,109 @@
+package com.intuit.isl.runtime
+
+import com.intuit.isl.commands.FunctionProfile
+import com.intuit.isl.commands.builder.ClosureCompiler
+import com.intuit.isl.commands.builder.CommandOptimizer
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Tiered execution: functions start in the interpreter and are promoted to the closure tier ([ClosureCompiler])
+ * once they are hot - after [invocationThreshold] calls or [backEdgeThreshold] loop iterations.
+ * A promoted function is rebuilt from its tokens with the passes of [optimizer] (inlining, constant propagation, ...)
+ * and the rebuilt body is compiled, the interpreted body is left as it is for debugging and coverage.
+ * Compilation runs in the background on [executor]; the compiled body is swapped in atomically and used from the
+ * next call on, so short-lived scripts never pay for it. The default executor is one low priority daemon thread
+ * shared by all instances, so promotions never compete with the host for a shared pool.
+ *
+ * Enable it per transformer through [Transformer.tieredExecution], one instance can serve several transformers.
+ * Per function counters are available from
+ * [Transformer.getFunctionProfiles], promotions can be observed through [listener] and [stats].
+ */
+class TieredExecution(
+    val invocationThreshold: Long = 1_000,
+    val backEdgeThreshold: Long = 100_000,
+    val optimizer: CommandOptimizer = CommandOptimizer.recommended,
+    private val executor: Executor = defaultExecutor,
+    private val listener: ((PromotionEvent) -> Unit)? = null
+) {
+    /**
+     * One promotion attempt. [compiled] is false when the function shape is not supported by the closure tier
+     * or compilation failed ([error]); the function then stays in the interpreter.
+     */
+    data class PromotionEvent(
+        val moduleName: String,
+        val functionName: String,
+        val invocations: Long,
+        val backEdges: Long,
+        val compiled: Boolean,
+        val compileTimeNanos: Long,
+        val error: Throwable? = null
+    )
+
+    data class Stats(
+        val promotions: Long,
+        val unsupported: Long,
+        val failures: Long
+    )
+
+    companion object {
+        private val defaultExecutor: Executor by lazy {
+            Executors.newSingleThreadExecutor {
+                val thread = Thread(it, "isl-tiered-compiler");
+                thread.isDaemon = true;
+                thread.priority = Thread.MIN_PRIORITY;
+                thread
+            }
+        }
+    }
+
+    private val promotions = AtomicLong();
+    private val unsupported = AtomicLong();
+    private val failures = AtomicLong();
+
+    init {
+        require(invocationThreshold > 0) { "invocationThreshold must be positive" }
+        require(backEdgeThreshold > 0) { "backEdgeThreshold must be positive" }
+    }
+
+    val stats: Stats
+        get() = Stats(promotions.get(), unsupported.get(), failures.get());
+
+    internal fun onProfileUpdated(profile: FunctionProfile) {
+        if (profile.promotionStarted.get())
+            return;
+        if (profile.invocations < invocationThreshold && profile.backEdges < backEdgeThreshold)
+            return;
+        if (!profile.promotionStarted.compareAndSet(false, true))
+            return;
+
+        executor.execute { promote(profile) };
+    }
+
+    private fun promote(profile: FunctionProfile) {
+        val function = profile.function;
+        val start = System.nanoTime();
+        var error: Throwable? = null;
+        val compiled = try {
+            val optimized = function.module.functionRebuilder?.invoke(function.name, optimizer);
+            ClosureCompiler.compile(function, optimized ?: function)
+        } catch (e: Exception) {
+            error = e;
+            false
+        };
+        val time = System.nanoTime() - start;
+
+        when {
+            compiled -> promotions.incrementAndGet()
+            error != null -> failures.incrementAndGet()
+            else -> unsupported.incrementAndGet()
+        }
+
+        listener?.invoke(
+            PromotionEvent(
+                function.module.name, function.name, profile.invocations, profile.backEdges, compiled, time, error
+            )
+        );
+    }
+}
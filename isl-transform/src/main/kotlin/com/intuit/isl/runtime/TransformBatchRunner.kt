@@ -0,0 +1,43 @@
+package com.intuit.isl.runtime
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.intuit.isl.commands.IFunctionDeclarationCommand
+import com.intuit.isl.common.BaseOperationContext
+import com.intuit.isl.common.ContextAwareExtensionMethod
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.TransformVariable
+import com.intuit.isl.common.setVariableCanonical
+import com.intuit.isl.utils.JsonConvert
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Runs one prepared function over many inputs, see [Transformer.runTransformBatch] and [TransformPipeline].
+ * Each worker creates its context once with [newWorkerContext] and passes it to [run] for every input it handles.
+ * Contexts are not thread-safe, a worker context must only be used by one input at a time.
+ */
+internal class TransformBatchRunner(
+    private val function: IFunctionDeclarationCommand,
+    private val template: BaseOperationContext,
+    private val functionExtensions: HashMap<String, ContextAwareExtensionMethod>,
+    private val snapshot: Map<String, TransformVariable>,
+    private val inputKey: String,
+    private val capturedContext: CoroutineContext
+) {
+    fun newWorkerContext(): BaseOperationContext {
+        return template.clone(functionExtensions) as BaseOperationContext;
+    }
+
+    /**
+     * Run the function for the [index]th [input] on [workerContext]. Failures are returned, not thrown.
+     */
+    fun run(workerContext: BaseOperationContext, index: Int, input: JsonNode): BatchTransformResult {
+        workerContext.resetVariables(snapshot);
+        return try {
+            workerContext.setVariableCanonical(inputKey, input);
+            val result = function.execute(ExecutionContext(workerContext, null, null, capturedContext));
+            BatchTransformResult(index, JsonConvert.convert(result.value))
+        } catch (e: Exception) {
+            BatchTransformResult(index, null, e)
+        }
+    }
+}
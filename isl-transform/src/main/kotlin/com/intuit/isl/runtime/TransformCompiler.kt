@@ -1,10 +1,24 @@
 package com.intuit.isl.runtime
 
+import com.intuit.isl.commands.builder.CommandOptimizer
 import com.intuit.isl.commands.builder.ExecutionBuilder
 import com.intuit.isl.common.IOperationContext
 import com.intuit.isl.parser.TransformParser
+import com.intuit.isl.parser.tokens.ModuleImplementationToken
 
-class TransformCompiler {
+/**
+ * @param cache optional [TransformCompilerCache]; when set, [compileIsl] reuses the parsed tree of modules with the
+ * same name and source instead of parsing them again. Every call still returns its own [Transformer].
+ * @param lazyFunctions when true, functions are only compiled on first use (see [TransformModule]). This speeds up
+ * loading of large modules where only a few entry points are used, at the cost of reporting errors inside a function
+ * only when that function is first used.
+ * @param optimizer optimization passes run on every function body, see [CommandOptimizer].
+ */
+class TransformCompiler(
+    private val cache: TransformCompilerCache? = null,
+    private val lazyFunctions: Boolean = false,
+    private val optimizer: CommandOptimizer = CommandOptimizer.default
+) {
     /**
      * Compile a full ISL Script (includes functions, modifiers, imports)
      */
@@ -12,9 +26,23 @@ class TransformCompiler {
         moduleName: String, script: String,
         moduleFinder: ((name: String) -> ITransformer?)? = null
     ): ITransformer {
-        val moduleToken = TransformParser().parseTransform(moduleName, script);
+        return compileIsl(moduleName, script, null, moduleFinder);
+    }
+
+    /**
+     * Compile a full ISL Script for which we already have the parsed [moduleToken]
+     * (e.g. loaded from a precompiled project). Parsing is skipped when [moduleToken] is provided.
+     */
+    fun compileIsl(
+        moduleName: String, script: String,
+        moduleToken: ModuleImplementationToken?,
+        moduleFinder: ((name: String) -> ITransformer?)?
+    ): ITransformer {
+        val token = moduleToken
+            ?: cache?.getOrParse(moduleName, script)
+            ?: TransformParser().parseTransform(moduleName, script);
 
-        val module = ExecutionBuilder(moduleName, moduleToken, moduleFinder).build();
+        val module = ExecutionBuilder(moduleName, token, moduleFinder, null, lazyFunctions, optimizer).build();
 
         val transformer = Transformer(module);
 
@@ -27,7 +55,7 @@ class TransformCompiler {
     ): ILocalTransformer {
         val moduleToken = TransformParser().parseTransform(moduleName, script);
 
-        val module = ExecutionBuilder(moduleName, moduleToken, null, localContext).build();
+        val module = ExecutionBuilder(moduleName, moduleToken, null, localContext, optimizer = optimizer).build();
 
         val transformer = LocalTransformer(module);
         return transformer;
@@ -0,0 +1,119 @@
+package com.intuit.isl.runtime
+
+import com.intuit.isl.parser.TransformParser
+import com.intuit.isl.parser.tokens.ModuleImplementationToken
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Content-addressed cache of parsed modules used by [TransformCompiler.compileIsl] and [TransformPackageBuilder].
+ *
+ * Only the parsed [ModuleImplementationToken] tree is cached: it is immutable once parsed and does not depend on the
+ * settings of the compiler or on the modules it imports. Every compile still builds its own command graph and
+ * [Transformer] from the cached tree, so the runtime state of a transformer ([Transformer.tieredExecution],
+ * [Transformer.compileFunctions], [Transformer.link], function profiles and streaming writers) is never shared
+ * between the callers of a cache, and imports are always resolved against the caller's current modules.
+ *
+ * Entries are keyed by a SHA-256 of the module name and its source. Modules compiled from a token the caller already
+ * has (e.g. a precompiled project) do not go through the cache.
+ *
+ * Eviction is least-recently-used and bounded by both [maxEntries] and [maxWeight]. The weight of a module is the
+ * length of its source in chars, an estimate of the size of its tree and not its heap size.
+ */
+class TransformCompilerCache(
+    val maxEntries: Int = 1024,
+    val maxWeight: Long = 64L * 1024 * 1024
+) {
+    data class Stats(
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val entries: Int,
+        val weight: Long
+    )
+
+    private class Entry(
+        val token: ModuleImplementationToken,
+        val weight: Long
+    )
+
+    // access-ordered map gives us LRU iteration order; all access is guarded by `lock`
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private val lock = Any()
+    private var currentWeight = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    init {
+        require(maxEntries > 0) { "maxEntries must be positive" }
+        require(maxWeight > 0) { "maxWeight must be positive" }
+    }
+
+    /**
+     * Return the cached parse of [script] or parse it and cache the result.
+     */
+    fun getOrParse(moduleName: String, script: String): ModuleImplementationToken {
+        val key = contentKey(moduleName, script)
+
+        val existing = synchronized(lock) { entries[key] }
+        if (existing != null) {
+            hits.incrementAndGet()
+            return existing.token
+        }
+        misses.incrementAndGet()
+
+        val entry = Entry(TransformParser().parseTransform(moduleName, script), script.length.toLong())
+
+        synchronized(lock) {
+            // a racing parse of the same content could have landed first - keep a single instance
+            val raced = entries[key]
+            if (raced != null)
+                return raced.token
+            entries[key] = entry
+            currentWeight += entry.weight
+            evict()
+        }
+        return entry.token
+    }
+
+    fun invalidateAll() {
+        synchronized(lock) {
+            entries.clear()
+            currentWeight = 0
+        }
+    }
+
+    val stats: Stats
+        get() = synchronized(lock) {
+            Stats(hits.get(), misses.get(), evictions.get(), entries.size, currentWeight)
+        }
+
+    private fun evict() {
+        val iterator = entries.entries.iterator()
+        // never evict the entry we just inserted (it is the last in access order)
+        while ((entries.size > maxEntries || currentWeight > maxWeight) && entries.size > 1 && iterator.hasNext()) {
+            val eldest = iterator.next()
+            iterator.remove()
+            currentWeight -= eldest.value.weight
+            evictions.incrementAndGet()
+        }
+    }
+
+    companion object {
+        /**
+         * Process-wide cache instance for hosts that want sharing without threading their own instance around.
+         * Only parsed trees are shared, see above.
+         */
+        val shared: TransformCompilerCache by lazy { TransformCompilerCache() }
+
+        fun contentKey(moduleName: String, script: String): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            digest.update(moduleName.toByteArray(Charsets.UTF_8))
+            digest.update(0)
+            digest.update(script.toByteArray(Charsets.UTF_8))
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+    }
+}
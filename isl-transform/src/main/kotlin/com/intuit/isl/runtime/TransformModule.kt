@@ -2,53 +2,123 @@ package com.intuit.isl.runtime
 
 import com.intuit.isl.commands.FunctionDeclarationCommand
 import com.intuit.isl.commands.IFunctionDeclarationCommand
+import com.intuit.isl.commands.builder.CommandOptimizer
 import com.intuit.isl.common.ContextAwareExtensionMethod
 import com.intuit.isl.parser.tokens.FunctionType
 import com.intuit.isl.parser.tokens.ModuleImplementationToken
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * One complete transformation file loaded as a module.
  * It can have one or multiple functions: fun name( parameters ){ ... }
  * Compatible version have no functions defined in which case we have a default "run" function.
+ *
+ * @param functionCompiler set when the module is built lazily: functions of [token] that are not in [functions]
+ * are only compiled on first use (through [getFunction], [getFunctionRunner] or a call from another function).
+ * The compiler must be thread-safe and return the same command for the same function.
  */
 class TransformModule(
     val name: String,
     functions: List<IFunctionDeclarationCommand>,
-    val token: ModuleImplementationToken
+    val token: ModuleImplementationToken,
+    private val functionCompiler: ((name: String) -> IFunctionDeclarationCommand?)? = null
 ) {
-    private val _functions = HashMap<String, IFunctionDeclarationCommand>();
+    private val _functions = ConcurrentHashMap<String, IFunctionDeclarationCommand>();
     private val _functionExtensions = HashMap<String, ContextAwareExtensionMethod>();
+    private val _runners = ConcurrentHashMap<String, ContextAwareExtensionMethod>();
 
-    val functions
-        get() = _functions.values as Collection<IFunctionDeclarationCommand>;
+    /**
+     * All functions of this module. For a lazily built module this compiles every function that was not used yet.
+     */
+    val functions: Collection<IFunctionDeclarationCommand>
+        get() {
+            if (functionCompiler != null) {
+                token.functions.forEach { getFunction(it.functionName) };
+            }
+            return _functions.values;
+        }
     internal val functionExtensions
         get() = _functionExtensions;
 
+    /**
+     * Tiered execution of the functions of this module, see [Transformer.tieredExecution].
+     */
+    @Volatile
+    internal var tieredExecution: TieredExecution? = null;
+
+    /**
+     * Builds a new declaration of a function of this module with another optimizer, see
+     * [com.intuit.isl.commands.builder.ExecutionBuilder.rebuildFunction].
+     */
+    internal var functionRebuilder: ((name: String, optimizer: CommandOptimizer) -> IFunctionDeclarationCommand?)? = null;
+
+    /**
+     * Functions built so far, without forcing compilation of lazily built ones.
+     */
+    internal val builtFunctions: Collection<IFunctionDeclarationCommand>
+        get() = _functions.values;
+
     val imports
         get() = token.imports.toList();
 
     init {
         functions.forEach {
-            this._functions[it.name.lowercase()] = it;
-            (it as FunctionDeclarationCommand).module = this;
-
-            val fullName = when (it.token.functionType) {
-                FunctionType.Function -> "this.${it.token.functionName.lowercase()}";
-                FunctionType.Modifier -> "modifier.${it.token.functionName.lowercase()}";
-            };
+            attachFunction(it);
 
             val runner = it.getRunner();
-            // we need some double registrations for now as we sometimes can call with or without prefix
-            this._functionExtensions[it.name.lowercase()] = runner;
-            this._functionExtensions[fullName] = runner;
+            registerRunner(it.token.functionName, it.token.functionType, runner);
+        }
+
+        if (functionCompiler != null) {
+            // every declared function must be callable right away, the runner compiles the function on first call
+            token.functions
+                .filter { !_functions.containsKey(it.functionName.lowercase()) }
+                .forEach {
+                    val lowerName = it.functionName.lowercase();
+                    val runner: ContextAwareExtensionMethod = { context -> resolveRunner(lowerName).invoke(context) };
+                    registerRunner(it.functionName, it.functionType, runner);
+                }
         }
     }
 
+    private fun registerRunner(functionName: String, functionType: FunctionType, runner: ContextAwareExtensionMethod) {
+        val fullName = when (functionType) {
+            FunctionType.Function -> "this.${functionName.lowercase()}";
+            FunctionType.Modifier -> "modifier.${functionName.lowercase()}";
+        };
+
+        // we need some double registrations for now as we sometimes can call with or without prefix
+        this._functionExtensions[functionName.lowercase()] = runner;
+        this._functionExtensions[fullName] = runner;
+    }
+
+    private fun resolveRunner(lowerName: String): ContextAwareExtensionMethod {
+        return _runners[lowerName] ?: _runners.computeIfAbsent(lowerName) {
+            val function = getFunction(lowerName)
+                ?: throw TransformException("Could not find Function $lowerName in Module $name", token.position);
+            function.getRunner()
+        };
+    }
+
+    /**
+     * Called for every function compiled after construction of a lazily built module.
+     */
+    internal fun attachFunction(function: IFunctionDeclarationCommand) {
+        (function as FunctionDeclarationCommand).module = this;
+        this._functions[function.name.lowercase()] = function;
+    }
+
     fun getFunction(name: String): IFunctionDeclarationCommand? {
-        return this._functions[name.lowercase()];
+        val lowerName = name.lowercase();
+        return this._functions[lowerName] ?: functionCompiler?.invoke(lowerName);
     }
 
     fun getFunctionRunner(name: String): ContextAwareExtensionMethod? {
-        return this.functionExtensions[name];
+        val runner = this.functionExtensions[name] ?: return null;
+        if (functionCompiler != null) {
+            // make sure the function is built (and compilation errors are raised) before the runner is handed out
+            getFunction(name.substringAfter("."));
+        }
+        return runner;
     }
-}
\ No newline at end of file
+}
@@ -1,94 +1,195 @@
 package com.intuit.isl.runtime
 
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.parser.TransformParser
+import com.intuit.isl.parser.tokens.ModuleImplementationToken
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.function.BiFunction
 
 /**
  * A builder for TransformPackages. Please note that Packages (like everything else in this runtime)
  * is immutable and can only be built at once. This is due to the way the cross module dependencies
  * are calculated.
+ *
+ * The build runs in three steps:
+ * 1. every module is parsed (in parallel) to discover its imports, pulling in external modules as they are found;
+ * 2. the import graph is checked for circular dependencies;
+ * 3. modules are compiled concurrently, each one as soon as all of its imports are compiled.
+ *
+ * Errors are always reported for the first failing module in file order, regardless of scheduling.
+ *
+ * @param compilerCache optional [TransformCompilerCache] of parsed modules shared by all modules built through this builder.
+ * @param lazyFunctions compile the functions of each module on first use instead of up front, see [TransformCompiler].
+ * @param optimizer optimization passes run on the functions of each module, see [CommandOptimizer].
  */
-class TransformPackageBuilder {
+class TransformPackageBuilder(
+    private val compilerCache: TransformCompilerCache? = null,
+    private val lazyFunctions: Boolean = false,
+    private val optimizer: CommandOptimizer = CommandOptimizer.default
+) {
+    private class ModuleNode(val index: Int, var file: FileInfo) {
+        val dependencies = ArrayList<ModuleNode>()
+        var compiled: CompletableFuture<ITransformer>? = null
+        @Volatile
+        var error: Throwable? = null
+    }
+
     fun build(
         files: MutableList<FileInfo>,
         findExternalModule: BiFunction<String, String, String>? = null
     ): TransformPackage {
+        val executor = Executors.newVirtualThreadPerTaskExecutor()
         try {
-            // list of loaded modules
-            val modules = TreeMap<String, ITransformer>(String.CASE_INSENSITIVE_ORDER);
-            val compilationStack = TreeSet(String.CASE_INSENSITIVE_ORDER);
+            val nodes = discoverModules(files, findExternalModule, executor);
 
-            // the toList here is important because we'll modify the files in case we import external files
-            files.toList().forEach {
-                compileModule(it, modules, files, compilationStack, findExternalModule);
-            }
+            checkCircularDependencies(nodes);
+
+            compileModules(nodes, executor);
 
+            // list of loaded modules
+            val modules = TreeMap<String, ITransformer>(String.CASE_INSENSITIVE_ORDER);
+            nodes.forEach { modules[it.file.name] = it.compiled!!.join() }
             return TransformPackage(modules);
         } catch (e: Exception) {
             println("Failed compiling $e");
             throw e;
+        } finally {
+            executor.shutdown();
         }
     }
 
-    private fun compileModule(
-        it: FileInfo,
-        modules: TreeMap<String, ITransformer>,
+    /**
+     * Parse all modules and resolve their imports into a graph. External modules found through [findExternalModule]
+     * are appended to [files] (as the sequential builder always did) and parsed in the next round.
+     */
+    private fun discoverModules(
         files: MutableList<FileInfo>,
-        // used to avoid circular dependencies A > B > C > A
-        compilationStack: TreeSet<String>,
-        findExternalModule: BiFunction<String, String, String>?
-    ): ITransformer {
-        val compiledModule = modules[it.name];
-        if (compiledModule != null)
-            return compiledModule;
-
-        if (compilationStack.contains(it.name))
-            throw TransformCompilationException("Circular Dependency Between Modules: ${compilationStack.joinToString(" > ")} > ${it.name}.");
-
-        compilationStack.add(it.name);
-
-        val compiled = TransformCompiler().compileIsl(it.name, it.contents) moduleFinder@{ dependentModule ->
-            val internalFound =
-                findDependentModule(modules, dependentModule, files, compilationStack, findExternalModule);
-            if (internalFound != null)
-                return@moduleFinder internalFound;
-
-            // we need to calculate the relative file path for the dependent Module
-            val externalFile =
-                findExternalModule?.apply(it.name, dependentModule)
-                    ?: throw TransformCompilationException("Could not find referenced module $dependentModule from ${it.name}");
-
-            files.add(FileInfo(dependentModule, externalFile));
-
-            val compiled = findDependentModule(modules, dependentModule, files, compilationStack, findExternalModule);
-            return@moduleFinder compiled;
+        findExternalModule: BiFunction<String, String, String>?,
+        executor: ExecutorService
+    ): List<ModuleNode> {
+        val byName = TreeMap<String, ModuleNode>(String.CASE_INSENSITIVE_ORDER);
+        val nodes = ArrayList<ModuleNode>();
+        val addModule = { file: FileInfo ->
+            // first file with a given name wins, same as before
+            if (!byName.containsKey(file.name)) {
+                val node = ModuleNode(nodes.size, file);
+                byName[file.name] = node;
+                nodes.add(node);
+            }
         }
+        files.forEach(addModule);
+
+        var parsedUpTo = 0;
+        while (parsedUpTo < nodes.size) {
+            val round = nodes.subList(parsedUpTo, nodes.size).toList();
+            parsedUpTo = nodes.size;
+
+            val parsing = round.map { node ->
+                CompletableFuture.supplyAsync({
+                    node.file.token
+                        ?: compilerCache?.getOrParse(node.file.name, node.file.contents)
+                        ?: TransformParser().parseTransform(node.file.name, node.file.contents)
+                }, executor)
+            }
+            round.forEachIndexed { i, node ->
+                node.file = node.file.copy(token = unwrap { parsing[i].join() });
+            }
 
-        modules[it.name] = compiled;
-        return compiled;
+            // resolve imports in file order so external modules are requested and added deterministically
+            round.forEach { node ->
+                node.file.token!!.imports.forEach { import ->
+                    var dependency = byName[import.sourceName];
+                    if (dependency == null) {
+                        // we need to calculate the relative file path for the dependent Module
+                        val externalFile = findExternalModule?.apply(node.file.name, import.sourceName)
+                            ?: throw TransformCompilationException("Could not find referenced module ${import.sourceName} from ${node.file.name}");
+                        val file = FileInfo(import.sourceName, externalFile);
+                        files.add(file);
+                        addModule(file);
+                        dependency = byName[import.sourceName]!!;
+                    }
+                    if (!node.dependencies.contains(dependency))
+                        node.dependencies.add(dependency);
+                }
+            }
+        }
+        return nodes;
     }
 
-    private fun findDependentModule(
-        modules: TreeMap<String, ITransformer>,
-        dependentModule: String,
-        files: MutableList<FileInfo>,
-        compilationStack: TreeSet<String>,
-        findExternalModule: BiFunction<String, String, String>?
-    ): ITransformer? {
-        val compiledModule = modules[dependentModule];
-        if (compiledModule != null)
-            return compiledModule;
-
-        val nonCompiledModule = files.find { f -> f.name.equals(dependentModule, true) };
-        if (nonCompiledModule != null) {
-            // try to compile this
-            val newlyCompiledModule =
-                compileModule(nonCompiledModule, modules, files, compilationStack, findExternalModule);
-            return newlyCompiledModule;
+    private fun checkCircularDependencies(nodes: List<ModuleNode>) {
+        // 0 = not visited, 1 = on the current path, 2 = done
+        val state = IntArray(nodes.size);
+        val path = ArrayList<ModuleNode>();
+
+        fun visit(node: ModuleNode) {
+            if (state[node.index] == 2)
+                return;
+            if (state[node.index] == 1) {
+                val cycle = path.subList(path.indexOf(node), path.size).joinToString(" > ") { it.file.name };
+                throw TransformCompilationException("Circular Dependency Between Modules: $cycle > ${node.file.name}.");
+            }
+            state[node.index] = 1;
+            path.add(node);
+            node.dependencies.forEach { visit(it) };
+            path.removeAt(path.size - 1);
+            state[node.index] = 2;
         }
 
-        return null
+        nodes.forEach { visit(it) };
+    }
+
+    private fun compileModules(nodes: List<ModuleNode>, executor: ExecutorService) {
+        // the graph is acyclic, so walking it depth first schedules every dependency before its dependents
+        fun schedule(node: ModuleNode): CompletableFuture<ITransformer> {
+            node.compiled?.let { return it };
+            val dependencies = node.dependencies.map { schedule(it) };
+            val compiled = CompletableFuture.allOf(*dependencies.toTypedArray()).thenApplyAsync({
+                try {
+                    compileModule(node)
+                } catch (e: Throwable) {
+                    node.error = e;
+                    throw e;
+                }
+            }, executor);
+            node.compiled = compiled;
+            return compiled;
+        }
+
+        val all = nodes.map { schedule(it) };
+        try {
+            CompletableFuture.allOf(*all.toTypedArray()).join();
+        } catch (e: CompletionException) {
+            // modules whose imports failed are never compiled, so the first own error in file order is deterministic
+            val first = nodes.firstNotNullOfOrNull { it.error } ?: e.cause ?: e;
+            throw first;
+        }
+    }
+
+    private fun compileModule(node: ModuleNode): ITransformer {
+        val dependencies = TreeMap<String, ITransformer>(String.CASE_INSENSITIVE_ORDER);
+        node.dependencies.forEach { dependencies[it.file.name] = it.compiled!!.join() };
+
+        val file = node.file;
+        return TransformCompiler(compilerCache, lazyFunctions, optimizer).compileIsl(file.name, file.contents, file.token) { dependentModule ->
+            dependencies[dependentModule]
+        };
+    }
+
+    private fun <T> unwrap(action: () -> T): T {
+        try {
+            return action();
+        } catch (e: CompletionException) {
+            throw e.cause ?: e;
+        }
     }
 }
 
-data class FileInfo(val name: String, val contents: String);
\ No newline at end of file
+/**
+ * @param token optional pre-parsed module for [contents] (e.g. from a precompiled project); when present the
+ * module is built straight from it without parsing [contents] again.
+ */
+data class FileInfo(val name: String, val contents: String, val token: ModuleImplementationToken? = null);
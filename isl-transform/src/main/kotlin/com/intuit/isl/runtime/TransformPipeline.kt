@@ -0,0 +1,93 @@
+package com.intuit.isl.runtime
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.intuit.isl.common.BaseOperationContext
+import com.intuit.isl.common.IOperationContext
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.jdk9.asFlow
+import kotlinx.coroutines.jdk9.asPublisher
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Transforms a stream of inputs with a [Transformer]:
+ * ```
+ * TransformPipeline(transformer, "run", context, concurrency = 8)
+ *     .transform(records)
+ *     .collect { sink.write(it.result) }
+ * ```
+ * At most [concurrency] inputs are taken from the source and not yet collected downstream at any time, so a slow
+ * downstream slows down the source instead of piling up results. Inputs run on the virtual thread dispatcher of the
+ * [Transformer], on contexts reused the same way as in [Transformer.runTransformBatch] - [templateContext] is
+ * only read. With [ordered] results are emitted in input order, otherwise as soon as they are ready.
+ * Failed inputs are emitted as a [BatchTransformResult] with an error, a failing source fails the stream.
+ */
+class TransformPipeline(
+    private val transformer: Transformer,
+    private val functionName: String,
+    private val templateContext: IOperationContext,
+    val concurrency: Int = Runtime.getRuntime().availableProcessors(),
+    val ordered: Boolean = true,
+    private val inputVariable: String = "\$input"
+) {
+    init {
+        require(concurrency >= 1) { "concurrency must be at least 1, was $concurrency" };
+    }
+
+    fun transform(inputs: Flow<JsonNode>): Flow<BatchTransformResult> = flow {
+        val runner = transformer.prepareBatch(functionName, templateContext, inputVariable, currentCoroutineContext());
+        // contexts of the workers that are idle right now
+        val idle = ConcurrentLinkedQueue<BaseOperationContext>();
+        val permits = Semaphore(concurrency);
+
+        fun runOne(index: Int, input: JsonNode): BatchTransformResult {
+            val worker = idle.poll() ?: runner.newWorkerContext();
+            try {
+                return runner.run(worker, index, input);
+            } finally {
+                idle.offer(worker);
+            }
+        }
+
+        coroutineScope {
+            val results = Channel<Deferred<BatchTransformResult>>(Channel.UNLIMITED);
+
+            val producer = launch {
+                var index = 0;
+                inputs.collect { input ->
+                    // released once the result was collected downstream
+                    permits.acquire();
+                    val i = index++;
+                    if (ordered) {
+                        results.send(async(Transformer.vtDispatcher) { runOne(i, input) });
+                    } else {
+                        launch(Transformer.vtDispatcher) { results.send(CompletableDeferred(runOne(i, input))) };
+                    }
+                }
+            };
+            // the producer completes once all inputs it started completed
+            producer.invokeOnCompletion { results.close(it) };
+
+            for (result in results) {
+                emit(result.await());
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * [transform] for [java.util.concurrent.Flow] publishers. The source is asked for [concurrency] inputs at a time.
+     */
+    fun transform(inputs: java.util.concurrent.Flow.Publisher<JsonNode>): java.util.concurrent.Flow.Publisher<BatchTransformResult> {
+        return transform(inputs.asFlow().buffer(concurrency)).asPublisher(Transformer.vtDispatcher);
+    }
+}
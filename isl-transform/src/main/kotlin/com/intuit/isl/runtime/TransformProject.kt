@@ -1,3 +1,7 @@
 package com.intuit.isl.runtime
 
-data class TransformProject(val manifest: TransformProjectManifest)
\ No newline at end of file
+/**
+ * @param precompiled files written with a precompiled token tree under `META-INF/isl-compiled/` (see [TransformProjectBuilder]).
+ * Not part of the [manifest], so archives stay readable by older ISL versions.
+ */
+data class TransformProject(val manifest: TransformProjectManifest, val precompiled: Set<String> = setOf())
\ No newline at end of file
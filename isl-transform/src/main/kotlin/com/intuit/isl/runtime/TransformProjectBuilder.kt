@@ -2,74 +2,124 @@ package com.intuit.isl.runtime
 
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import com.fasterxml.jackson.module.kotlin.readValue
+import com.intuit.isl.parser.IslModuleSerializer
+import com.intuit.isl.parser.TransformParser
+import com.intuit.isl.parser.tokens.ModuleImplementationToken
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.InputStream
 import java.util.zip.ZipEntry
 import java.util.zip.ZipInputStream
 import java.util.zip.ZipOutputStream
 
-class TransformProjectBuilder {
+/**
+ * Reads and writes ISL project archives: a zip with the `.isl` sources, a `manifest.json`
+ * and (optionally) a precompiled token tree per source under `META-INF/isl-compiled/` so loading can skip parsing.
+ * Precompiled trees are only written and read when the ISL version is known, and an entry is only taken as a tree
+ * when it is not a source listed in the manifest.
+ */
+class TransformProjectBuilder internal constructor(private val islVersion: String) {
+
+    constructor() : this(Transformer.version)
 
     private val manifestFileName = "manifest.json"
 
-    private val islVersion = Transformer.version
+    private val compiledFolder = "META-INF/isl-compiled/"
+
+    // "Unknown" when the version could not be read (see [Transformer.version]), every build would match it
+    private val versionKnown = islVersion != "Unknown"
 
     private val objectMapper = jacksonObjectMapper()
 
     fun writeProject(
         files: List<FileInfo>,
         projectVersion: String,
-        stream: ByteArrayOutputStream
+        stream: ByteArrayOutputStream,
+        precompile: Boolean = false
     ): TransformProject {
         var setIslVersion = islVersion
-        var manifest = TransformProjectManifest(files.map { f -> f.name }.toSet(), setIslVersion, projectVersion)
+        val names = files.map { f -> f.name }.toSet()
+        val precompiled = HashSet<String>()
         ZipOutputStream(stream).use { t ->
             for (file in files) {
                 val zipFile = ZipEntry(file.name)
                 t.putNextEntry(zipFile)
                 t.write(file.contents.toByteArray())
                 t.closeEntry()
+
+                val compiledName = compiledFolder + file.name
+                val compiled = if (precompile && versionKnown && !names.contains(compiledName)) tryPrecompile(file) else null
+                if (compiled != null) {
+                    t.putNextEntry(ZipEntry(compiledName))
+                    t.write(compiled)
+                    t.closeEntry()
+                    precompiled.add(file.name)
+                }
             }
+            var manifest = TransformProjectManifest(names, setIslVersion, projectVersion)
             val manifestFile = ZipEntry(manifestFileName)
             t.putNextEntry(manifestFile)
             t.write(objectMapper.writeValueAsBytes(manifest))
             t.closeEntry()
+            return TransformProject(manifest, precompiled)
         }
-
-        return TransformProject(manifest)
     }
 
     fun readProject(projectStream: InputStream): TransformPackage? {
         val transformPackageBuilder = TransformPackageBuilder()
-        val fileInfos: ArrayList<FileInfo> = ArrayList()
-        // Set default values for manifest
-
-        var manifest : TransformProjectManifest? = null
+        // the manifest is the last entry, what the other entries are is only known once it was read
+        val entries = LinkedHashMap<String, ByteArray>()
 
         ZipInputStream(projectStream).use { zipStream ->
             generateSequence { zipStream.nextEntry }.forEach { entry ->
-                if (entry.name.contains(".isl")) {
-                    val contents = zipStream.readBytes().toString(Charsets.UTF_8)
-                    fileInfos.add(FileInfo(entry.name, contents))
-                }
-
-                if (entry.name == manifestFileName) {
-                    val contents = zipStream.readBytes().toString(Charsets.UTF_8)
-                    manifest = objectMapper.readValue<TransformProjectManifest>(contents)
-                }
+                entries[entry.name] = zipStream.readBytes()
             }
         }
 
-        if (fileInfos.size == 0) {
+        val manifest = entries.remove(manifestFileName)?.let {
+            objectMapper.readValue<TransformProjectManifest>(it.toString(Charsets.UTF_8))
+        }
+        val sources = entries.filterKeys { name ->
+            name.contains(".isl") && (manifest?.files?.contains(name) ?: !name.startsWith(compiledFolder))
+        }
+
+        if (sources.isEmpty()) {
             return null
         }
 
-        var finalList : List<FileInfo> = fileInfos
-        if (manifest != null) {
-            finalList = fileInfos.filter { f -> manifest!!.files.contains(f.name) }
+        var finalList: List<FileInfo> = sources.map { (name, bytes) -> FileInfo(name, bytes.toString(Charsets.UTF_8)) }
+
+        // precompiled token trees are only valid for the exact ISL version that wrote them
+        if (manifest != null && versionKnown && manifest.islVersion == islVersion) {
+            finalList = finalList.map { f ->
+                val compiledName = compiledFolder + f.name
+                val token = if (sources.containsKey(compiledName)) null
+                else entries[compiledName]?.let { tryLoadPrecompiled(it) }
+                if (token != null) f.copy(token = token) else f
+            }
         }
 
         return transformPackageBuilder.build(finalList.toMutableList())
     }
-}
 
+    private fun tryPrecompile(file: FileInfo): ByteArray? {
+        return try {
+            val token = file.token ?: TransformParser().parseTransform(file.name, file.contents)
+            val output = ByteArrayOutputStream()
+            IslModuleSerializer.write(token, islVersion, output)
+            output.toByteArray()
+        } catch (e: Exception) {
+            // invalid scripts are stored as source only, the error will be reported when the project is loaded
+            null
+        }
+    }
+
+    private fun tryLoadPrecompiled(bytes: ByteArray): ModuleImplementationToken? {
+        return try {
+            IslModuleSerializer.read(ByteArrayInputStream(bytes), islVersion)
+        } catch (e: Exception) {
+            // corrupted or incompatible - fall back to parsing the source
+            null
+        }
+    }
+}
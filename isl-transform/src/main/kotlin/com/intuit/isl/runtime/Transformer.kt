@@ -1,22 +1,42 @@
 package com.intuit.isl.runtime
 
+import com.fasterxml.jackson.core.JsonGenerator
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.node.JsonNodeFactory
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.intuit.isl.commands.IFunctionDeclarationCommand
 import com.intuit.isl.common.*
 import com.intuit.isl.commands.CoverageStatementIdAssigner
+import com.intuit.isl.commands.ExtensionCallSite
+import com.intuit.isl.commands.FunctionCallCommand
+import com.intuit.isl.commands.HardwiredFunctionCallCommand
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.FunctionDeclarationCommand
+import com.intuit.isl.commands.FunctionProfile
+import com.intuit.isl.commands.builder.ClosureCompiler
+import com.intuit.isl.commands.modifiers.HardwiredModifierValueCommand
+import com.intuit.isl.commands.modifiers.ModifierValueCommand
 import com.intuit.isl.debug.IExecutionHook
 import com.intuit.isl.parser.tokens.IIslToken
 import com.intuit.isl.utils.JsonConvert
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.withContext
+import java.io.OutputStream
+import java.util.IdentityHashMap
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.jar.Manifest
 import kotlin.coroutines.coroutineContext
 
 class Transformer(override val module: TransformModule) : ITransformer {
+    // how to stream the result of each function, see runTransformStreamAsync
+    private val streamingWriters = ConcurrentHashMap<IFunctionDeclarationCommand, StreamingOutputWriter>()
+
     val token: IIslToken
         get() = module.token;
 
@@ -25,7 +45,7 @@ class Transformer(override val module: TransformModule) : ITransformer {
 
     companion object {
         // Virtual thread dispatcher for the internal ISL engine
-        private val vtDispatcher = Executors.newVirtualThreadPerTaskExecutor()
+        internal val vtDispatcher = Executors.newVirtualThreadPerTaskExecutor()
             .asCoroutineDispatcher()
         
         private val islInfo: ObjectNode = initIslInfo();
@@ -115,6 +135,36 @@ class Transformer(override val module: TransformModule) : ITransformer {
             };
     }
 
+    /**
+     * Tiered execution of this transformer: its hot functions get promoted to the closure tier.
+     * Off (null) by default. Functions of imported modules are tiered by their own transformer.
+     */
+    var tieredExecution: TieredExecution?
+        get() = module.tieredExecution;
+        set(value) {
+            module.tieredExecution = value;
+        }
+
+    /**
+     * Bind the host function and modifier calls of this module to the extensions of [template] ahead of the first
+     * call, see [ExtensionCallSite]. Contexts created with [OperationContextTemplate.newContext] then call them
+     * directly instead of looking them up by name. Compiles the functions of lazily built modules.
+     * Contexts of other templates still work, their calls bind on first use.
+     */
+    fun link(template: OperationContextTemplate): Transformer {
+        val seen = IdentityHashMap<IIslCommand, Unit>();
+        for (function in module.functions) {
+            CoverageStatementIdAssigner.walkCommandGraph(function as IIslCommand, seen) {
+                when (it) {
+                    is HardwiredFunctionCallCommand, is HardwiredModifierValueCommand -> Unit
+                    is FunctionCallCommand -> it.extensionSite.bind(template, module.functionExtensions)
+                    is ModifierValueCommand -> it.extensionSite.bind(template, module.functionExtensions)
+                }
+            };
+        }
+        return this;
+    }
+
     /**
      * Run a specific function in a pre-compiled transformation.
      * You can pass through the @param operationContext
@@ -169,6 +219,42 @@ class Transformer(override val module: TransformModule) : ITransformer {
         executionHook: IExecutionHook?,
         capturedContext: kotlin.coroutines.CoroutineContext
     ): ITransformResult {
+        val (function, context) = prepare(functionName, operationContext, executionHook, capturedContext);
+
+        context.executionHook?.onFunctionEnter(function, context)
+        try {
+            val result = function.execute(context)
+            return TransformResult(JsonConvert.convert(result.value))
+        } finally {
+            context.executionHook?.onFunctionExit(function, context)
+        }
+    }
+
+    private fun streamInternal(
+        functionName: String,
+        operationContext: IOperationContext,
+        generator: JsonGenerator,
+        executionHook: IExecutionHook?,
+        capturedContext: kotlin.coroutines.CoroutineContext
+    ) {
+        val (function, context) = prepare(functionName, operationContext, executionHook, capturedContext);
+        val writer = streamingWriters.computeIfAbsent(function) { StreamingOutputWriter(it) };
+
+        context.executionHook?.onFunctionEnter(function, context)
+        try {
+            writer.write(context, generator);
+            generator.flush();
+        } finally {
+            context.executionHook?.onFunctionExit(function, context)
+        }
+    }
+
+    private fun prepare(
+        functionName: String,
+        operationContext: IOperationContext,
+        executionHook: IExecutionHook?,
+        capturedContext: kotlin.coroutines.CoroutineContext
+    ): Pair<IFunctionDeclarationCommand, ExecutionContext> {
         val function = module.getFunction(functionName)
             ?: throw TransformException("Unknown Function @.${module.name}.$functionName", module.token.position)
 
@@ -187,13 +273,7 @@ class Transformer(override val module: TransformModule) : ITransformer {
 
         bindEntryPointParametersFromContext(function, operationContext)
 
-        context.executionHook?.onFunctionEnter(function, context)
-        try {
-            val result = function.execute(context)
-            return TransformResult(JsonConvert.convert(result.value))
-        } finally {
-            context.executionHook?.onFunctionExit(function, context)
-        }
+        return Pair(function, context);
     }
 
     override fun runTransformSync(
@@ -206,6 +286,142 @@ class Transformer(override val module: TransformModule) : ITransformer {
         return result.result
     }
 
+    /**
+     * Run a function and write its result to [generator] as it is produced instead of returning it.
+     * Top-level properties are written as soon as no later statement can change them, and `foreach` properties
+     * element by element (see [StreamingOutputWriter]), so large results are never fully held in memory.
+     * The generator is flushed but not closed. If the transformation fails the output written so far is incomplete.
+     */
+    suspend fun runTransformStreamAsync(
+        functionName: String,
+        operationContext: IOperationContext,
+        generator: JsonGenerator,
+        executionHook: IExecutionHook? = null
+    ) {
+        val originalContext = coroutineContext
+        withContext(vtDispatcher) {
+            streamInternal(functionName, operationContext, generator, executionHook, originalContext)
+        }
+    }
+
+    fun runTransformStreamSync(
+        functionName: String,
+        operationContext: IOperationContext,
+        generator: JsonGenerator
+    ) {
+        streamInternal(functionName, operationContext, generator, null, kotlin.coroutines.EmptyCoroutineContext)
+    }
+
+    /**
+     * Run a function and write its result as JSON to [output], see [runTransformStreamAsync]. [output] is not closed.
+     */
+    fun runTransformStreamSync(
+        functionName: String,
+        operationContext: IOperationContext,
+        output: OutputStream
+    ) {
+        JsonConvert.mapper.factory.createGenerator(output).use { generator ->
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // a failed transformation should not look like complete JSON
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            runTransformStreamSync(functionName, operationContext, generator);
+        }
+    }
+
+    /**
+     * Run [functionName] once for each of the [inputs], bound as [inputVariable].
+     * The setup of a normal run (function lookup, `$isl`, module functions, entry point parameters) is done once,
+     * and each of the [workers] reuses a single context cloned from [templateContext] - extensions are resolved once
+     * per worker - whose variables are reset to the template ones before each input.
+     * Results are returned in the order of the [inputs]. An input that fails gets a [BatchTransformResult.error],
+     * the rest of the batch still runs.
+     * Each input gets its own copy-on-write copy of the variables of [templateContext], so changes made by one input
+     * are not seen by the others and leave [templateContext] as it was.
+     */
+    suspend fun runTransformBatch(
+        functionName: String,
+        templateContext: IOperationContext,
+        inputs: List<JsonNode>,
+        inputVariable: String = "\$input",
+        workers: Int = Runtime.getRuntime().availableProcessors()
+    ): List<BatchTransformResult> {
+        val originalContext = coroutineContext
+        return withContext(vtDispatcher) {
+            val runner = prepareBatch(functionName, templateContext, inputVariable, originalContext);
+
+            val results = arrayOfNulls<BatchTransformResult>(inputs.size);
+            val next = AtomicInteger();
+            val workerCount = Math.clamp(workers.toLong(), 1, maxOf(1, inputs.size));
+
+            (1..workerCount).map {
+                async {
+                    val workerContext = runner.newWorkerContext();
+                    while (true) {
+                        ensureActive();
+                        val index = next.getAndIncrement();
+                        if (index >= inputs.size)
+                            break;
+                        results[index] = runner.run(workerContext, index, inputs[index]);
+                    }
+                }
+            }.awaitAll();
+
+            results.map { it!! }
+        }
+    }
+
+    /**
+     * The setup [runTransformBatch] and [TransformPipeline] share across inputs. Runs on the virtual thread dispatcher.
+     */
+    internal fun prepareBatch(
+        functionName: String,
+        templateContext: IOperationContext,
+        inputVariable: String,
+        capturedContext: kotlin.coroutines.CoroutineContext
+    ): TransformBatchRunner {
+        val template = templateContext as BaseOperationContext;
+        val (function, setupContext) = prepare(
+            functionName,
+            template.clone(module.functionExtensions),
+            null,
+            capturedContext
+        );
+        // everything the template had, plus what prepare added
+        val snapshot = HashMap(template.variables);
+        snapshot.putAll(setupContext.operationContext.variables);
+        val inputKey = (if (inputVariable.startsWith("$")) inputVariable else "$$inputVariable").lowercase();
+
+        return TransformBatchRunner(function, template, module.functionExtensions, snapshot, inputKey, capturedContext);
+    }
+
+    /**
+     * Blocking version of [runTransformBatch], for Java hosts.
+     */
+    fun runTransformBatchSync(
+        functionName: String,
+        templateContext: IOperationContext,
+        inputs: List<JsonNode>
+    ): List<BatchTransformResult> {
+        return runBlocking { runTransformBatch(functionName, templateContext, inputs) }
+    }
+
+    /**
+     * Switch the functions of this module to the closure tier (see [ClosureCompiler]).
+     * Returns the number of functions compiled; the remaining ones keep running in the interpreter.
+     */
+    fun compileFunctions(): Int {
+        return ClosureCompiler.compile(module)
+    }
+
+    /**
+     * Tiering counters of the functions built so far in this module (lazily built functions appear once used).
+     */
+    fun getFunctionProfiles(): Map<String, FunctionProfile> {
+        return module.builtFunctions
+            .filterIsInstance<FunctionDeclarationCommand>()
+            .associate { it.name to it.profile }
+    }
+
     /**
      * Return a proxy to an internal function that can be called from an external module
      * All internal functions are sync
@@ -4,7 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.node.JsonNodeFactory
 import com.fasterxml.jackson.databind.node.ObjectNode
 
-class TypedObjectNode : ObjectNode {
+open class TypedObjectNode : ObjectNode {
     var type: IslType?;
 
     companion object {
@@ -41,19 +41,20 @@ class TypedObjectNode : ObjectNode {
         }
     }
 
+    /**
+     * Typed object over the [kids] map, for nodes that manage their own properties
+     * (see [com.intuit.isl.utils.ConstantObjectNode]).
+     */
+    protected constructor(nc: JsonNodeFactory, type: IslType?, kids: MutableMap<String, JsonNode>)
+            : super(nc, kids) {
+        this.type = type;
+    }
+
     override fun deepCopy(): ObjectNode {
         val other = TypedObjectNode(this._nodeFactory, this.type);
         other.setAll<JsonNode>(this)
         return other;
     }
-
-//    constructor(
-//        nc: JsonNodeFactory,
-//        type: IslType?,
-//        kids: Map<String, JsonNode>
-//    ) : super(nc, kids) {
-//        this.type = type;
-//    }
 }
 
 class TypedJsonNodeFactory : JsonNodeFactory(true) {
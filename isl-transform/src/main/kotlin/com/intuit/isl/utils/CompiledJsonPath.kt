@@ -0,0 +1,547 @@
+package com.intuit.isl.utils
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.ArrayNode
+import com.fasterxml.jackson.databind.node.BooleanNode
+import com.fasterxml.jackson.databind.node.DecimalNode
+import com.fasterxml.jackson.databind.node.DoubleNode
+import com.fasterxml.jackson.databind.node.IntNode
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.fasterxml.jackson.databind.node.LongNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.fasterxml.jackson.databind.node.TextNode
+import com.jayway.jsonpath.Configuration
+import com.jayway.jsonpath.JsonPath
+import java.math.BigDecimal
+
+/**
+ * A JSON Path compiled into a chain of [PathStep]s that run straight on [JsonNode] trees.
+ *
+ * Covers properties (`.name`, `['name']`), indexes (`[1]`, `[-1]`, `[0,2]`), wildcards, slices (`[1:3]`, `[-2:]`),
+ * recursive descent of a property (`..name`) and comparison filters (`[?(@.price < 10 && @.type == 'book')]`).
+ * Anything else (functions, multi-property selections, existence or regex filters, ...) is handed to Jayway [JsonPath],
+ * as are - at runtime - the few filter comparisons where Jayway applies its own type coercion.
+ *
+ * [read] returns the same shape as `JsonPath.read(model, configuration)`: the unwrapped leaf (or null) for definite
+ * paths and an [ArrayNode] of the matches for indefinite ones. Matched nodes are returned as-is, not copied.
+ */
+class CompiledJsonPath private constructor(
+    val path: String,
+    private val steps: Array<PathStep>?,
+    fallback: JsonPath?
+) {
+    // Jayway is only compiled when this path (or one of its reads) needs it
+    private val jaywayPath: JsonPath by lazy { fallback ?: JsonPath.compile(path) }
+    private val definite = steps?.all { it.definite } ?: false
+
+    internal val stepCount: Int = steps?.size ?: 0
+
+    /**
+     * False when the path is always evaluated by Jayway.
+     */
+    val isNative: Boolean
+        get() = steps != null
+
+    fun read(model: Any?, configuration: Configuration): Any? {
+        if (steps == null || model !is JsonNode)
+            return jaywayPath.read<Any?>(model, configuration);
+
+        val results = ArrayList<JsonNode?>(if (definite) 1 else 8);
+        try {
+            select(model, 0, results);
+        } catch (e: UnsupportedFilterValue) {
+            return jaywayPath.read<Any?>(model, configuration);
+        }
+
+        if (definite) {
+            val value = results.lastOrNull() ?: return null;
+            return configuration.jsonProvider().unwrap(value);
+        }
+
+        val array = JsonNodeFactory.instance.arrayNode(results.size);
+        for (result in results)
+            array.add(result);  // null is added as a NullNode
+        return array;
+    }
+
+    /**
+     * Continue with step [stepIndex] on [node]. Past the last step [node] is a match - null included, as missing
+     * leaves read as null. A null or json null in the middle of the path matches nothing.
+     */
+    internal fun select(node: JsonNode?, stepIndex: Int, results: MutableList<JsonNode?>) {
+        if (stepIndex == stepCount) {
+            results.add(node);
+            return;
+        }
+        if (node == null || node.isNull)
+            return;
+        steps!![stepIndex].select(node, this, stepIndex + 1, results);
+    }
+
+    override fun toString(): String {
+        return path;
+    }
+
+    companion object {
+        /**
+         * Compile [path] (with or without the leading `$`). Invalid paths throw Jayway's
+         * [com.jayway.jsonpath.InvalidPathException], same as [JsonPath.compile].
+         */
+        fun compile(path: String): CompiledJsonPath {
+            val steps = JsonPathParser(path).parse();
+            if (steps != null)
+                return CompiledJsonPath(path, steps, null);
+            return CompiledJsonPath(path, null, JsonPath.compile(path));
+        }
+    }
+}
+
+internal abstract class PathStep(val definite: Boolean) {
+    abstract fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>);
+}
+
+private class PropertyStep(private val name: String) : PathStep(true) {
+    override fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>) {
+        if (node !is ObjectNode)
+            return;
+        val value = node.get(name);
+        // only a missing leaf reads as null, a missing property half way matches nothing
+        if (value == null && next != path.stepCount)
+            return;
+        path.select(value, next, results);
+    }
+}
+
+private class IndexStep(private val indexes: IntArray) : PathStep(indexes.size == 1) {
+    override fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>) {
+        if (node !is ArrayNode)
+            return;
+        for (index in indexes) {
+            // out of range reads as null
+            path.select(node.get(if (index < 0) node.size() + index else index), next, results);
+        }
+    }
+}
+
+private object WildcardStep : PathStep(false) {
+    override fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>) {
+        if (node is ArrayNode || node is ObjectNode) {
+            for (child in node.elements())
+                path.select(child, next, results);
+        }
+    }
+}
+
+private class SliceStep(private val from: Int?, private val to: Int?) : PathStep(false) {
+    override fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>) {
+        if (node !is ArrayNode)
+            return;
+        val length = node.size();
+        if (length == 0)
+            return;
+
+        var start = from ?: 0;
+        var end = to ?: length;
+        if (to == null) {
+            // [from:]
+            if (start < 0) start += length;
+            start = maxOf(0, start);
+        } else if (from == null) {
+            // [:to]
+            if (end < 0) end += length;
+            end = minOf(length, end);
+        } else {
+            end = minOf(length, end);
+        }
+
+        for (i in start until end)
+            path.select(node.get(i), next, results);
+    }
+}
+
+private class DeepScanStep(private val name: String) : PathStep(false) {
+    override fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>) {
+        // pre-order: the object itself, then everything below it
+        if (node is ObjectNode) {
+            val value = node.get(name);
+            if (value != null)
+                path.select(value, next, results);
+            for (child in node.elements())
+                select(child, path, next, results);
+        } else if (node is ArrayNode) {
+            for (child in node.elements())
+                select(child, path, next, results);
+        }
+    }
+}
+
+private class FilterStep(private val predicate: FilterPredicate) : PathStep(false) {
+    override fun select(node: JsonNode, path: CompiledJsonPath, next: Int, results: MutableList<JsonNode?>) {
+        if (node is ObjectNode) {
+            // a filter on an object tests the object itself
+            if (predicate.test(node))
+                path.select(node, next, results);
+        } else if (node is ArrayNode) {
+            for (item in node.elements()) {
+                if (predicate.test(item))
+                    path.select(item, next, results);
+            }
+        }
+    }
+}
+
+/**
+ * Thrown while filtering when a value needs Jayway's own conversion rules - the whole read then goes to Jayway.
+ */
+private class UnsupportedFilterValue : RuntimeException(null, null, false, false)
+
+private interface FilterPredicate {
+    fun test(item: JsonNode): Boolean;
+}
+
+private class LogicalPredicate(
+    private val left: FilterPredicate,
+    private val and: Boolean,
+    private val right: FilterPredicate
+) : FilterPredicate {
+    override fun test(item: JsonNode): Boolean {
+        return if (and) left.test(item) && right.test(item) else left.test(item) || right.test(item);
+    }
+}
+
+private class ComparisonPredicate(
+    private val left: FilterOperand,
+    private val operator: String,
+    private val right: FilterOperand
+) : FilterPredicate {
+    override fun test(item: JsonNode): Boolean {
+        val l = left.value(item);
+        val r = right.value(item);
+        return when (operator) {
+            "==" -> same(l, r)
+            "!=" -> !same(l, r)
+            "<" -> order(l, r)?.let { it < 0 } ?: false
+            "<=" -> order(l, r)?.let { it <= 0 } ?: false
+            ">" -> order(l, r)?.let { it > 0 } ?: false
+            ">=" -> order(l, r)?.let { it >= 0 } ?: false
+            else -> throw UnsupportedFilterValue()
+        };
+    }
+
+    private fun same(l: Any?, r: Any?): Boolean {
+        if (l is BigDecimal && r is BigDecimal)
+            return l.compareTo(r) == 0;
+        // Jayway converts between numbers and strings when comparing them
+        if ((l is BigDecimal && r is String) || (l is String && r is BigDecimal))
+            throw UnsupportedFilterValue();
+        return l == r;
+    }
+
+    private fun order(l: Any?, r: Any?): Int? {
+        if (l is BigDecimal && r is BigDecimal)
+            return l.compareTo(r);
+        if (l is String && r is String)
+            return l.compareTo(r);
+        return null;
+    }
+}
+
+private interface FilterOperand {
+    /**
+     * BigDecimal, String, Boolean or null.
+     */
+    fun value(item: JsonNode): Any?;
+}
+
+private class LiteralOperand(private val value: Any?) : FilterOperand {
+    override fun value(item: JsonNode): Any? = value;
+}
+
+/**
+ * `@`, `@.a.b` or `@['a']`. Anything missing along the way reads as null.
+ */
+private class ItemOperand(private val names: Array<String>) : FilterOperand {
+    override fun value(item: JsonNode): Any? {
+        var current: JsonNode? = item;
+        for (name in names)
+            current = (current as? ObjectNode)?.get(name);
+
+        return when (current) {
+            null -> null
+            is TextNode -> current.textValue()
+            is BooleanNode -> current.booleanValue()
+            is IntNode, is LongNode, is DecimalNode, is DoubleNode -> BigDecimal(current.numberValue().toString())
+            else -> if (current.isNull) null else throw UnsupportedFilterValue()
+        };
+    }
+}
+
+/**
+ * Parser for the subset of the Jayway syntax that [CompiledJsonPath] runs natively.
+ * [parse] returns null for anything outside of it, which then goes to Jayway (including reporting invalid paths).
+ */
+private class JsonPathParser(path: String) {
+    private val text: String;
+    private var pos = 0;
+
+    init {
+        val trimmed = path.trim();
+        // same as Jayway: a path without a root is relative to `$`
+        text = when {
+            trimmed.startsWith("$") -> trimmed
+            trimmed.startsWith("@") -> trimmed
+            else -> "$.$trimmed"
+        };
+    }
+
+    fun parse(): Array<PathStep>? {
+        if (!text.startsWith("$"))
+            return null;
+        pos = 1;
+        val steps = ArrayList<PathStep>();
+        while (pos < text.length) {
+            val step = when (text[pos]) {
+                '.' -> readDot()
+                '[' -> readBracket()
+                else -> null
+            } ?: return null;
+            steps.add(step);
+        }
+        return steps.toTypedArray();
+    }
+
+    private fun readDot(): PathStep? {
+        if (text.startsWith("..", pos)) {
+            pos += 2;
+            return readName()?.let { DeepScanStep(it) };
+        }
+        pos++;
+        if (pos >= text.length)
+            return null;
+        when (text[pos]) {
+            '[' -> return readBracket()
+            '*' -> {
+                pos++;
+                return WildcardStep;
+            }
+        }
+        return readName()?.let { PropertyStep(it) };
+    }
+
+    private fun readName(): String? {
+        val start = pos;
+        while (pos < text.length && text[pos] != '.' && text[pos] != '[')
+            pos++;
+        val name = text.substring(start, pos);
+        if (name.isEmpty() || name.any { it in " ()*'\"]\\" })
+            return null;
+        return name;
+    }
+
+    private fun readBracket(): PathStep? {
+        if (text.startsWith("[?(", pos))
+            return readFilter();
+
+        val end = text.indexOf(']', pos);
+        if (end < 0)
+            return null;
+        val content = text.substring(pos + 1, end).trim();
+        pos = end + 1;
+
+        if (content == "*")
+            return WildcardStep;
+        if (content.startsWith("'") || content.startsWith("\""))
+            return readQuoted(content)?.let { PropertyStep(it) };
+        if (content.contains(':'))
+            return readSlice(content);
+
+        val indexes = content.split(',').map { it.trim().toIntOrNull() ?: return null };
+        if (indexes.isEmpty())
+            return null;
+        return IndexStep(indexes.toIntArray());
+    }
+
+    private fun readSlice(content: String): PathStep? {
+        val parts = content.split(':');
+        if (parts.size != 2)
+            return null;
+        val from = parts[0].trim().let { if (it.isEmpty()) null else it.toIntOrNull() ?: return null };
+        val to = parts[1].trim().let { if (it.isEmpty()) null else it.toIntOrNull() ?: return null };
+        if (from == null && to == null)
+            return null;
+        // Jayway walks negative starts of [from:to] element by element - leave that to Jayway
+        if (from != null && to != null && from < 0)
+            return null;
+        return SliceStep(from, to);
+    }
+
+    /**
+     * Single quoted name without escapes, e.g. `'first name'`.
+     */
+    private fun readQuoted(content: String): String? {
+        val quote = content[0];
+        if (content.length < 2 || content.last() != quote)
+            return null;
+        val name = content.substring(1, content.length - 1);
+        if (name.any { it == '\'' || it == '"' || it == '\\' })
+            return null;
+        return name;
+    }
+
+    private fun readFilter(): PathStep? {
+        // find the `)]` that closes this filter, skipping quoted strings
+        var i = pos + 3;
+        var depth = 1;
+        var quote: Char? = null;
+        while (i < text.length && depth > 0) {
+            val c = text[i];
+            when {
+                quote != null -> if (c == quote) quote = null
+                c == '\'' || c == '"' -> quote = c
+                c == '(' -> depth++
+                c == ')' -> depth--
+            }
+            i++;
+        }
+        if (depth != 0 || i >= text.length || text[i] != ']')
+            return null;
+
+        val expression = text.substring(pos + 3, i - 1);
+        pos = i + 1;
+        return FilterParser(expression).parse()?.let { FilterStep(it) };
+    }
+}
+
+/**
+ * `a || b`, `a && b` (with `&&` binding tighter) of `operand <op> operand` comparisons.
+ * No parentheses, negation, existence checks or non comparison operators.
+ */
+private class FilterParser(private val text: String) {
+    private var pos = 0;
+
+    fun parse(): FilterPredicate? {
+        val predicate = readOr() ?: return null;
+        skipSpaces();
+        return if (pos == text.length) predicate else null;
+    }
+
+    private fun readOr(): FilterPredicate? {
+        var left = readAnd() ?: return null;
+        while (consume("||")) {
+            val right = readAnd() ?: return null;
+            left = LogicalPredicate(left, false, right);
+        }
+        return left;
+    }
+
+    private fun readAnd(): FilterPredicate? {
+        var left = readComparison() ?: return null;
+        while (consume("&&")) {
+            val right = readComparison() ?: return null;
+            left = LogicalPredicate(left, true, right);
+        }
+        return left;
+    }
+
+    private fun readComparison(): FilterPredicate? {
+        val left = readOperand() ?: return null;
+        skipSpaces();
+        val operator = listOf("==", "!=", "<=", ">=", "<", ">").firstOrNull { text.startsWith(it, pos) } ?: return null;
+        pos += operator.length;
+        // ===, !==, <>, =~ and friends
+        if (pos < text.length && text[pos] in "=~>")
+            return null;
+        val right = readOperand() ?: return null;
+        return ComparisonPredicate(left, operator, right);
+    }
+
+    private fun readOperand(): FilterOperand? {
+        skipSpaces();
+        if (pos >= text.length)
+            return null;
+        val c = text[pos];
+        return when {
+            c == '@' -> readItemOperand()
+            c == '\'' || c == '"' -> readString()
+            c == '-' || c.isDigit() -> readNumber()
+            else -> readKeyword()
+        };
+    }
+
+    private fun readItemOperand(): FilterOperand? {
+        pos++;
+        val names = ArrayList<String>();
+        while (pos < text.length) {
+            if (text[pos] == '.') {
+                val start = ++pos;
+                while (pos < text.length && (text[pos].isLetterOrDigit() || text[pos] == '_' || text[pos] == '-'))
+                    pos++;
+                if (pos == start)
+                    return null;
+                names.add(text.substring(start, pos));
+            } else if (text.startsWith("['", pos)) {
+                val end = text.indexOf("']", pos + 2);
+                if (end < 0)
+                    return null;
+                val name = text.substring(pos + 2, end);
+                if (name.any { it == '\'' || it == '\\' })
+                    return null;
+                names.add(name);
+                pos = end + 2;
+            } else {
+                break;
+            }
+        }
+        // functions such as @.length()
+        if (pos < text.length && (text[pos] == '(' || text[pos] == '['))
+            return null;
+        return ItemOperand(names.toTypedArray());
+    }
+
+    private fun readString(): FilterOperand? {
+        val quote = text[pos];
+        val end = text.indexOf(quote, pos + 1);
+        if (end < 0)
+            return null;
+        val value = text.substring(pos + 1, end);
+        if (value.contains('\\'))
+            return null;
+        pos = end + 1;
+        return LiteralOperand(value);
+    }
+
+    private fun readNumber(): FilterOperand? {
+        val start = pos;
+        if (text[pos] == '-')
+            pos++;
+        while (pos < text.length && (text[pos].isDigit() || text[pos] == '.'))
+            pos++;
+        val number = text.substring(start, pos).toBigDecimalOrNull() ?: return null;
+        return LiteralOperand(number);
+    }
+
+    private fun readKeyword(): FilterOperand? {
+        for ((keyword, value) in listOf("true" to true, "false" to false, "null" to null)) {
+            if (text.startsWith(keyword, pos)) {
+                pos += keyword.length;
+                if (pos < text.length && text[pos].isLetterOrDigit())
+                    return null;
+                return LiteralOperand(value);
+            }
+        }
+        return null;
+    }
+
+    private fun consume(token: String): Boolean {
+        skipSpaces();
+        if (!text.startsWith(token, pos))
+            return false;
+        pos += token.length;
+        return true;
+    }
+
+    private fun skipSpaces() {
+        while (pos < text.length && text[pos] == ' ')
+            pos++;
+    }
+}
@@ -0,0 +1,174 @@
+package com.intuit.isl.utils
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.SerializerProvider
+import com.fasterxml.jackson.databind.node.ArrayNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.intuit.isl.types.TypedJsonNodeFactory
+import com.intuit.isl.types.TypedObjectNode
+
+/**
+ * Copy-on-write view of a constant object [template] (see [com.intuit.isl.commands.ConstantObjectBuildCommand]).
+ * Reading properties, serializing and copying the node all work straight off the shared template. A nested object
+ * or array that is read is handed out as a view of its own (objects as copy-on-write views, arrays as shallow copies)
+ * and kept, so changes made through it stay visible - reading `$table.key.field` out of a large table creates a
+ * single view and copies nothing else. The properties are only copied into this node when it is changed itself
+ * (set, remove, merge, ...) or its properties are listed.
+ * Like any other [ObjectNode] it can be read from several threads at the same time.
+ * The node, its nested views and its copies keep the type of a typed template, see [TypedObjectNode].
+ * The template must not be changed once it is shared, and must not contain [ConstantObjectNode]s (see [detach]).
+ * Spreads share their source the same way when it doesn't change, see [com.intuit.isl.commands.SpreadCommand].
+ */
+class ConstantObjectNode private constructor(
+    private val children: CopyOnWriteChildren
+) : TypedObjectNode(TypedJsonNodeFactory.instance, (children.template as? TypedObjectNode)?.type, children) {
+
+    constructor(template: ObjectNode) : this(CopyOnWriteChildren(template));
+
+    /**
+     * True once the properties were copied out of the template.
+     */
+    val isCopied: Boolean
+        get() = children.isCopied;
+
+    override fun deepCopy(): ObjectNode {
+        // nothing changed yet - another view of the same template is as good as a copy
+        if (children.isTemplate)
+            return ConstantObjectNode(children.template).also { it.type = type };
+        val copy = TypedJsonNodeFactory.instance.typedObjectNode(type);
+        properties().forEach { copy.set<JsonNode>(it.key, it.value.deepCopy()) };
+        return copy;
+    }
+
+    override fun serialize(g: JsonGenerator, provider: SerializerProvider?) {
+        if (children.isTemplate)
+            children.template.serialize(g, provider);
+        else
+            super.serialize(g, provider);
+    }
+
+    companion object {
+        /**
+         * [node] with every [ConstantObjectNode] inside it replaced by a plain copy, so it can be shared as a
+         * template. Plain objects and arrays are changed in place.
+         */
+        fun detach(node: JsonNode): JsonNode {
+            when (node) {
+                is ConstantObjectNode -> {
+                    val copy = TypedJsonNodeFactory.instance.typedObjectNode(node.type);
+                    node.properties().forEach { copy.replace(it.key, detach(it.value)) };
+                    return copy;
+                }
+
+                is ObjectNode -> node.properties().forEach { it.setValue(detach(it.value)) }
+                is ArrayNode -> for (i in 0 until node.size()) node.set(i, detach(node[i]))
+            }
+            return node;
+        }
+
+        /**
+         * Copy of [value] that shares as much as possible with it: scalars are immutable and shared, objects get
+         * their own copy-on-write view and arrays are copied (elements shared the same way).
+         * Used for the properties copied out of a template, and for spreads of a source that doesn't change.
+         */
+        fun share(value: JsonNode): JsonNode {
+            return when (value) {
+                // a view over the same template unless it was changed already
+                is ConstantObjectNode -> value.deepCopy()
+                is ObjectNode -> ConstantObjectNode(value)
+                is ArrayNode -> {
+                    val copy = TypedJsonNodeFactory.instance.arrayNode(value.size());
+                    value.forEach { copy.add(share(it)) };
+                    copy
+                }
+
+                else -> value
+            };
+        }
+    }
+
+    /**
+     * Children of a [ConstantObjectNode]: reads go to the template until anything could change the properties,
+     * from then on they live in a map of their own. Reads only ever add [views] or the [copy], both under the lock,
+     * so concurrent readers all get the same nodes.
+     */
+    private class CopyOnWriteChildren(val template: ObjectNode) : AbstractMutableMap<String, JsonNode>() {
+        @Volatile
+        private var copy: LinkedHashMap<String, JsonNode>? = null;
+
+        // nested objects and arrays handed out by [get] before the properties were copied
+        @Volatile
+        private var views: HashMap<String, JsonNode>? = null;
+
+        val isCopied: Boolean
+            get() = copy != null;
+
+        /**
+         * True while every property still is the one of the template - nothing was copied or handed out to change.
+         */
+        val isTemplate: Boolean
+            get() = copy == null && views == null;
+
+        private fun copied(): LinkedHashMap<String, JsonNode> {
+            copy?.let { return it };
+            synchronized(this) {
+                copy?.let { return it };
+                val handedOut = views;
+                val result = LinkedHashMap<String, JsonNode>();
+                template.properties().forEach { result[it.key] = handedOut?.get(it.key) ?: share(it.value) };
+                copy = result;
+                views = null;
+                return result;
+            }
+        }
+
+        override val size: Int
+            get() = copy?.size ?: template.size();
+
+        override fun isEmpty(): Boolean {
+            return copy?.isEmpty() ?: (template.size() == 0);
+        }
+
+        override fun containsKey(key: String): Boolean {
+            return copy?.containsKey(key) ?: template.has(key);
+        }
+
+        override fun get(key: String): JsonNode? {
+            copy?.let { return it[key] };
+            val value = template.get(key) ?: return null;
+            if (!value.isContainerNode)
+                return value;
+            // whoever gets a nested object or array might change it - the same view for every read
+            synchronized(this) {
+                copy?.let { return it[key] };
+                val handedOut = views ?: HashMap<String, JsonNode>().also { views = it };
+                return handedOut.getOrPut(key) { share(value) };
+            }
+        }
+
+        override fun put(key: String, value: JsonNode): JsonNode? {
+            return copied().put(key, value);
+        }
+
+        override fun remove(key: String): JsonNode? {
+            return copied().remove(key);
+        }
+
+        override fun clear() {
+            synchronized(this) {
+                copy = LinkedHashMap();
+                views = null;
+            }
+        }
+
+        override val entries: MutableSet<MutableMap.MutableEntry<String, JsonNode>>
+            get() = copied().entries;
+
+        override val keys: MutableSet<String>
+            get() = copied().keys;
+
+        override val values: MutableCollection<JsonNode>
+            get() = copied().values;
+    }
+}
@@ -0,0 +1,181 @@
+package com.intuit.isl.utils
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.SerializerProvider
+import com.fasterxml.jackson.databind.node.JsonNodeType
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.fasterxml.jackson.databind.node.ValueNode
+import com.intuit.isl.types.TypedJsonNodeFactory
+import java.io.Closeable
+import java.io.File
+
+/**
+ * Input document whose big arrays are streamed instead of loaded:
+ * ```
+ * val input = StreamingJsonInput.read({ JsonConvert.mapper.factory.createParser(file) }, listOf("records"));
+ * context.setVariable("\$input", input);
+ * ```
+ * Everything except the [streamedPaths] is loaded into a normal object, so `$input.header.date` works as usual.
+ * Each streamed array is a [StreamingArrayNode] that `foreach $row in $input.records` pulls one element at a time
+ * from a new parser - memory stays constant however many rows the array has.
+ * [source] must open the same document every time it is called (a file, a byte array, ...), it is called once to
+ * load the document and once for every pass over a streamed array.
+ */
+object StreamingJsonInput {
+    /**
+     * @param streamedPaths dotted paths from the document root to the arrays to stream, e.g. `records` or `data.rows`
+     */
+    fun read(source: () -> JsonParser, streamedPaths: Collection<String>): ObjectNode {
+        val paths = streamedPaths.map { it.split('.') };
+        source().use { parser ->
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw IllegalArgumentException("Streaming input must be a JSON object, found ${parser.currentToken()}.");
+            return readObject(parser, source, emptyList(), paths);
+        }
+    }
+
+    fun read(file: File, streamedPaths: Collection<String>): ObjectNode {
+        return read({ JsonConvert.mapper.factory.createParser(file) }, streamedPaths);
+    }
+
+    // parser is on the START_OBJECT of the object at [path]
+    private fun readObject(
+        parser: JsonParser,
+        source: () -> JsonParser,
+        path: List<String>,
+        streamedPaths: List<List<String>>
+    ): ObjectNode {
+        val result = TypedJsonNodeFactory.instance.objectNode();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName();
+            val fieldPath = path + name;
+            val token = parser.nextToken();
+
+            when {
+                token == JsonToken.START_ARRAY && streamedPaths.contains(fieldPath) -> {
+                    parser.skipChildren();
+                    result.set<JsonNode>(name, StreamingArrayNode(source, fieldPath));
+                }
+
+                token == JsonToken.START_OBJECT && streamedPaths.any { it.size > fieldPath.size && it.subList(0, fieldPath.size) == fieldPath } ->
+                    result.set<JsonNode>(name, readObject(parser, source, fieldPath, streamedPaths))
+
+                else -> result.set<JsonNode>(name, JsonConvert.mapper.readTree<JsonNode>(parser))
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves [parser] (before the first token) onto the START_ARRAY at [path], false if the document has no array there.
+     */
+    internal fun seek(parser: JsonParser, path: List<String>): Boolean {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            return false;
+        for ((depth, part) in path.withIndex()) {
+            var found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val name = parser.currentName();
+                val token = parser.nextToken();
+                if (name == part) {
+                    val expected = if (depth == path.size - 1) JsonToken.START_ARRAY else JsonToken.START_OBJECT;
+                    if (token != expected)
+                        return false;
+                    found = true;
+                    break;
+                }
+                parser.skipChildren();
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+}
+
+/**
+ * Array of a [StreamingJsonInput] document that is read from the source on every pass instead of being kept in
+ * memory. `foreach` iterates it one element at a time (`parallel foreach` still collects the elements first) and
+ * serializing it copies the elements straight from the source; anything that needs the array as a whole sees a
+ * reference, like an [ObjectRefNode].
+ */
+class StreamingArrayNode(
+    private val source: () -> JsonParser,
+    val path: List<String>
+) : ValueNode(), IIslIterable {
+
+    override fun getInnerIterator(): Iterable<Any?> {
+        return Iterable { elements() };
+    }
+
+    /**
+     * Elements of the array, parsed one at a time. The parser is closed once the last element was read; callers
+     * that may stop early close the iterator, it is [Closeable].
+     */
+    fun elements(): Iterator<JsonNode> {
+        val parser = source();
+        if (!StreamingJsonInput.seek(parser, path)) {
+            parser.close();
+            return emptyList<JsonNode>().iterator();
+        }
+
+        return object : Iterator<JsonNode>, Closeable {
+            private var nextToken: JsonToken? = parser.nextToken();
+
+            override fun hasNext(): Boolean {
+                if (nextToken == JsonToken.END_ARRAY || nextToken == null) {
+                    close();
+                    return false;
+                }
+                return true;
+            }
+
+            override fun close() {
+                if (!parser.isClosed)
+                    parser.close();
+            }
+
+            override fun next(): JsonNode {
+                if (!hasNext())
+                    throw NoSuchElementException();
+                val element = JsonConvert.mapper.readTree<JsonNode>(parser);
+                nextToken = parser.nextToken();
+                return element;
+            }
+        };
+    }
+
+    override fun serialize(jgen: JsonGenerator, provider: SerializerProvider?) {
+        source().use { parser ->
+            if (!StreamingJsonInput.seek(parser, path)) {
+                jgen.writeNull();
+                return;
+            }
+            // copies the whole array, token by token
+            jgen.copyCurrentStructure(parser);
+        }
+    }
+
+    override fun asToken(): JsonToken {
+        return JsonToken.START_ARRAY;
+    }
+
+    override fun getNodeType(): JsonNodeType {
+        return JsonNodeType.POJO;
+    }
+
+    override fun asText(): String {
+        return "[Streamed ${path.joinToString(".")}]";
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is StreamingArrayNode && other.source === source && other.path == path;
+    }
+
+    override fun hashCode(): Int {
+        return path.hashCode();
+    }
+}
@@ -1,6 +1,7 @@
 package com.intuit.isl.transform.testing.commands
 
 import com.fasterxml.jackson.databind.JsonNode
+import com.intuit.isl.common.OperationContext
 import org.junit.jupiter.api.TestInstance
 import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.Arguments
@@ -10,9 +11,18 @@ import java.util.stream.Stream
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @Suppress("unused")
 class ArrayModifiersTest : YamlTransformTest("array-modifiers") {
+    // workers of the contexts the fixtures run in, null for the Transformer default
+    private var workers: Int? = null
+
+    override fun onRegisterExtensions(context: OperationContext) {
+        super.onRegisterExtensions(context)
+        workers?.let { context.maxParallelWorkers = it }
+    }
 
     private fun groupBy(): Stream<Arguments> = createTests("group-by")
 
+    private fun parallelModifiers(): Stream<Arguments> = createTests("parallel-modifiers")
+
     @ParameterizedTest
     @MethodSource("groupBy")
     fun runFixtures(
@@ -23,4 +33,20 @@ class ArrayModifiersTest : YamlTransformTest("array-modifiers") {
     ) {
         run(script, expectedResult.toPrettyString(), map)
     }
+
+    @ParameterizedTest
+    @MethodSource("parallelModifiers")
+    fun runParallelFixtures(
+        testName: String,
+        script: String,
+        expectedResult: JsonNode,
+        map: Map<String, Any?>? = null
+    ) {
+        workers = 4
+        try {
+            run(script, expectedResult.toPrettyString(), map)
+        } finally {
+            workers = null
+        }
+    }
 }
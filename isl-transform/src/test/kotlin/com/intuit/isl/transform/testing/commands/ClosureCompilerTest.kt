@@ -0,0 +1,123 @@
+package com.intuit.isl.transform.testing.commands
+
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TieredExecution
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.runtime.Transformer
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.Arguments
+import org.junit.jupiter.params.provider.MethodSource
+import java.util.concurrent.Executor
+import java.util.stream.Stream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ClosureCompilerTest {
+    companion object {
+        @JvmStatic
+        fun scripts(): Stream<Arguments> {
+            return Stream.of(
+                Arguments.of(
+                    """
+                    fun run() {
+                        ${'$'}name: "abc";
+                        ${'$'}obj: { id: 1, name: ${'$'}name, nested: { name: ${'$'}name } };
+                        result: ${'$'}obj;
+                        first: ${'$'}obj.nested.name;
+                        missing: ${'$'}obj.nothing;
+                    }
+                    """.trimIndent()
+                ),
+                Arguments.of(
+                    """
+                    fun run() {
+                        ${'$'}isPremium: false;
+                        ${'$'}id: "u1";
+                        ${'$'}result: {
+                            id: ${'$'}id,
+                            if ( ${'$'}isPremium ) { tier: "premium", limit: 1000 } else { tier: "free", limit: ${'$'}id } endif
+                            if ( ${'$'}isPremium ) { never: true } endif
+                        }
+                        result: ${'$'}result
+                    }
+                    """.trimIndent()
+                ),
+                Arguments.of(
+                    """
+                    fun run() {
+                        ${'$'}array: [ 1, 2, 3, 4 ];
+                        ${'$'}var: {
+                            description: 123,
+                            "the-lines": foreach ${'$'}i in ${'$'}array {
+                                id: ${'$'}i,
+                                id2: {{ ${'$'}i * 10 }}
+                            }
+                            endfor
+                        };
+                        result: ${'$'}var;
+                        second: ${'$'}array[1];
+                        outOfRange: ${'$'}array[10];
+                    }
+                    """.trimIndent()
+                ),
+                Arguments.of(
+                    """
+                    fun run() {
+                        prop1.prop2.prop3: 1;
+                        prop1.prop2.prop4: ${'$'}missing;
+                        ${'$'}total = @.This.Twice( 21 );
+                        total: ${'$'}total;
+                        upper: "abc" | upperCase;
+                    }
+                    fun twice( ${'$'}v ) {
+                        return {{ ${'$'}v * 2 }};
+                    }
+                    """.trimIndent()
+                )
+            )
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("scripts")
+    fun closureTier_MatchesInterpreter(script: String) {
+        val interpreted = TransformCompiler().compileIsl("test", script)
+        val compiled = TransformCompiler().compileIsl("test", script) as Transformer
+        compiled.compileFunctions()
+
+        val expected = interpreted.runTransformSync("run", OperationContext())
+        val actual = compiled.runTransformSync("run", OperationContext())
+        assertEquals(expected, actual)
+    }
+
+    @Test
+    fun compileFunctions_ReportsCompiledCount() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            "fun run() { result: 1 }\nfun other() { return 2; }"
+        ) as Transformer
+
+        assertEquals(2, transformer.compileFunctions())
+        // already compiled functions are not compiled again
+        assertEquals(2, transformer.compileFunctions())
+        assertEquals("""{"result":1}""", transformer.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun compiledLoop_CountsBackEdges() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            "fun run() { ${'$'}items = [ 1, 2, 3 ]; result: foreach ${'$'}i in ${'$'}items { id: ${'$'}i } endfor }"
+        ) as Transformer
+        // counting is only on with tiering; the thresholds are never reached
+        transformer.tieredExecution = TieredExecution(executor = Executor { it.run() })
+        transformer.compileFunctions()
+
+        transformer.runTransformSync("run", OperationContext())
+
+        val profile = transformer.getFunctionProfiles()["run"]!!
+        assertTrue(profile.promoted)
+        assertEquals(3, profile.backEdges)
+    }
+}
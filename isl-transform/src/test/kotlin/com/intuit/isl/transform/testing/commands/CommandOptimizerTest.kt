@@ -0,0 +1,238 @@
+package com.intuit.isl.transform.testing.commands
+
+import com.intuit.isl.commands.CoverageStatementIdAssigner
+import com.intuit.isl.commands.FunctionDeclarationCommand
+import com.intuit.isl.commands.FunctionReturnCommand
+import com.intuit.isl.commands.FunctionReturnCommandHandler
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.InlinedFunctionCallCommand
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.JsonConvert
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.Arguments
+import org.junit.jupiter.params.provider.MethodSource
+import java.util.IdentityHashMap
+import java.util.stream.Stream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class CommandOptimizerTest {
+    companion object {
+        @JvmStatic
+        fun passScripts(): Stream<Arguments> {
+            return Stream.of(
+                Arguments.of(
+                    CommandOptimizer.FUNCTION_INLINING,
+                    """
+                    fun fullName( ${'$'}first, ${'$'}last ) {
+                        return `${'$'}first ${'$'}last` | trim;
+                    }
+                    fun total( ${'$'}amount, ${'$'}rate ) {
+                        return {{ ${'$'}amount * ${'$'}rate }};
+                    }
+                    fun orDefault( ${'$'}value ) {
+                        return ${'$'}value ?? "none";
+                    }
+                    fun run() {
+                        ${'$'}rate = 3;
+                        name: @.This.fullName( ${'$'}input.first, "Smith" );
+                        total: @.This.total( ${'$'}input.amount, ${'$'}rate );
+                        missing: @.This.total( ${'$'}input.none, 2 );
+                        nested: @.This.total( @.This.total( 2, 3 ), ${'$'}rate );
+                        flag: @.This.orDefault( ${'$'}input.flag );
+                        none: @.This.orDefault( ${'$'}input.none );
+                    }
+                    """
+                ),
+                Arguments.of(
+                    CommandOptimizer.CONSTANT_PROPAGATION,
+                    """
+                    fun run() {
+                        ${'$'}rate = 5;
+                        ${'$'}prefix = "INV";
+                        ${'$'}amount = ${'$'}input.amount;
+                        total: {{ ${'$'}amount * ${'$'}rate }};
+                        fee: {{ ${'$'}rate + 1 }};
+                        id: `Invoice ${'$'}prefix`;
+                        items: foreach ${'$'}i in [ 1, 2 ]
+                            {{ ${'$'}i * ${'$'}rate }}
+                        endfor;
+                        rate: ${'$'}rate;
+                    }
+                    """
+                ),
+                Arguments.of(
+                    CommandOptimizer.DEAD_BRANCH_ELIMINATION,
+                    """
+                    fun run() {
+                        ${'$'}env = "prod";
+                        if ( ${'$'}env == "prod" )
+                            url: "https://prod";
+                        else
+                            url: "https://test";
+                        endif
+                        if ( ${'$'}env == "test" )
+                            debug: true;
+                        endif
+                        mode: if ( ${'$'}env != "prod" ) "test" else "live";
+                        amount: ${'$'}input.amount;
+                    }
+                    """
+                ),
+                Arguments.of(
+                    CommandOptimizer.NESTED_PROPERTY_MERGE,
+                    """
+                    fun run() {
+                        invoice.totals.amount: ${'$'}input.amount;
+                        invoice.totals.currency: "USD";
+                        invoice.totals.tax: {{ ${'$'}input.amount / 10 }};
+                        invoice.id: "A-1";
+                        invoice.totals.discount: 0;
+                        other.x: 1;
+                        other.y: 2;
+                    }
+                    """
+                ),
+                Arguments.of(
+                    CommandOptimizer.SPREAD_SHARING,
+                    """
+                    fun run() {
+                        ${'$'}extra = { note: "n", tags: [ "a" ] };
+                        first: { ...${'$'}input, id: 1 };
+                        second: { ...${'$'}extra, more: { ...${'$'}input } };
+                        list: [ ...${'$'}input.items, 4 ];
+                    }
+                    """
+                )
+            );
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("passScripts")
+    fun pass_ChangesGraphButNotOutput(passName: String, script: String) {
+        val dumps = ArrayList<CommandOptimizer.PassDump>();
+        val optimizer = CommandOptimizer(enabledPasses = CommandOptimizer.standardPassNames(), dump = { dumps.add(it) });
+
+        val expected = run(script.trimIndent(), CommandOptimizer.none);
+        val actual = run(script.trimIndent(), optimizer);
+
+        assertEquals(expected, actual);
+        assertTrue(dumps.any { it.passName == passName && it.changed }, "$passName did not change anything: $dumps");
+    }
+
+    @Test
+    fun passNotEnabled_DoesNotRun() {
+        val dumps = ArrayList<CommandOptimizer.PassDump>();
+        val optimizer = CommandOptimizer(
+            enabledPasses = CommandOptimizer.standardPassNames() - CommandOptimizer.CONSTANT_PROPAGATION,
+            dump = { dumps.add(it) }
+        );
+
+        run("fun run() { \$a = 1; b: \$a; }", optimizer);
+        assertFalse(dumps.any { it.passName == CommandOptimizer.CONSTANT_PROPAGATION });
+        assertTrue(dumps.any { it.passName == CommandOptimizer.NESTED_PROPERTY_MERGE });
+    }
+
+    @Test
+    fun defaultOptimizer_RunsNoPass() {
+        val dumps = ArrayList<CommandOptimizer.PassDump>();
+
+        run("fun run() { \$a = 1; b: \$a; c: { d: 1 }; }", CommandOptimizer(dump = { dumps.add(it) }));
+
+        assertTrue(dumps.isEmpty(), dumps.toString());
+        assertTrue(CommandOptimizer.default.enabledPasses.isEmpty());
+    }
+
+    @Test
+    fun reassignedVariable_IsNotPropagated() {
+        val script = """
+            fun run() {
+                ${'$'}a = 1;
+                first: ${'$'}a;
+                if ( ${'$'}input.flag == true )
+                    ${'$'}a = 2;
+                endif
+                second: ${'$'}a;
+            }
+        """.trimIndent()
+
+        assertEquals("""{"first":1,"second":2}""", run(script, CommandOptimizer(enabledPasses = CommandOptimizer.standardPassNames())));
+    }
+
+    @Test
+    fun inlinedCalls_CopyTheFunctionExpression() {
+        val script = """
+            fun label() {
+                return "fixed" | upperCase;
+            }
+            fun run() {
+                a: @.This.label();
+                b: @.This.label();
+            }
+        """.trimIndent()
+        val optimizer = CommandOptimizer(enabledPasses = setOf(CommandOptimizer.FUNCTION_INLINING));
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl("test", script);
+
+        val label = transformer.module.getFunction("label") as FunctionDeclarationCommand;
+        val returned = (label.statements as FunctionReturnCommandHandler).statements as FunctionReturnCommand;
+        val inlined = ArrayList<InlinedFunctionCallCommand>();
+        CoverageStatementIdAssigner.walkCommandGraph(transformer.module.getFunction("run")!!.statements, IdentityHashMap()) {
+            if (it is InlinedFunctionCallCommand) inlined.add(it);
+        };
+
+        assertEquals(2, inlined.size);
+        // the function keeps its expression, each call site has its own copy
+        assertTrue(inlined.none { it === returned.returnExpression.parent });
+        val functionNodes = nodes(returned.returnExpression);
+        val first = nodes(inlined[0].body);
+        val second = nodes(inlined[1].body);
+        assertTrue(first.keys.none { functionNodes.containsKey(it) || second.containsKey(it) });
+        assertTrue(second.keys.none { functionNodes.containsKey(it) });
+        assertSame(inlined[0], inlined[0].body.parent);
+        assertSame(inlined[1], inlined[1].body.parent);
+        assertEquals("""{"a":"FIXED","b":"FIXED"}""", transformer.runTransformSync("run", OperationContext()).toString());
+    }
+
+    @Test
+    fun hostModifiers_AreNotInlined() {
+        val script = """
+            fun tag( ${'$'}value ) {
+                return ${'$'}value | hostTag;
+            }
+            fun run() {
+                a: @.This.tag( "x" );
+            }
+        """.trimIndent()
+        val optimizer = CommandOptimizer(enabledPasses = setOf(CommandOptimizer.FUNCTION_INLINING));
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl("test", script);
+
+        var inlined = 0;
+        CoverageStatementIdAssigner.walkCommandGraph(transformer.module.getFunction("run")!!.statements, IdentityHashMap()) {
+            if (it is InlinedFunctionCallCommand) inlined++;
+        };
+        assertEquals(0, inlined);
+
+        val context = OperationContext();
+        context.registerSyncExtensionMethod("Modifier.hostTag") { "<${it.firstParameter}>" };
+        assertEquals("""{"a":"<x>"}""", transformer.runTransformSync("run", context).toString());
+    }
+
+    private fun nodes(command: IIslCommand): IdentityHashMap<IIslCommand, Unit> {
+        val seen = IdentityHashMap<IIslCommand, Unit>();
+        CoverageStatementIdAssigner.walkCommandGraph(command, seen) {};
+        return seen;
+    }
+
+    private fun run(script: String, optimizer: CommandOptimizer): String {
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl("test", script);
+        val context = OperationContext();
+        context.setVariable("\$input", JsonConvert.mapper.readTree("""{ "amount": 125, "flag": true, "first": "Ann", "items": [ 1, { "x": 2 } ] }"""));
+        return transformer.runTransformSync("run", context).toString();
+    }
+}
@@ -3,14 +3,25 @@ package com.intuit.isl.transform.testing.commands
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.intuit.isl.common.OperationContext
 import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.types.IslObjectType
+import com.intuit.isl.types.TypedJsonNodeFactory
+import com.intuit.isl.types.TypedObjectNode
+import com.intuit.isl.utils.ConstantObjectNode
+import com.intuit.isl.utils.JsonConvert
 import kotlinx.coroutines.runBlocking
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
 import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotSame
 import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
 
 /**
  * Compile-time constant object folding ([com.intuit.isl.commands.ConstantObjectBuildCommand]) must still
- * return a fresh [deepCopy] per execution so callers can mutate without cross-run aliasing.
+ * behave like a fresh copy per execution ([ConstantObjectNode]) so callers can mutate without cross-run aliasing.
  */
 class ConstantObjectFoldTest {
 
@@ -29,4 +40,138 @@ class ConstantObjectFoldTest {
         r1.put("mutated", true)
         assertNull(r2.get("mutated"))
     }
+
+    @Test
+    fun nestedMutation_isIndependentPerTransformInvocation() = runBlocking {
+        val script = """
+            fun make() {
+                ${'$'}m = { name: "x", nested: { list: [ 1 ] } };
+                ${'$'}m.nested.list = ${'$'}m.nested.list | push( 2 );
+                return ${'$'}m;
+            }
+            fun run() {
+                first: @.This.make();
+                second: @.This.make();
+            }
+        """.trimIndent()
+        val t = TransformCompiler().compileIsl("constant-fold-test", script)
+        val expected = """{"name":"x","nested":{"list":[1,2]}}"""
+
+        val r1 = t.runTransformAsync("run", OperationContext()).result as ObjectNode
+        assertEquals(expected, r1["first"].toString())
+        assertEquals(expected, r1["second"].toString())
+
+        (r1["first"]["nested"] as ObjectNode).put("changed", true)
+        val r2 = t.runTransformAsync("run", OperationContext()).result as ObjectNode
+        assertEquals(expected, r2["first"].toString())
+    }
+
+    @Test
+    fun constantNode_copiesOnlyWhenChanged() {
+        val template = JsonConvert.mapper.readTree("""{ "a": 1, "nested": { "b": 2 }, "list": [ { "c": 3 } ] }""") as ObjectNode
+        val node = ConstantObjectNode(template)
+
+        assertEquals(1, node["a"].intValue())
+        assertEquals(template.toString(), node.toString())
+        assertEquals(template, node.deepCopy())
+        assertFalse(node.isCopied)
+
+        (node["nested"] as ObjectNode).put("b", 20)
+        (node["list"][0] as ObjectNode).put("c", 30)
+        node.remove("a")
+        assertTrue(node.isCopied)
+        assertEquals("""{"nested":{"b":20},"list":[{"c":30}]}""", node.toString())
+        assertEquals("""{"a":1,"nested":{"b":2},"list":[{"c":3}]}""", template.toString())
+    }
+
+    @Test
+    fun constantNode_nestedReadsDoNotCopyTheParent() {
+        val template = JsonConvert.mapper.readTree("""{ "a": { "x": 1 }, "b": { "x": 2 }, "c": 3 }""") as ObjectNode
+        val node = ConstantObjectNode(template)
+
+        assertEquals(2, node["b"]["x"].intValue())
+        assertSame(node["b"], node["b"])
+        assertFalse(node.isCopied)
+
+        (node["a"] as ObjectNode).put("y", 10)
+        assertFalse(node.isCopied)
+        assertEquals("""{"a":{"x":1,"y":10},"b":{"x":2},"c":3}""", node.toString())
+        assertEquals("""{"a":{"x":1,"y":10},"b":{"x":2},"c":3}""", node.deepCopy().toString())
+        assertEquals("""{"a":{"x":1},"b":{"x":2},"c":3}""", template.toString())
+    }
+
+    @Test
+    fun constantNode_concurrentReadsSeeTheSameNodes() {
+        val template = JsonConvert.mapper.createObjectNode()
+        for (i in 0 until 100)
+            template.set<ObjectNode>("k$i", JsonConvert.mapper.createObjectNode().put("v", i))
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            repeat(20) {
+                val node = ConstantObjectNode(template)
+                val start = CountDownLatch(1)
+                val reads = (0 until 8).map { worker ->
+                    executor.submit<List<Any>> {
+                        start.await()
+                        (0 until 100).map { i ->
+                            val key = "k${(i + worker * 13) % 100}"
+                            assertEquals((i + worker * 13) % 100, node[key]["v"].intValue())
+                            key to node[key]
+                        } + listOf(node.toString())
+                    }
+                }
+                start.countDown()
+                val results = reads.map { it.get() }
+
+                // every thread got the very same view for each key
+                results.forEach { r ->
+                    r.dropLast(1).forEach {
+                        val (key, value) = it as Pair<*, *>
+                        assertSame(node[key as String], value)
+                    }
+                    assertEquals(template.toString(), r.last())
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun typedNestedConstant_KeepsItsType() {
+        val script = """
+            fun run() {
+                ${'$'}customer = { name: "Ann", address: my.address = { city: "Paris" } };
+                outer: ${'$'}customer | typeof;
+                nested: ${'$'}customer.address | typeof;
+                copied: ${'$'}customer.address;
+            }
+        """.trimIndent()
+        val t = TransformCompiler().compileIsl("constant-fold-test", script)
+
+        val result = t.runTransformSync("run", OperationContext())!!
+
+        assertEquals("object", result["outer"].textValue())
+        assertEquals("my.address", result["nested"].textValue())
+        assertEquals("my.address", (result["copied"] as TypedObjectNode).type.toString())
+    }
+
+    @Test
+    fun constantNode_ViewsAndCopiesKeepTheType() {
+        val factory = TypedJsonNodeFactory.instance
+        val address = factory.typedObjectNode(IslObjectType("my.address"))
+        (address as ObjectNode).put("city", "Paris")
+        val template = factory.typedObjectNode(IslObjectType("my.customer"))
+        template.set<ObjectNode>("address", address)
+
+        val node = ConstantObjectNode(template)
+        assertEquals("my.customer", node.type.toString())
+        assertEquals("my.address", (node["address"] as TypedObjectNode).type.toString())
+        assertEquals("my.address", (node.deepCopy()["address"] as TypedObjectNode).type.toString())
+
+        node.put("changed", true)
+        val copy = node.deepCopy() as TypedObjectNode
+        assertEquals("my.customer", copy.type.toString())
+        assertEquals("my.address", (copy["address"] as TypedObjectNode).type.toString())
+    }
 }
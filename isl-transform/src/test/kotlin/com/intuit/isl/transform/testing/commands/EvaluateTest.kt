@@ -0,0 +1,177 @@
+package com.intuit.isl.transform.testing.commands
+
+import com.intuit.isl.commands.CoalesceCommand
+import com.intuit.isl.commands.CommandResult
+import com.intuit.isl.commands.ConditionExpressionCommand
+import com.intuit.isl.commands.CoverageStatementIdAssigner
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.InlinedFunctionCallCommand
+import com.intuit.isl.commands.InterpolateCommand
+import com.intuit.isl.commands.LiteralValueCommand
+import com.intuit.isl.commands.MathExpressionCommand
+import com.intuit.isl.commands.SimpleConditionCommand
+import com.intuit.isl.commands.VariablePropertySelectorCommand
+import com.intuit.isl.commands.VariableSelectorValueCommand
+import com.intuit.isl.commands.VariableSimpleSelectorCommand
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.commands.modifiers.ConditionModifierValueCommand
+import com.intuit.isl.commands.modifiers.ModifierValueCommand
+import com.intuit.isl.common.ExecutionContext
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.debug.IExecutionHook
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.JsonConvert
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import java.util.IdentityHashMap
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * Differential test of the value-only path: for every expression of a script `evaluate(context)` has to return
+ * the same value as `execute(context).value`, in the context the expression really runs in.
+ */
+class EvaluateTest {
+    private val script = """
+        fun double( ${'$'}value ) {
+            return {{ ${'$'}value * 2 }};
+        }
+        fun run() {
+            ${'$'}name = ${'$'}input.name;
+            ${'$'}count = ${'$'}input.count;
+
+            literalNumber: 12;
+            literalDecimal: 1.50;
+            literalText: "text";
+            literalBool: true;
+            literalNull: null;
+
+            variable: ${'$'}name;
+            path: ${'$'}input.items[1].id;
+            nested: ${'$'}input.customer.address.city;
+            object: ${'$'}input.customer;
+            nullNode: ${'$'}input.nullValue;
+            nullPath: ${'$'}input.nullValue.inner;
+            missing: ${'$'}input.missing;
+            missingPath: ${'$'}input.missing.inner.deep;
+
+            math: {{ ${'$'}count * 2 + 1 }};
+            mathDecimal: {{ ${'$'}input.price / 4 }};
+            mathNull: {{ ${'$'}input.nullValue + 1 }};
+
+            interpolate: `Hi ${'$'}name, ${'$'}{ ${'$'}count } items`;
+            interpolateNull: `value: ${'$'}input.nullValue and ${'$'}input.missing`;
+            interpolateMath: `total {{ ${'$'}count * 3 }}`;
+
+            condition: if ( ${'$'}count > 3 ) "big" else "small" endif;
+            conditionAnd: if ( ${'$'}count > 3 and ${'$'}input.nullValue == null ) "yes" else "no" endif;
+            conditionOr: if ( ${'$'}input.missing == "x" or ${'$'}name != null ) "yes" else "no" endif;
+            conditionNoElse: if ( ${'$'}input.missing ) "set" endif;
+            coalesce: ${'$'}input.nullValue ?? "fallback";
+            coalesceMissing: ${'$'}input.missing ?? ${'$'}name;
+
+            modifier: ${'$'}name | upperCase;
+            modifierChain: ${'$'}name | trim | upperCase | length;
+            modifierNull: ${'$'}input.nullValue | trim;
+            modifierDefault: ${'$'}input.missing | default( "d" );
+            conditionalModifier: ${'$'}name | if ( ${'$'}input.flag == true ) upperCase;
+
+            inlined: @.This.double( ${'$'}count );
+
+            empty: foreach ${'$'}i in ${'$'}input.items
+                ${'$'}last = ${'$'}i;
+            endfor
+        }
+    """.trimIndent();
+
+    private val input = """
+        {
+            "name": " Ann ",
+            "count": 5,
+            "price": 10.5,
+            "flag": true,
+            "nullValue": null,
+            "items": [ { "id": 1 }, { "id": 2 } ],
+            "customer": { "address": { "city": "Paris" } }
+        }
+    """.trimIndent();
+
+    /**
+     * Before each statement compares both paths of the expressions in it, in the context the statement runs in.
+     * Blocks that produced no result (`validResult == false`) have to evaluate to null.
+     */
+    private class DifferentialHook : IExecutionHook {
+        val checked = HashMap<String, Int>();
+        var notValid = 0;
+
+        override fun onBeforeExecute(command: IIslCommand, context: ExecutionContext) {
+            val plain = context.copy(executionHook = null);
+            CoverageStatementIdAssigner.walkCommandGraph(command, IdentityHashMap()) {
+                if (isExpression(it)) {
+                    val executed = it.execute(plain);
+                    val evaluated = it.evaluate(plain);
+                    assertEquals(executed.value, evaluated, "${it.javaClass.simpleName} at ${it.token.position}");
+                    checked.merge(it.javaClass.simpleName, 1, Int::plus);
+                }
+            };
+        }
+
+        override fun onAfterExecute(command: IIslCommand, context: ExecutionContext, result: CommandResult) {
+            if (result.validResult == false) {
+                assertNull(result.value);
+                assertNull(command.evaluate(context.copy(executionHook = null)));
+                notValid++;
+            }
+        }
+
+        override fun onFunctionEnter(command: IIslCommand, context: ExecutionContext) {}
+
+        override fun onFunctionExit(command: IIslCommand, context: ExecutionContext) {}
+
+        // expressions without side effects, the statements of the script are run by the transformer only
+        private fun isExpression(command: IIslCommand): Boolean {
+            return when (command) {
+                is LiteralValueCommand, is VariableSelectorValueCommand, is VariableSimpleSelectorCommand,
+                is VariablePropertySelectorCommand, is MathExpressionCommand, is InterpolateCommand,
+                is SimpleConditionCommand, is ConditionExpressionCommand, is CoalesceCommand,
+                is ModifierValueCommand, is ConditionModifierValueCommand, is InlinedFunctionCallCommand -> true
+                else -> false
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = [true, false])
+    fun evaluate_ReturnsTheValueOfExecute(optimized: Boolean) {
+        val optimizer = if (optimized) CommandOptimizer.recommended else CommandOptimizer.none;
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl("test", script);
+        val context = OperationContext();
+        context.setVariable("\$input", JsonConvert.mapper.readTree(input));
+        val hook = DifferentialHook();
+
+        val hooked = runBlocking { transformer.runTransformAsync("run", context, hook) }.result;
+        val plainContext = OperationContext();
+        plainContext.setVariable("\$input", JsonConvert.mapper.readTree(input));
+        val plain = transformer.runTransformSync("run", plainContext);
+
+        // the hook only compared both paths, the result is the same as without it
+        assertEquals(plain.toString(), hooked.toString());
+
+        val kinds = hook.checked.keys;
+        for (kind in listOf(
+            "LiteralValueCommand", "MathExpressionCommand", "InterpolateCommand",
+            "SimpleConditionCommand", "ConditionExpressionCommand", "CoalesceCommand"
+        )) {
+            assertTrue(kind in kinds, "$kind not checked: $kinds");
+        }
+        assertTrue(kinds.any { it.contains("Selector") }, "no selector checked: $kinds");
+        assertTrue(kinds.any { it.contains("ModifierValueCommand") }, "no modifier checked: $kinds");
+        assertTrue("ConditionModifierValueCommand" in kinds, "no conditional modifier checked: $kinds");
+        if (optimized)
+            assertTrue("InlinedFunctionCallCommand" in kinds, "no inlined call checked: $kinds");
+        // the foreach body only assigns a variable
+        assertTrue(hook.notValid > 0);
+    }
+}
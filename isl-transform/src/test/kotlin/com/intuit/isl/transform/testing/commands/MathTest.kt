@@ -34,6 +34,13 @@ class MathTest : BaseTransformTest() {
                 // ()
                 Arguments.of("r: {{ (1 + 2) * 3 }}", """{ "r": 9 }""", null),
                 Arguments.of("r: {{ 10 / (5 + 2) * 3 }}", """{ "r": 4.2858 }""", null),
+
+                // integer math promotes to decimals on overflow
+                Arguments.of("r: {{ \$a + 1 }}", """{ "r": 9223372036854775808 }""", mapOf("a" to Long.MAX_VALUE)),
+                Arguments.of("r: {{ \$a - 1 }}", """{ "r": -9223372036854775809 }""", mapOf("a" to Long.MIN_VALUE)),
+                Arguments.of("r: {{ \$a * \$a + 1 }}", """{ "r": 18446744073709551617 }""", mapOf("a" to 4294967296L)),
+                Arguments.of("r: {{ \$a + \$missing * 2 }}", """{ "r": 5 }""", mapOf("a" to 5)),
+                Arguments.of("r: {{ \$a * 2 + 1 }}", """{ "r": 4.0 }""", mapOf("a" to 1.5)),
             )
         }
 
@@ -0,0 +1,224 @@
+package com.intuit.isl.transform.testing.commands
+
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.ConvertUtils
+import com.intuit.isl.utils.JsonConvert
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFails
+import kotlin.test.assertTrue
+
+class ParallelCallsTest {
+    private fun context(): OperationContext {
+        val context = OperationContext();
+        context.setVariable("\$input", JsonConvert.mapper.readTree("""{ "id": 7, "flag": true }"""));
+        context.registerSyncExtensionMethod("Test.Echo") { ConvertUtils.tryToString(it.firstParameter) };
+        context.registerSyncExtensionMethod("Test.Fail") { throw IllegalStateException("call failed") };
+        return context;
+    }
+
+    @Test
+    fun annotatedFunction_RunsHostCallsAtTheSameTime() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            @parallelCalls
+            fun run() {
+                id: ${'$'}input.id;
+                user: @.Test.Wait( "user", ${'$'}input.id );
+                orders: @.Test.Wait( "orders", ${'$'}input.id );
+                prefs: @.Test.Wait( "prefs", 1 );
+                total: 3;
+            }
+            """.trimIndent()
+        );
+        // each call only returns true once all three are running
+        val running = CountDownLatch(3);
+        val context = context();
+        context.registerSyncExtensionMethod("Test.Wait") {
+            running.countDown();
+            val all = running.await(5, TimeUnit.SECONDS);
+            "${ConvertUtils.tryToString(it.parameters[0])}-${ConvertUtils.tryToString(it.parameters[1])}-$all"
+        };
+
+        // the annotation has workers of its own, whatever the maxParallelWorkers of the context is
+        val result = transformer.runTransformSync("run", context);
+
+        assertEquals(
+            """{"id":7,"user":"user-7-true","orders":"orders-7-true","prefs":"prefs-1-true","total":3}""",
+            result.toString()
+        );
+    }
+
+    @Test
+    fun pass_OnlyGroupsIndependentCalls() {
+        val script = """
+            fun other() {
+                return "other";
+            }
+            fun run() {
+                a: @.Test.Echo( ${'$'}input.id );
+                b: @.Test.Echo( "b" );
+                ${'$'}c = @.Test.Echo( "c" );
+                c: @.Test.Echo( ${'$'}c );
+                d: @.Test.Echo( ${'$'}c | trim );
+                e: @.This.other();
+                f: @.Test.Echo( "f" );
+                g: @.Test.Echo( "g" );
+                if ( ${'$'}input.flag == true )
+                    h: "condition";
+                endif
+                h: @.Test.Echo( "h" );
+                i: @.Test.Echo( "i" );
+            }
+        """.trimIndent();
+        val dumps = ArrayList<CommandOptimizer.PassDump>();
+        val optimizer = CommandOptimizer(enabledPasses = setOf(CommandOptimizer.PARALLEL_HOST_CALLS), dump = { dumps.add(it) });
+
+        val expected = run(script, CommandOptimizer.none);
+        val actual = run(script, optimizer, workers = 4);
+
+        assertEquals(expected, actual);
+        val dump = dumps.single { it.functionName == "run" && it.passName == CommandOptimizer.PARALLEL_HOST_CALLS };
+        // [a, b] and [f, g]: $c is set in between, d is not a plain read, e calls a function of the module
+        // and the condition could set h
+        assertEquals(2, Regex("ParallelCallsCommand").findAll(dump.after).count(), dump.after);
+    }
+
+    @Test
+    fun defaultOptimizer_KeepsCallsInOrder() {
+        val dumps = ArrayList<CommandOptimizer.PassDump>();
+        val optimizer = CommandOptimizer(
+            enabledPasses = CommandOptimizer.default.enabledPasses,
+            dump = { dumps.add(it) }
+        );
+
+        run("fun run() { a: @.Test.Echo( 1 ); b: @.Test.Echo( 2 ); }", optimizer);
+
+        assertTrue(dumps.none { it.passName == CommandOptimizer.PARALLEL_HOST_CALLS });
+        assertTrue(dumps.none { it.after.contains("ParallelCallsCommand") });
+    }
+
+    @Test
+    fun failingCall_ReportsItsError() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            @parallelCalls
+            fun run() {
+                a: @.Test.Echo( "a" );
+                b: @.Test.Fail();
+                c: @.Test.Echo( "c" );
+            }
+            """.trimIndent()
+        );
+
+        val error = assertFails { transformer.runTransformSync("run", context()) };
+
+        assertTrue(error.message!!.contains("call failed"), error.message);
+    }
+
+    @Test
+    fun annotationWorkers_LimitTheCallsRunningAtOnce() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            @parallelCalls( 2 )
+            fun run() {
+                a: @.Test.Count( "a" );
+                b: @.Test.Count( "b" );
+                c: @.Test.Count( "c" );
+                d: @.Test.Count( "d" );
+            }
+            """.trimIndent()
+        );
+        val running = AtomicInteger();
+        val most = AtomicInteger();
+        val context = context();
+        context.registerSyncExtensionMethod("Test.Count") {
+            most.accumulateAndGet(running.incrementAndGet()) { a, b -> maxOf(a, b) };
+            Thread.sleep(50);
+            running.decrementAndGet();
+            it.firstParameter
+        };
+
+        val result = transformer.runTransformSync("run", context);
+
+        assertEquals("""{"a":"a","b":"b","c":"c","d":"d"}""", result.toString());
+        assertTrue(most.get() <= 2, "${most.get()} calls at once");
+    }
+
+    @Test
+    fun contextWorkers_LimitTheCallsOfCalledFunctions() {
+        val optimizer = CommandOptimizer(enabledPasses = setOf(CommandOptimizer.PARALLEL_HOST_CALLS));
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl(
+            "test",
+            """
+            fun calls() {
+                a: @.Test.Count( "a" );
+                b: @.Test.Count( "b" );
+                c: @.Test.Count( "c" );
+                d: @.Test.Count( "d" );
+            }
+            fun run() {
+                calls: @.This.calls();
+            }
+            """.trimIndent()
+        );
+        // the first two calls only return true once both are running
+        val started = CountDownLatch(2);
+        val running = AtomicInteger();
+        val most = AtomicInteger();
+        val context = context();
+        context.maxParallelWorkers = 2;
+        context.registerSyncExtensionMethod("Test.Count") {
+            most.accumulateAndGet(running.incrementAndGet()) { a, b -> maxOf(a, b) };
+            started.countDown();
+            val together = started.await(5, TimeUnit.SECONDS);
+            running.decrementAndGet();
+            together
+        };
+
+        val result = transformer.runTransformSync("run", context);
+
+        assertEquals("""{"calls":{"a":true,"b":true,"c":true,"d":true}}""", result.toString());
+        assertTrue(most.get() <= 2, "${most.get()} calls at once");
+    }
+
+    @Test
+    fun hostAnnotationNamedParallelCalls_StillRuns() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            @parallelCalls
+            fun run() {
+                a: @.Test.Echo( "a" );
+                b: @.Test.Echo( "b" );
+            }
+            """.trimIndent()
+        );
+        val calls = AtomicInteger();
+        val context = context();
+        context.registerAnnotation("parallelCalls") {
+            calls.incrementAndGet();
+            it.runNextCommand()
+        };
+
+        val result = transformer.runTransformSync("run", context);
+
+        assertEquals("""{"a":"a","b":"b"}""", result.toString());
+        assertEquals(1, calls.get());
+    }
+
+    private fun run(script: String, optimizer: CommandOptimizer, workers: Int? = null): String {
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl("test", script);
+        val context = context();
+        workers?.let { context.maxParallelWorkers = it };
+        return transformer.runTransformSync("run", context).toString();
+    }
+}
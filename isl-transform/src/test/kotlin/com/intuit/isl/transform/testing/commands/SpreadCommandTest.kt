@@ -0,0 +1,98 @@
+package com.intuit.isl.transform.testing.commands
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.common.TransformVariable
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.ConstantObjectNode
+import com.intuit.isl.utils.JsonConvert
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class SpreadCommandTest {
+    private val script = """
+        fun run() {
+            ${'$'}copy = { ...${'$'}source, extra: 1 };
+            ${'$'}copy.nested.b = 20;
+            result: {
+                copy: ${'$'}copy,
+                items: [ ...${'$'}source.list, 4 ]
+            }
+        }
+    """.trimIndent()
+
+    private val source = """{"a":1,"nested":{"b":2},"list":[{"c":3}]}"""
+    private val expectedCopy = """{"a":1,"nested":{"b":20},"list":[{"c":3}],"extra":1}"""
+
+    @Test
+    fun readonlySource_IsCopied() {
+        // readonly only stops assignments to the variable, the host can still change the value it holds
+        val input = JsonConvert.mapper.readTree(source)
+        val context = OperationContext()
+        context.setVariable("\$source", TransformVariable(input, readOnly = true))
+
+        val result = run(context, CommandOptimizer.default)
+
+        assertEquals(expectedCopy, result["copy"].toString())
+        assertEquals("""[{"c":3},4]""", result["items"].toString())
+        assertEquals(source, input.toString())
+        assertFalse(result["items"][0] is ConstantObjectNode)
+    }
+
+    @Test
+    fun constantSource_IsSharedButNeverChanged() {
+        val constant = """
+            fun run() {
+                ${'$'}source = { a: 1, nested: { b: 2 }, list: [ { c: 3 } ] };
+                ${'$'}copy = { ...${'$'}source, extra: 1 };
+                ${'$'}copy.nested.b = 20;
+                result: {
+                    copy: ${'$'}copy,
+                    shared: { ...${'$'}source },
+                    source: ${'$'}source
+                }
+            }
+        """.trimIndent()
+        val transformer = TransformCompiler().compileIsl("test", constant)
+
+        val result = transformer.runTransformSync("run", OperationContext())!!["result"]
+
+        assertEquals(expectedCopy, result["copy"].toString())
+        assertEquals(source, result["source"].toString())
+        assertTrue(result["shared"]["nested"] is ConstantObjectNode)
+    }
+
+    @Test
+    fun mutableSource_IsCopied() {
+        val input = JsonConvert.mapper.readTree(source)
+        val context = OperationContext()
+        context.setVariable("\$source", input)
+
+        val result = run(context, CommandOptimizer.default)
+
+        assertEquals(expectedCopy, result["copy"].toString())
+        assertEquals(source, input.toString())
+        assertFalse(result["items"][0] is ConstantObjectNode)
+    }
+
+    @Test
+    fun sharingPass_SharesMutableSource() {
+        val input = JsonConvert.mapper.readTree(source)
+        val context = OperationContext()
+        context.setVariable("\$source", input)
+
+        val result = run(context, CommandOptimizer(enabledPasses = setOf(CommandOptimizer.SPREAD_SHARING)))
+
+        assertEquals(expectedCopy, result["copy"].toString())
+        assertEquals(source, input.toString())
+        assertTrue(result["items"][0] is ConstantObjectNode)
+    }
+
+    private fun run(context: OperationContext, optimizer: CommandOptimizer): JsonNode {
+        val transformer = TransformCompiler(optimizer = optimizer).compileIsl("test", script)
+        return transformer.runTransformSync("run", context)!!["result"]
+    }
+}
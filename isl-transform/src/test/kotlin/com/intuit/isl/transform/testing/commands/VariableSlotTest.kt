@@ -0,0 +1,172 @@
+package com.intuit.isl.transform.testing.commands
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.TextNode
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.common.TransformVariable
+import com.intuit.isl.runtime.TransformCompiler
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFails
+import kotlin.test.assertNull
+
+class VariableSlotTest {
+    @Test
+    fun loopsAndModifiers_UseSlots() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            fun run() {
+                ${'$'}last: "none";
+                ${'$'}pairs: foreach ${'$'}i in [ 1, 2 ]
+                    foreach ${'$'}j in [ "a", "b" ]
+                        ${'$'}last: ${'$'}j;
+                        ${'$'}i
+                    endfor
+                endfor
+                ${'$'}doubled: [ 1, 2, 3 ] | map( { id: ${'$'} } );
+                ${'$'}big: [ 1, 2, 3, 4 ] | filter( ${'$'}fit > 2 );
+                ${'$'}total: [ 1, 2, 3, 4 ] | reduce( {{ ${'$'}acc + ${'$'}it }} );
+                last: ${'$'}last;
+                pairs: ${'$'}pairs;
+                doubled: ${'$'}doubled;
+                big: ${'$'}big;
+                total: ${'$'}total;
+                afterLoop: ${'$'}i;
+            }
+            """.trimIndent()
+        )
+
+        val result = transformer.runTransformSync("run", OperationContext())!!
+        assertEquals("b", result["last"].asText())
+        assertEquals("""[[1,1],[2,2]]""", result["pairs"].toString())
+        assertEquals("""[{"id":1},{"id":2},{"id":3}]""", result["doubled"].toString())
+        assertEquals("""[3,4]""", result["big"].toString())
+        assertEquals(10, result["total"].asInt())
+        // the iterator is removed once the loop is done
+        assertNull(result["afterLoop"]?.takeUnless { it.isNull })
+    }
+
+    @Test
+    fun hostVariables_AreSeenBetweenRuns() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            fun run() {
+                ${'$'}out: ${'$'}input;
+                result: ${'$'}out;
+            }
+            """.trimIndent()
+        )
+
+        val context = OperationContext()
+        context.setVariable("\$input", TextNode("first"))
+        assertEquals("first", transformer.runTransformSync("run", context)!!["result"].asText())
+        assertEquals("first", context.getVariable("\$out")?.asText())
+
+        // the same context is reused - the name based writes from the host must win over anything cached
+        context.setVariable("\$input", TextNode("second"))
+        assertEquals("second", transformer.runTransformSync("run", context)!!["result"].asText())
+        assertEquals("second", context.getVariable("\$out")?.asText())
+    }
+
+    @Test
+    fun readonlyVariable_CannotBeAssigned() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            fun run() {
+                ${'$'}fixed: "changed";
+                result: ${'$'}fixed;
+            }
+            """.trimIndent()
+        )
+
+        val context = OperationContext()
+        context.setVariable("\$fixed", TransformVariable(TextNode("original"), readOnly = true))
+        assertFails { transformer.runTransformSync("run", context) }
+        assertEquals("original", context.getVariable("\$fixed")?.asText())
+    }
+
+    @Test
+    fun globalVariables_FallThroughToCalledFunctions() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            fun leaf() {
+                return ${'$'}g;
+            }
+            fun middle() {
+                ${'$'}local: "middle";
+                return @.This.leaf();
+            }
+            fun writer() {
+                ${'$'}g: "written";
+                return ${'$'}g;
+            }
+            fun run() {
+                nested: @.This.middle();
+                written: @.This.writer();
+                after: ${'$'}g;
+                local: ${'$'}local;
+            }
+            """.trimIndent()
+        )
+
+        val context = OperationContext()
+        context.setVariable("\$g", TransformVariable(TextNode("host"), readOnly = false, global = true))
+        val result = transformer.runTransformSync("run", context)!!
+        assertEquals("host", result["nested"].asText())
+        // writes in a called function stay in that function
+        assertEquals("written", result["written"].asText())
+        assertEquals("host", result["after"].asText())
+        assertNull(result["local"]?.takeUnless { it.isNull })
+        assertEquals("host", context.getVariable("\$g")?.asText())
+    }
+
+    @Test
+    fun readonlyGlobalVariable_CannotBeAssignedInCalledFunction() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            fun writer() {
+                ${'$'}fixed: "changed";
+                return ${'$'}fixed;
+            }
+            fun run() {
+                result: @.This.writer();
+            }
+            """.trimIndent()
+        )
+
+        val context = OperationContext()
+        context.setVariable("\$fixed", TransformVariable(TextNode("original"), readOnly = true, global = true))
+        assertFails { transformer.runTransformSync("run", context) }
+        assertEquals("original", context.getVariable("\$fixed")?.asText())
+    }
+
+    @Test
+    fun annotationFunctionParameters_IncludeInheritedGlobals() {
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            """
+            @Params
+            fun child( ${'$'}a ) {
+                return ${'$'}a;
+            }
+            fun run() {
+                params: @.This.child( "param" );
+            }
+            """.trimIndent()
+        )
+
+        val context = OperationContext()
+        context.setVariable("\$g", TransformVariable(TextNode("host"), readOnly = false, global = true))
+        context.setVariable("\$notGlobal", TextNode("hidden"))
+        context.registerAnnotation("Params") { annotation ->
+            annotation.functionParameters.map { (it as JsonNode).asText() }.sorted().joinToString(",")
+        }
+        val result = transformer.runTransformSync("run", context)!!
+        assertEquals("host,param", result["params"].asText())
+    }
+}
@@ -0,0 +1,110 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.ConvertUtils
+import com.intuit.isl.utils.JsonConvert
+import kotlinx.coroutines.runBlocking
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class BatchTransformTest {
+    private val script = """
+        fun run() {
+            previous: ${'$'}last;
+            ${'$'}last = ${'$'}input.id;
+            id: @.Test.Check( ${'$'}input.id );
+            prefix: ${'$'}config.prefix;
+        }
+    """.trimIndent();
+
+    private fun template(): OperationContext {
+        val context = OperationContext();
+        context.setVariable("\$config", JsonConvert.mapper.readTree("""{ "prefix": "P" }"""));
+        context.registerSyncExtensionMethod("Test.Check") {
+            val id = ConvertUtils.tryParseLong(it.firstParameter) ?: 0;
+            if (id % 10 == 3L)
+                throw IllegalStateException("bad id $id");
+            id
+        };
+        return context;
+    }
+
+    @Test
+    fun batch_ReturnsResultsInOrderAndIsolatesErrors() {
+        val transformer = TransformCompiler().compileIsl("test", script);
+        val inputs = (1..50).map { JsonConvert.mapper.readTree("""{ "id": $it }""") };
+
+        val results = runBlocking { transformer.runTransformBatch("run", template(), inputs, workers = 4) };
+
+        assertEquals(50, results.size);
+        results.forEachIndexed { i, r ->
+            val id = i + 1;
+            if (id % 10 == 3) {
+                assertFalse(r.isSuccess);
+                assertNull(r.result);
+                assertTrue(r.error!!.message!!.contains("bad id $id"), r.error!!.message);
+            } else {
+                assertTrue(r.isSuccess, r.error?.message);
+                assertEquals(id.toLong(), r.result!!["id"].longValue());
+                assertEquals("P", r.result!!["prefix"].textValue());
+                // variables of the previous input on the same worker are gone
+                assertTrue(r.result!!["previous"]?.isNull ?: true, r.result.toString());
+            }
+        }
+    }
+
+    @Test
+    fun batch_MatchesSingleRuns() {
+        val transformer = TransformCompiler().compileIsl("test", script);
+        val inputs = listOf(1, 2, 4).map { JsonConvert.mapper.readTree("""{ "id": $it }""") };
+
+        val results = transformer.runTransformBatchSync("run", template(), inputs);
+
+        inputs.forEachIndexed { i, input ->
+            val context = template();
+            context.setVariable("\$input", input);
+            assertEquals(transformer.runTransformSync("run", context), results[i].result);
+        }
+    }
+
+    @Test
+    fun batch_WritesToTemplateVariablesStayInTheirInput() {
+        val writes = """
+            fun run() {
+                seen: ${'$'}shared.last;
+                ${'$'}shared.last = ${'$'}input.id;
+                ${'$'}shared.nested.ids = ${'$'}input.id;
+                ${'$'}pushed = ${'$'}list | push( ${'$'}input.id );
+                last: ${'$'}shared.last;
+                ids: ${'$'}shared.nested.ids;
+                list: ${'$'}list;
+            }
+        """.trimIndent();
+        val transformer = TransformCompiler().compileIsl("test", writes);
+        val shared = JsonConvert.mapper.readTree("""{ "nested": { "ids": 0 } }""");
+        val list = JsonConvert.mapper.readTree("""[ 0 ]""");
+        val context = OperationContext();
+        context.setVariable("\$shared", shared);
+        context.setVariable("\$list", list);
+        val inputs = (1..40).map { JsonConvert.mapper.readTree("""{ "id": $it }""") };
+
+        val results = runBlocking { transformer.runTransformBatch("run", context, inputs, workers = 4) };
+
+        results.forEachIndexed { i, r ->
+            val id = (i + 1).toLong();
+            assertTrue(r.isSuccess, r.error?.message);
+            // nothing of the other inputs is seen
+            assertTrue(r.result!!["seen"]?.isNull ?: true, r.result.toString());
+            assertEquals(id, r.result!!["last"].longValue());
+            assertEquals(id, r.result!!["ids"].longValue());
+            assertEquals("[0,$id]", r.result!!["list"].toString());
+        }
+        // the template variables are unchanged
+        assertEquals("""{"nested":{"ids":0}}""", shared.toString());
+        assertEquals("[0]", list.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.common.HostBridgeMetrics
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.ConvertUtils
+import kotlinx.coroutines.delay
+import java.util.concurrent.CompletableFuture
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFails
+import kotlin.test.assertTrue
+
+class HostBridgeTest {
+    private val transformer = TransformCompiler().compileIsl(
+        "test",
+        """
+        @Slow
+        fun child() {
+            return @.Test.Quick( "q" );
+        }
+        fun run() {
+            future: @.Test.Future( "f" );
+            done: @.Test.Done( "d" );
+            suspended: @.Test.Suspended( "s" );
+            annotated: @.This.child();
+        }
+        fun failing() {
+            result: @.Test.Failing();
+        }
+        """.trimIndent()
+    );
+
+    private fun context(): OperationContext {
+        val context = OperationContext();
+        context.registerFutureExtensionMethod("Test.Future") {
+            val value = ConvertUtils.tryToString(it.firstParameter);
+            CompletableFuture.supplyAsync {
+                Thread.sleep(20);
+                "future-$value"
+            }
+        };
+        context.registerFutureExtensionMethod("Test.Done") {
+            CompletableFuture.completedFuture("done-${ConvertUtils.tryToString(it.firstParameter)}")
+        };
+        context.registerFutureExtensionMethod("Test.Failing") {
+            CompletableFuture.supplyAsync<Any> { throw IllegalStateException("future failed") }
+        };
+        context.registerExtensionMethod("Test.Suspended") {
+            delay(10);
+            "suspended-${ConvertUtils.tryToString(it.firstParameter)}"
+        };
+        context.registerExtensionMethod("Test.Quick") {
+            "quick-${ConvertUtils.tryToString(it.firstParameter)}"
+        };
+        context.registerAnnotation("Slow") {
+            delay(5);
+            "[${ConvertUtils.tryToString(it.runNextCommand())}]"
+        };
+        return context;
+    }
+
+    @Test
+    fun asyncExtensions_ReturnTheirResults() {
+        val before = HostBridgeMetrics.snapshot();
+
+        val result = transformer.runTransformSync("run", context())!!;
+
+        assertEquals(
+            """{"future":"future-f","done":"done-d","suspended":"suspended-s","annotated":"[quick-q]"}""",
+            result.toString()
+        );
+
+        val after = HostBridgeMetrics.snapshot();
+        assertTrue(after.futureWaited > before.futureWaited, after.toString());
+        assertTrue(after.futureCompleted > before.futureCompleted, after.toString());
+        // the suspended extension and the annotation
+        assertTrue(after.suspendWaited >= before.suspendWaited + 2, after.toString());
+        // the quick extension never suspended
+        assertTrue(after.suspendInline > before.suspendInline, after.toString());
+        assertTrue(after.suspendWaitNanos > before.suspendWaitNanos, after.toString());
+    }
+
+    @Test
+    fun failedFuture_ReportsTheExtensionError() {
+        val error = assertFails { transformer.runTransformSync("failing", context()) };
+
+        assertTrue(error.message!!.contains("future failed"), error.message);
+    }
+}
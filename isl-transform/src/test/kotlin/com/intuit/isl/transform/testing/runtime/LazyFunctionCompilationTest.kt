@@ -0,0 +1,56 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompilationException
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.runtime.Transformer
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertSame
+
+class LazyFunctionCompilationTest {
+    private val script = """
+        fun run() {
+            result: @.This.Helper( 20 );
+        }
+        fun helper( ${'$'}value ) {
+            return {{ ${'$'}value + 1 }};
+        }
+        fun broken() {
+            return @.This.DoesNotExist();
+        }
+    """.trimIndent()
+
+    @Test
+    fun eagerCompile_FailsOnUnusedBrokenFunction() {
+        assertFailsWith<TransformCompilationException> { TransformCompiler().compileIsl("test", script) }
+    }
+
+    @Test
+    fun lazyCompile_OnlyBuildsUsedFunctions() {
+        val transformer = TransformCompiler(lazyFunctions = true).compileIsl("test", script) as Transformer
+
+        assertEquals("""{"result":21}""", transformer.runTransformSync("run", OperationContext()).toString())
+        assertFailsWith<TransformCompilationException> { transformer.module.getFunction("broken") }
+        // a failed function can be retried and still fails the same way
+        assertFailsWith<TransformCompilationException> { transformer.module.getFunction("broken") }
+        assertEquals("""{"result":21}""", transformer.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun lazyCompile_RacingCallersShareOneBuild() {
+        val transformer = TransformCompiler(lazyFunctions = true).compileIsl("test", script) as Transformer
+
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = executor.invokeAll((1..32).map { Callable { transformer.module.getFunction("helper") } })
+                .map { it.get() }
+            results.forEach { assertSame(results[0], it) }
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.common.OperationContextTemplate
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.ConvertUtils
+import com.intuit.isl.utils.JsonConvert
+import java.util.concurrent.Executors
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class OperationContextTemplateTest {
+    private val transformer = TransformCompiler().compileIsl(
+        "test",
+        """
+        @Wrap
+        fun child( ${'$'}id ) {
+            return @.Test.Value( ${'$'}id );
+        }
+        fun run() {
+            id: @.This.child( ${'$'}input.id );
+            name: ${'$'}input.name | test.suffix;
+        }
+        """.trimIndent()
+    );
+
+    private fun template(): OperationContextTemplate {
+        return OperationContext()
+            .registerSyncExtensionMethod("Test.Value") { "v${ConvertUtils.tryToString(it.firstParameter)}" }
+            .registerSyncExtensionMethod("modifier.test.suffix") { "${ConvertUtils.tryToString(it.firstParameter)}-template" }
+            .registerAnnotation("Wrap") { "[${ConvertUtils.tryToString(it.runNextCommand())}]" }
+            .freeze();
+    }
+
+    private fun run(context: OperationContext, id: Int, name: String): String {
+        context.setVariable("\$input", JsonConvert.mapper.readTree("""{ "id": $id, "name": "$name" }"""));
+        return transformer.runTransformSync("run", context).toString();
+    }
+
+    @Test
+    fun newContext_UsesTemplateRegistrations() {
+        val template = template();
+
+        assertEquals("""{"id":"[v1]","name":"a-template"}""", run(template.newContext(), 1, "a"));
+        assertEquals("""{"id":"[v2]","name":"b-template"}""", run(template.newContext(), 2, "b"));
+    }
+
+    @Test
+    fun newContext_OwnRegistrationsWinAndStayLocal() {
+        val template = template();
+        val context = template.newContext();
+        context.registerSyncExtensionMethod("modifier.test.suffix") { "${ConvertUtils.tryToString(it.firstParameter)}-request" };
+
+        assertEquals("""{"id":"[v1]","name":"a-request"}""", run(context, 1, "a"));
+        assertEquals("""{"id":"[v2]","name":"b-template"}""", run(template.newContext(), 2, "b"));
+    }
+
+    @Test
+    fun freeze_OfTemplateContextKeepsTemplateRegistrations() {
+        val context = template().newContext();
+        context.registerSyncExtensionMethod("Test.Value") { "w${ConvertUtils.tryToString(it.firstParameter)}" };
+        context.setVariable("\$ignored", JsonNodeFactory.instance.textNode("x"));
+
+        val template = context.freeze();
+
+        val next = template.newContext();
+        assertEquals("""{"id":"[w1]","name":"a-template"}""", run(next, 1, "a"));
+        assertEquals(null, next.getVariable("\$ignored"));
+    }
+
+    @Test
+    fun link_CallSitesFollowTheTemplateOfTheContext() {
+        val template = template();
+        transformer.link(template);
+        val other = OperationContext()
+            .registerSyncExtensionMethod("Test.Value") { "o${ConvertUtils.tryToString(it.firstParameter)}" }
+            .registerSyncExtensionMethod("modifier.test.suffix") { "${ConvertUtils.tryToString(it.firstParameter)}-other" }
+            .registerAnnotation("Wrap") { "(${ConvertUtils.tryToString(it.runNextCommand())})" }
+            .freeze();
+        val own = template.newContext();
+        own.registerSyncExtensionMethod("Test.Value") { "own" };
+
+        // alternate between templates so the call sites have to move their binding back and forth
+        repeat(3) {
+            assertEquals("""{"id":"[v1]","name":"a-template"}""", run(template.newContext(), 1, "a"));
+            assertEquals("""{"id":"(o2)","name":"b-other"}""", run(other.newContext(), 2, "b"));
+            assertEquals("""{"id":"[own]","name":"c-template"}""", run(own, 3, "c"));
+        }
+    }
+
+    @Test
+    fun newContext_ConcurrentRequests() {
+        val template = template();
+        val executor = Executors.newFixedThreadPool(8);
+        try {
+            val results = (1..200).map { id ->
+                executor.submit<String> { run(template.newContext(), id, "n$id") }
+            }.map { it.get() };
+
+            results.forEachIndexed { i, r ->
+                val id = i + 1;
+                assertEquals("""{"id":"[v$id]","name":"n$id-template"}""", r);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.runtime.ParallelScheduler
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.CsvSource
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class ParallelSchedulerTest {
+    @ParameterizedTest
+    @CsvSource("1,0,true", "4,0,true", "4,1,false", "4,7,false", "16,3,true")
+    fun map_KeepsSourceOrder(workers: Int, chunk: Int, knownSize: Boolean) {
+        val source = (0 until 500).toList();
+
+        val result = ParallelScheduler.map(
+            source.iterator(), if (knownSize) source.size else -1, workers, chunk, false, { Unit }
+        ) { _, index, value ->
+            assertEquals(index, value);
+            if (index % 50 == 0) Thread.sleep(2);
+            (value as Int) * 2
+        };
+
+        assertEquals(source.map { it * 2 }, result);
+    }
+
+    @Test
+    fun map_ReusesOneStatePerWorker() {
+        val created = AtomicInteger();
+
+        ParallelScheduler.map((1..200).iterator(), 200, 4, 1, false, { created.incrementAndGet() }) { _, _, _ -> 1 };
+
+        assertTrue(created.get() in 1..4, "created ${created.get()} worker states");
+    }
+
+    @Test
+    fun map_ThrowsFirstFailureInSourceOrder() {
+        val error = assertFailsWith<IllegalStateException> {
+            ParallelScheduler.map((0 until 100).iterator(), 100, 4, 1, false, { Unit }) { _, index, _ ->
+                if (index == 10 || index == 90) throw IllegalStateException("failed $index");
+                index
+            }
+        };
+        assertEquals("failed 10", error.message);
+    }
+
+    @Test
+    fun map_CancelOnErrorStopsTakingElements() {
+        val started = AtomicInteger();
+
+        assertFailsWith<IllegalStateException> {
+            ParallelScheduler.map((0 until 10_000).iterator(), -1, 2, 1, true, { Unit }) { _, index, _ ->
+                started.incrementAndGet();
+                if (index == 5) throw IllegalStateException("failed");
+                Thread.sleep(1);
+                index
+            }
+        };
+        assertTrue(started.get() < 100, "kept going after the error: ${started.get()}");
+    }
+}
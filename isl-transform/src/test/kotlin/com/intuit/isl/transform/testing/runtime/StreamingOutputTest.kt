@@ -0,0 +1,82 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.utils.JsonConvert
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import java.io.ByteArrayOutputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class StreamingOutputTest {
+    private val input = """{ "amount": 125, "flag": true, "items": [ 1, 2, 3 ], "info": { "x": 1 } }""";
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = [
+            // plain properties and a streamed loop
+            "fun run() { a: 1; items: foreach \$i in \$input.items { id: \$i } endfor; b: \$input.amount; }",
+            // nested properties merge into the earlier one
+            "fun run() { total.amount: \$input.amount; id: 1; total.currency: \"USD\"; }",
+            // if/else appends properties
+            "fun run() { a: 1; if ( \$input.flag ) b: 2; else c: 3; endif d: 4; }",
+            // in place change of a value that is already in the output
+            "fun run() { \$info = \$input.info; info: \$info; \$info.y = 2; last: 1; }",
+            // modifiers changing a value that is already in the output
+            "fun run() { \$list = [ 1 ]; a: \$list; \$x = \$list | push( 2 ); b: 1; }",
+            "fun run() { a: \$input.items; \$x = \$input.items | if ( 1 == 1 ) push( 4 ); b: 1; }",
+            // a later property with the same name replaces the earlier one
+            "fun run() { a: 1; items: foreach \$i in \$input.items \$i endfor; a: 2; }",
+            // spreads and function calls
+            "fun more(\$v) { return { v: \$v }; } fun run() { ...\$input.info; m: @.This.more( 2 ); items: foreach \$i in \$input.items \$i endfor; }",
+            // returns are not streamed
+            "fun run() { a: 1; if ( \$input.flag ) return { r: 1 }; endif b: 2; }",
+            "fun run() { return [ 1, 2 ]; }"
+        ]
+    )
+    fun stream_WritesTheSameResult(script: String) {
+        val transformer = TransformCompiler().compileIsl("test", script);
+
+        val expected = transformer.runTransformSync("run", context()).toString();
+
+        val output = ByteArrayOutputStream();
+        transformer.runTransformStreamSync("run", context(), output);
+
+        assertEquals(JsonConvert.mapper.readTree(expected), JsonConvert.mapper.readTree(output.toByteArray()));
+        // same property order as well
+        assertEquals(expected, JsonConvert.mapper.readTree(output.toByteArray()).toString());
+    }
+
+    @Test
+    fun stream_WritesLoopElementsAsTheyAreProduced() {
+        val output = ByteArrayOutputStream();
+        val generator = JsonConvert.mapper.factory.createGenerator(output);
+        val seen = ArrayList<Int>();
+
+        val context = context();
+        context.registerSyncExtensionMethod("Test.Written") {
+            generator.flush();
+            seen.add(output.size());
+            output.size()
+        };
+
+        val transformer = TransformCompiler().compileIsl(
+            "test",
+            "fun run() { items: foreach \$i in \$input.items { id: \$i, written: @.Test.Written() } endfor }"
+        );
+        transformer.runTransformStreamSync("run", context, generator);
+        generator.close();
+
+        assertEquals(3, seen.size);
+        assertTrue(seen[0] < seen[1] && seen[1] < seen[2], "elements were not written as produced: $seen");
+        assertEquals(3, JsonConvert.mapper.readTree(output.toByteArray())["items"].size());
+    }
+
+    private fun context(): OperationContext {
+        val context = OperationContext();
+        context.setVariable("\$input", JsonConvert.mapper.readTree(input));
+        return context;
+    }
+}
@@ -0,0 +1,139 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.commands.CompiledCommand
+import com.intuit.isl.commands.CoverageStatementIdAssigner
+import com.intuit.isl.commands.FunctionDeclarationCommand
+import com.intuit.isl.commands.IIslCommand
+import com.intuit.isl.commands.InlinedFunctionCallCommand
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TieredExecution
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.runtime.Transformer
+import java.util.IdentityHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class TieredExecutionTest {
+    private val script = """
+        fun run() {
+            ${'$'}items: [ 1, 2, 3 ];
+            result: foreach ${'$'}i in ${'$'}items {
+                id: ${'$'}i
+            }
+            endfor
+        }
+        fun idle() {
+            return 1;
+        }
+    """.trimIndent()
+
+    @Test
+    fun hotFunction_IsPromoted() {
+        val events = mutableListOf<TieredExecution.PromotionEvent>()
+        val tiering = TieredExecution(invocationThreshold = 5, executor = Executor { it.run() }) { events.add(it) }
+        val transformer = TransformCompiler().compileIsl("test", script) as Transformer
+        transformer.tieredExecution = tiering
+        val expected = transformer.runTransformSync("run", OperationContext()).toString()
+        repeat(9) {
+            assertEquals(expected, transformer.runTransformSync("run", OperationContext()).toString())
+        }
+
+        val profiles = transformer.getFunctionProfiles()
+        assertEquals(10, profiles["run"]!!.invocations)
+        // the 5th call promotes before running, the compiled loops keep counting their iterations
+        assertEquals(30, profiles["run"]!!.backEdges)
+        assertTrue(profiles["run"]!!.promoted)
+        assertFalse(profiles["idle"]!!.promoted)
+
+        assertEquals(1, tiering.stats.promotions)
+        assertEquals(listOf("run"), events.map { it.functionName })
+        assertTrue(events[0].compiled)
+    }
+
+    @Test
+    fun loopHeavyFunction_IsPromotedOnBackEdges() {
+        val tiering = TieredExecution(invocationThreshold = 1_000, backEdgeThreshold = 3, executor = Executor { it.run() })
+        val transformer = TransformCompiler().compileIsl("test", script) as Transformer
+        transformer.tieredExecution = tiering
+        transformer.runTransformSync("run", OperationContext())
+
+        assertTrue(transformer.getFunctionProfiles()["run"]!!.promoted)
+    }
+
+    @Test
+    fun disabledTiering_DoesNotCount() {
+        val transformer = TransformCompiler().compileIsl("test", script) as Transformer
+        transformer.runTransformSync("run", OperationContext())
+
+        assertEquals(0, transformer.getFunctionProfiles()["run"]!!.invocations)
+        assertFalse(transformer.getFunctionProfiles()["run"]!!.promoted)
+    }
+
+    @Test
+    fun tiering_OnlyAppliesToItsTransformer() {
+        val tiering = TieredExecution(invocationThreshold = 1, executor = Executor { it.run() })
+        val tiered = TransformCompiler().compileIsl("test", script) as Transformer
+        val other = TransformCompiler().compileIsl("test", script) as Transformer
+        tiered.tieredExecution = tiering
+
+        tiered.runTransformSync("run", OperationContext())
+        other.runTransformSync("run", OperationContext())
+
+        assertTrue(tiered.getFunctionProfiles()["run"]!!.promoted)
+        assertEquals(0, other.getFunctionProfiles()["run"]!!.invocations)
+        assertFalse(other.getFunctionProfiles()["run"]!!.promoted)
+    }
+
+    @Test
+    fun promotedFunction_RunsTheOptimizedBody() {
+        val script = """
+            fun double( ${'$'}value ) {
+                return {{ ${'$'}value * 2 }};
+            }
+            fun run() {
+                a: @.This.double( 2 );
+            }
+        """.trimIndent()
+
+        for (optimizer in listOf(CommandOptimizer.recommended, CommandOptimizer.none)) {
+            val transformer = TransformCompiler().compileIsl("test", script) as Transformer
+            transformer.tieredExecution = TieredExecution(invocationThreshold = 1, optimizer = optimizer, executor = Executor { it.run() })
+            assertEquals("""{"a":4}""", transformer.runTransformSync("run", OperationContext()).toString())
+            assertEquals("""{"a":4}""", transformer.runTransformSync("run", OperationContext()).toString())
+
+            val run = transformer.module.getFunction("run") as FunctionDeclarationCommand
+            assertTrue(run.profile.promoted)
+            // the interpreted body stays as the module built it
+            assertEquals(0, inlinedCalls(run.statements))
+            assertEquals(if (optimizer === CommandOptimizer.none) 0 else 1, inlinedCalls(run.compiledStatements!!), optimizer.toString())
+        }
+    }
+
+    private fun inlinedCalls(command: IIslCommand): Int {
+        var count = 0
+        CoverageStatementIdAssigner.walkCommandGraph(command, IdentityHashMap()) {
+            if (it is InlinedFunctionCallCommand) count++
+            if (it is CompiledCommand) count += inlinedCalls(it.original)
+        }
+        return count
+    }
+
+    @Test
+    fun defaultExecutor_IsADedicatedDaemonThread() {
+        val threads = LinkedBlockingQueue<Thread>()
+        val transformer = TransformCompiler().compileIsl("test", script) as Transformer
+        transformer.tieredExecution = TieredExecution(invocationThreshold = 1) { threads.add(Thread.currentThread()) }
+
+        transformer.runTransformSync("run", OperationContext())
+
+        val thread = threads.poll(5, TimeUnit.SECONDS)!!
+        assertEquals("isl-tiered-compiler", thread.name)
+        assertTrue(thread.isDaemon)
+    }
+}
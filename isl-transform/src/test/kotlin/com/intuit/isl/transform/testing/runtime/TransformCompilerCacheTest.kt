@@ -0,0 +1,136 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.commands.builder.CommandOptimizer
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.FileInfo
+import com.intuit.isl.runtime.TieredExecution
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.runtime.TransformCompilerCache
+import com.intuit.isl.runtime.TransformPackageBuilder
+import com.intuit.isl.runtime.Transformer
+import java.util.concurrent.Executor
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class TransformCompilerCacheTest {
+    private val script = """
+        fun run() {
+            result: 42
+        }
+    """.trimIndent()
+
+    @Test
+    fun sameSource_ReusesTheParsedModule() {
+        val cache = TransformCompilerCache()
+        val compiler = TransformCompiler(cache)
+
+        val first = compiler.compileIsl("test", script)
+        val second = compiler.compileIsl("test", script)
+
+        assertNotSame(first, second)
+        assertSame(cache.getOrParse("test", script), cache.getOrParse("test", script))
+        assertEquals(3, cache.stats.hits)
+        assertEquals(1, cache.stats.misses)
+        assertEquals("""{"result":42}""", first.runTransformSync("run", OperationContext()).toString())
+        assertEquals("""{"result":42}""", second.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun differentSourceOrName_Reparses() {
+        val cache = TransformCompilerCache()
+        val compiler = TransformCompiler(cache)
+
+        compiler.compileIsl("test", script)
+        compiler.compileIsl("other", script)
+        val changed = compiler.compileIsl("test", script.replace("42", "43"))
+
+        assertEquals(3, cache.stats.misses)
+        assertEquals("""{"result":43}""", changed.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun changedImport_IsUsedByTheCachedImporter() {
+        val cache = TransformCompilerCache()
+        val main = """
+            import Common from 'common.isl';
+            fun run() {
+                result: @.Common.Value();
+            }
+        """.trimIndent()
+
+        val v1 = TransformPackageBuilder(cache).build(
+            mutableListOf(FileInfo("main.isl", main), FileInfo("common.isl", "fun value() { return 1; }"))
+        )
+        val v2 = TransformPackageBuilder(cache).build(
+            mutableListOf(FileInfo("main.isl", main), FileInfo("common.isl", "fun value() { return 2; }"))
+        )
+
+        // main.isl was only parsed once
+        assertEquals(3, cache.stats.misses)
+        assertEquals(1, cache.stats.hits)
+        assertEquals(
+            """{"result":1}""",
+            v1.getModule("main.isl")!!.runTransformSync("run", OperationContext()).toString()
+        )
+        assertEquals(
+            """{"result":2}""",
+            v2.getModule("main.isl")!!.runTransformSync("run", OperationContext()).toString()
+        )
+    }
+
+    @Test
+    fun differentCompilerSettings_ShareOnlyTheParsedModule() {
+        val cache = TransformCompilerCache()
+        val standard = TransformCompiler(cache).compileIsl("test", script)
+        val lazy = TransformCompiler(cache, lazyFunctions = true).compileIsl("test", script)
+        val none = TransformCompiler(cache, optimizer = CommandOptimizer.none).compileIsl("test", script)
+
+        assertNotSame(standard, lazy)
+        assertNotSame(standard, none)
+        assertEquals(1, cache.stats.misses)
+        assertEquals(2, cache.stats.hits)
+        for (transformer in listOf(standard, lazy, none))
+            assertEquals("""{"result":42}""", transformer.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun cachedCompiles_DoNotShareRuntimeState() {
+        val cache = TransformCompilerCache()
+        val compiler = TransformCompiler(cache)
+        val first = compiler.compileIsl("test", script) as Transformer
+        val second = compiler.compileIsl("test", script) as Transformer
+
+        first.tieredExecution = TieredExecution(invocationThreshold = 1, executor = Executor { it.run() })
+        first.runTransformSync("run", OperationContext())
+        second.runTransformSync("run", OperationContext())
+
+        assertNull(second.tieredExecution)
+        assertTrue(first.getFunctionProfiles()["run"]!!.promoted)
+        assertFalse(second.getFunctionProfiles()["run"]!!.promoted)
+        assertEquals(0, second.getFunctionProfiles()["run"]!!.invocations)
+    }
+
+    @Test
+    fun sizeAndWeightLimits_Evict() {
+        val bySize = TransformCompilerCache(maxEntries = 2)
+        val compiler = TransformCompiler(bySize)
+        compiler.compileIsl("a", script)
+        compiler.compileIsl("b", script)
+        compiler.compileIsl("c", script)
+        assertEquals(2, bySize.stats.entries)
+        assertEquals(1, bySize.stats.evictions)
+
+        val byWeight = TransformCompilerCache(maxWeight = script.length * 2L)
+        val weighted = TransformCompiler(byWeight)
+        weighted.compileIsl("a", script)
+        weighted.compileIsl("b", script)
+        weighted.compileIsl("c", script)
+        assertEquals(2, byWeight.stats.entries)
+        assertEquals(script.length * 2L, byWeight.stats.weight)
+    }
+}
@@ -0,0 +1,86 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.FileInfo
+import com.intuit.isl.runtime.TransformCompilationException
+import com.intuit.isl.runtime.TransformPackageBuilder
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class TransformPackageBuilderTest {
+    @Test
+    fun diamondImports_CompileOnceInDependencyOrder() {
+        val files = mutableListOf(
+            FileInfo("main.isl", """
+                import Left from 'left.isl';
+                import Right from 'right.isl';
+                fun run() {
+                    ${'$'}left = @.Left.Value();
+                    ${'$'}right = @.Right.Value();
+                    result: {{ ${'$'}left + ${'$'}right }};
+                }
+            """.trimIndent()),
+            FileInfo("left.isl", """
+                import Base from 'base.isl';
+                fun value() { ${'$'}base = @.Base.Value(); return {{ ${'$'}base + 1 }}; }
+            """.trimIndent()),
+            FileInfo("right.isl", """
+                import Base from 'base.isl';
+                fun value() { ${'$'}base = @.Base.Value(); return {{ ${'$'}base + 2 }}; }
+            """.trimIndent()),
+            FileInfo("base.isl", "fun value() { return 10; }")
+        )
+
+        val p = TransformPackageBuilder().build(files)
+
+        assertEquals(4, p.modules.size)
+        assertEquals("""{"result":23}""", p.getModule("main.isl")!!.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun externalModules_AreAddedToFiles() {
+        val files = mutableListOf(
+            FileInfo("main.isl", """
+                import Common from 'common.isl';
+                fun run() { result: @.Common.Value(); }
+            """.trimIndent())
+        )
+
+        val p = TransformPackageBuilder().build(files) { _, name ->
+            assertEquals("common.isl", name)
+            "fun value() { return 5; }"
+        }
+
+        assertEquals(listOf("main.isl", "common.isl"), files.map { it.name })
+        assertEquals("""{"result":5}""", p.getModule("main.isl")!!.runTransformSync("run", OperationContext()).toString())
+    }
+
+    @Test
+    fun circularImports_AreReported() {
+        val files = mutableListOf(
+            FileInfo("a.isl", "import B from 'b.isl';\nfun run() { return 1; }"),
+            FileInfo("b.isl", "import C from 'c.isl';\nfun run() { return 1; }"),
+            FileInfo("c.isl", "import A from 'a.isl';\nfun run() { return 1; }")
+        )
+
+        val error = assertFailsWith<TransformCompilationException> { TransformPackageBuilder().build(files) }
+        assertTrue(error.message!!.startsWith("Circular Dependency Between Modules: a.isl > b.isl > c.isl > a.isl."), error.message)
+    }
+
+    @Test
+    fun multipleFailures_ReportFirstModuleInFileOrder() {
+        val duplicate = "fun value() { return 1; }\nfun value() { return 2; }"
+        val files = mutableListOf(
+            FileInfo("main.isl", "import Second from 'second.isl';\nfun run() { return 1; }"),
+            FileInfo("first.isl", duplicate),
+            FileInfo("second.isl", duplicate)
+        )
+
+        repeat(5) {
+            val error = assertFailsWith<TransformCompilationException> { TransformPackageBuilder().build(files.toMutableList()) }
+            assertTrue(error.message!!.startsWith("Module first.isl contains more than one function"), error.message)
+        }
+    }
+}
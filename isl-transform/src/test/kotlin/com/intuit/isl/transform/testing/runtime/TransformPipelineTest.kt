@@ -0,0 +1,118 @@
+package com.intuit.isl.transform.testing.runtime
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import com.intuit.isl.runtime.TransformPipeline
+import com.intuit.isl.utils.ConvertUtils
+import com.intuit.isl.utils.JsonConvert
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.jdk9.asFlow
+import kotlinx.coroutines.jdk9.asPublisher
+import kotlinx.coroutines.runBlocking
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class TransformPipelineTest {
+    private val transformer = TransformCompiler().compileIsl(
+        "test",
+        """
+        fun run() {
+            id: @.Test.Slow( ${'$'}input.id );
+        }
+        """.trimIndent()
+    );
+
+    private fun context(): OperationContext {
+        val context = OperationContext();
+        context.registerSyncExtensionMethod("Test.Slow") {
+            val id = ConvertUtils.tryParseLong(it.firstParameter) ?: 0;
+            if (id == 7L)
+                throw IllegalStateException("bad id");
+            // later inputs finish first
+            Thread.sleep(20 - id % 5 * 4);
+            id
+        };
+        return context;
+    }
+
+    private fun input(id: Int): JsonNode = JsonConvert.mapper.readTree("""{ "id": $id }""");
+
+    @Test
+    fun ordered_EmitsInInputOrder() {
+        val results = runBlocking {
+            TransformPipeline(transformer, "run", context(), concurrency = 4)
+                .transform((1..20).asFlow().map { input(it) })
+                .toList()
+        };
+
+        assertEquals((0 until 20).toList(), results.map { it.index });
+        results.forEach {
+            if (it.index == 6) {
+                assertFalse(it.isSuccess);
+            } else {
+                assertEquals(it.index + 1L, it.result!!["id"].longValue());
+            }
+        }
+    }
+
+    @Test
+    fun unordered_EmitsEveryResultOnce() {
+        val results = runBlocking {
+            TransformPipeline(transformer, "run", context(), concurrency = 4, ordered = false)
+                .transform((1..20).asFlow().map { input(it) })
+                .toList()
+        };
+
+        assertEquals((0 until 20).toList(), results.map { it.index }.sorted());
+        assertEquals(19, results.count { it.isSuccess });
+    }
+
+    @Test
+    fun slowDownstream_HoldsBackTheSource() {
+        val produced = AtomicInteger();
+        var consumed = 0;
+        var maxAhead = 0;
+        val source = flow {
+            for (i in 1..30) {
+                produced.incrementAndGet();
+                emit(input(i));
+            }
+        };
+
+        runBlocking {
+            TransformPipeline(transformer, "run", context(), concurrency = 3)
+                .transform(source)
+                .collect {
+                    consumed++;
+                    maxAhead = maxOf(maxAhead, produced.get() - consumed);
+                    delay(10);
+                }
+        };
+
+        assertEquals(30, consumed);
+        // in flight, plus the input waiting for a free slot
+        assertTrue(maxAhead <= 3, "source ran $maxAhead inputs ahead");
+    }
+
+    @Test
+    fun publisher_TransformsPublishedInputs() {
+        val publisher = (1..5).asFlow().map { input(it) }.asPublisher();
+
+        val results = runBlocking {
+            TransformPipeline(transformer, "run", context(), concurrency = 2)
+                .transform(publisher)
+                .asFlow()
+                .toList()
+        };
+
+        assertEquals(listOf(1L, 2L, 3L, 4L, 5L), results.map { it.result!!["id"].longValue() });
+    }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import com.fasterxml.jackson.module.kotlin.readValue
 import com.intuit.isl.common.OperationContext
+import com.intuit.isl.parser.IslModuleSerializer
+import com.intuit.isl.parser.TransformParser
 import com.intuit.isl.runtime.FileInfo
 import com.intuit.isl.runtime.TransformProjectBuilder
 import com.intuit.isl.runtime.TransformProjectManifest
@@ -11,12 +13,17 @@ import com.intuit.isl.runtime.Transformer
 import kotlinx.coroutines.future.await
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
+import java.io.File
 import java.util.concurrent.CompletableFuture
+import java.util.zip.ZipEntry
 import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
 import kotlin.test.Test
 import kotlin.test.assertContains
 import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
 
 class TransformProjectTest {
     private val script = """
@@ -140,4 +147,109 @@ class TransformProjectTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun inputIslProject_ParseProject_UsesPrecompiledTokens() {
+        val builder = TransformProjectBuilder("test-version")
+        ByteArrayOutputStream().use { t ->
+            val project = builder.writeProject(scripts, projectVersion, t, precompile = true)
+            assertContains(project.precompiled, scriptName)
+
+            val projectFile = t.toByteArray()
+            var foundCompiled = false
+            var manifest: JsonNode? = null
+            ZipInputStream(ByteArrayInputStream(projectFile)).use { zip ->
+                generateSequence { zip.nextEntry }.forEach { entry ->
+                    if (entry.name == "META-INF/isl-compiled/$scriptName") foundCompiled = true
+                    if (entry.name == "manifest.json") manifest = jacksonObjectMapper().readTree(zip.readBytes())
+                }
+            }
+            assertTrue(foundCompiled)
+            // older versions read the manifest strictly, it must not get new fields
+            assertEquals(setOf("files", "islVersion", "projectVersion"), manifest!!.fieldNames().asSequence().toSet())
+
+            val transformPackage = builder.readProject(ByteArrayInputStream(projectFile))
+            assertNotNull(transformPackage)
+            val result = transformPackage.runTransformNew("${scriptName}:run", OperationContext())
+            assertEquals(123, result!!["prop1"].asInt())
+        }
+    }
+
+    @Test
+    fun writeProject_DoesNotPrecompileByDefault() {
+        ByteArrayOutputStream().use { t ->
+            val project = TransformProjectBuilder("test-version").writeProject(scripts, projectVersion, t)
+            assertTrue(project.precompiled.isEmpty())
+            assertEquals(listOf(scriptName, "manifest.json"), entryNames(t.toByteArray()))
+        }
+    }
+
+    @Test
+    fun precompiledTokens_AreOnlyTrustedForAKnownVersion() {
+        // the tree of another script under the name of test.isl tells which one was loaded
+        val other = TransformParser().parseTransform(scriptName, "fun run() { return { prop1: 456 }; }")
+
+        for ((version, expected) in listOf("test-version" to 456, "Unknown" to 123)) {
+            val tree = ByteArrayOutputStream()
+            IslModuleSerializer.write(other, version, tree)
+            val archive = ByteArrayOutputStream()
+            ZipOutputStream(archive).use { zip ->
+                zip.putNextEntry(ZipEntry(scriptName))
+                zip.write(script.toByteArray())
+                zip.putNextEntry(ZipEntry("META-INF/isl-compiled/$scriptName"))
+                zip.write(tree.toByteArray())
+                zip.putNextEntry(ZipEntry("manifest.json"))
+                zip.write(jacksonObjectMapper().writeValueAsBytes(TransformProjectManifest(setOf(scriptName), version, projectVersion)))
+            }
+
+            val transformPackage = TransformProjectBuilder(version).readProject(ByteArrayInputStream(archive.toByteArray()))
+            val result = transformPackage!!.runTransformNew("${scriptName}:run", OperationContext())
+            assertEquals(expected, result!!["prop1"].asInt(), version)
+        }
+
+        // nothing is precompiled without a known version either
+        ByteArrayOutputStream().use { t ->
+            val project = TransformProjectBuilder("Unknown").writeProject(scripts, projectVersion, t, precompile = true)
+            assertTrue(project.precompiled.isEmpty())
+        }
+    }
+
+    @Test
+    fun userFilesUnderTheCompiledFolder_AreSources() {
+        val shadow = "META-INF/isl-compiled/$scriptName"
+        val files = listOf(FileInfo(scriptName, script), FileInfo(shadow, "fun run() { return { prop1: 456 }; }"))
+        val builder = TransformProjectBuilder("test-version")
+        ByteArrayOutputStream().use { t ->
+            val project = builder.writeProject(files, projectVersion, t, precompile = true)
+            assertContains(project.precompiled, shadow)
+            assertTrue(!project.precompiled.contains(scriptName))
+
+            val transformPackage = builder.readProject(ByteArrayInputStream(t.toByteArray()))
+            assertNotNull(transformPackage)
+            assertEquals(123, transformPackage.runTransformNew("${scriptName}:run", OperationContext())!!["prop1"].asInt())
+            assertEquals(456, transformPackage.runTransformNew("${shadow}:run", OperationContext())!!["prop1"].asInt())
+        }
+    }
+
+    private fun entryNames(archive: ByteArray): List<String> {
+        ZipInputStream(ByteArrayInputStream(archive)).use { zip ->
+            return generateSequence { zip.nextEntry }.map { it.name }.toList()
+        }
+    }
+
+    @Test
+    fun precompiledTokens_RoundTrip_MatchParsedTokens() {
+        val complexScript = File("./src/test/resources/perf/shopify.transform.isl").readText()
+
+        val parsed = TransformParser().parseTransform("shopify.transform.isl", complexScript)
+        val output = ByteArrayOutputStream()
+        IslModuleSerializer.write(parsed, Transformer.version, output)
+
+        val loaded = IslModuleSerializer.read(ByteArrayInputStream(output.toByteArray()), Transformer.version)
+        assertNotNull(loaded)
+        assertEquals(parsed.toPrettyString(0), loaded.toPrettyString(0))
+
+        // a different ISL version must not be trusted
+        assertNull(IslModuleSerializer.read(ByteArrayInputStream(output.toByteArray()), "other-version"))
+    }
+}
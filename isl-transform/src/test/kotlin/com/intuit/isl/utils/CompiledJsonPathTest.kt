@@ -0,0 +1,88 @@
+package com.intuit.isl.utils
+
+import com.intuit.isl.commands.VariableWithPathSelectorValueCommand
+import com.jayway.jsonpath.InvalidPathException
+import com.jayway.jsonpath.JsonPath
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class CompiledJsonPathTest {
+    private val configuration = VariableWithPathSelectorValueCommand.configuration
+
+    private val document = JsonConvert.mapper.readTree(
+        """
+        {
+            "store": {
+                "name": "corner",
+                "book": [
+                    { "category": "reference", "author": "Rees", "price": 8.95, "tags": [ "a", "b" ] },
+                    { "category": "fiction", "author": "Waugh", "price": 12, "isbn": null },
+                    { "category": "fiction", "author": "Melville", "price": 8.99, "isbn": "0-553" },
+                    { "category": "fiction", "author": "Tolkien", "price": 22.99, "available": true }
+                ],
+                "bicycle": { "color": "red", "price": 19.95 }
+            },
+            "numbers": [ 1, 2, 3, 4, 5 ],
+            "first name": "x"
+        }
+        """.trimIndent()
+    )
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = [
+            "$", "$.store.name", "store.name", "$.store.missing", "$.store.missing.deeper", "$['first name']",
+            "$.store.book[0].author", "$.store.book[-1].author", "$.store.book[10]", "$.store.book[10].author",
+            "$.store.book[0,2].author", "$.numbers[1]", "$.numbers[-2]", "[0]", "$.store.name[0]",
+            "$.store.*", "$.store.book[*].author", "$.store.book[*].isbn", "$.store.book.*.price", "$.numbers[*]",
+            "$.numbers[1:3]", "$.numbers[:2]", "$.numbers[-2:]", "$.numbers[3:]", "$.numbers[:-1]", "$.numbers[4:2]",
+            "$..price", "$..author", "$..isbn", "$..book[1].author", "$..tags",
+            "$.store.book[?(@.price < 10)].author", "$.store.book[?(@.category == 'fiction' && @.price > 10)].author",
+            "$.store.book[?(@.category == 'reference' || @.available == true)]", "$.store.book[?(@.isbn == null)].author",
+            "$.store.book[?(@.isbn != null)].author", "$.numbers[?(@ >= 3)]", "$.store.bicycle[?(@.color == 'red')]",
+            "$.store.book[?(@['author'] > 'S')].price"
+        ]
+    )
+    fun nativeRead_MatchesJayway(path: String) {
+        val compiled = CompiledJsonPath.compile(path)
+        assertTrue(compiled.isNative, "$path should run natively")
+
+        val expected = JsonPath.compile(path).read<Any?>(document, configuration)
+        val actual = compiled.read(document, configuration)
+        assertEquals(JsonConvert.convert(expected), JsonConvert.convert(actual), path)
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = [
+            "$.store.book.length()", "$.store['name','bicycle']", "$.store.book[?(@.isbn)]",
+            "$.store.book[?(@.author =~ /.*lkien/)]", "$.numbers[-3:-1]", "$..*"
+        ]
+    )
+    fun unsupportedSyntax_FallsBackToJayway(path: String) {
+        val compiled = CompiledJsonPath.compile(path)
+        assertFalse(compiled.isNative, "$path should use Jayway")
+
+        val expected = JsonPath.compile(path).read<Any?>(document, configuration)
+        assertEquals(JsonConvert.convert(expected), JsonConvert.convert(compiled.read(document, configuration)), path)
+    }
+
+    @Test
+    fun mixedTypeComparison_FallsBackToJayway() {
+        val items = JsonConvert.mapper.readTree("""[ { "id": "1" }, { "id": "2" }, { "id": 3 } ]""")
+        val path = "$[?(@.id == 1)]"
+
+        val expected = JsonPath.compile(path).read<Any?>(items, configuration)
+        assertEquals(JsonConvert.convert(expected), JsonConvert.convert(CompiledJsonPath.compile(path).read(items, configuration)))
+    }
+
+    @Test
+    fun invalidPath_Throws() {
+        assertFailsWith<InvalidPathException> { CompiledJsonPath.compile("$.store.") }
+    }
+}
@@ -0,0 +1,107 @@
+package com.intuit.isl.utils
+
+import com.fasterxml.jackson.core.JsonParser
+import com.intuit.isl.common.OperationContext
+import com.intuit.isl.runtime.TransformCompiler
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import kotlin.test.assertEquals
+import kotlin.test.assertFails
+import kotlin.test.assertTrue
+
+class StreamingJsonInputTest {
+    private val document = """
+        {
+            "name": "export",
+            "records": [ { "id": 1, "amount": 10 }, { "id": 2, "amount": 20 }, { "id": 3, "amount": 30 } ],
+            "data": { "kind": "rows", "rows": [ "a", "b" ] },
+            "footer": { "count": 3 }
+        }
+    """.trimIndent();
+
+    private var opened = 0;
+    private val parsers = ArrayList<JsonParser>();
+
+    private fun read(vararg paths: String) = StreamingJsonInput.read({
+        opened++;
+        JsonConvert.mapper.factory.createParser(document.toByteArray()).also { synchronized(parsers) { parsers.add(it) } }
+    }, paths.toList());
+
+    @Test
+    fun streamedArray_IsPlaceholderAndOtherFieldsAreLoaded() {
+        val input = read("records", "data.rows");
+
+        assertTrue(input["records"] is StreamingArrayNode);
+        assertTrue(input["data"]["rows"] is StreamingArrayNode);
+        assertEquals("export", input["name"].textValue());
+        assertEquals("rows", input["data"]["kind"].textValue());
+        assertEquals(3, input["footer"]["count"].intValue());
+        assertEquals(1, opened);
+    }
+
+    @Test
+    fun streamedArray_SerializesAsTheWholeArray() {
+        val input = read("records", "data.rows");
+
+        assertEquals(JsonConvert.mapper.readTree(document), JsonConvert.mapper.readTree(input.toString()));
+    }
+
+    @Test
+    fun foreach_PullsElementsFromTheSource() {
+        val script = """
+            fun run() {
+                name: ${'$'}input.name;
+                ids: foreach ${'$'}r in ${'$'}input.records
+                    {{ ${'$'}r.amount * 2 }}
+                endfor;
+                rows: foreach ${'$'}r in ${'$'}input.data.rows
+                    { v: ${'$'}r, i: ${'$'}rIndex }
+                endfor;
+                count: ${'$'}input.footer.count;
+            }
+        """.trimIndent();
+
+        val transformer = TransformCompiler().compileIsl("test", script);
+        val context = OperationContext();
+        context.setVariable("\$input", read("records", "data.rows"));
+
+        val result = transformer.runTransformSync("run", context).toString();
+        assertEquals("""{"name":"export","ids":[20,40,60],"rows":[{"v":"a","i":0},{"v":"b","i":1}],"count":3}""", result);
+        // one pass to load the document, one per loop
+        assertEquals(3, opened);
+    }
+
+    @Test
+    fun missingPath_IsLoadedAsUsual() {
+        val input = read("footer", "nothing");
+
+        assertEquals(3, input["footer"]["count"].intValue());
+        assertEquals(3, input["records"].size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = [
+            "foreach \$r in \$input.records @.Test.Check( \$r.id ) endfor",
+            "parallel { workers: 2, cancelOnError: true } foreach \$r in \$input.records @.Test.Check( \$r.id ) endfor"
+        ]
+    )
+    fun failingLoop_ClosesTheSource(loop: String) {
+        val transformer = TransformCompiler().compileIsl("test", "fun run() { ids: $loop; }");
+        val context = OperationContext();
+        context.setVariable("\$input", read("records"));
+        context.registerSyncExtensionMethod("Test.Check") {
+            if (ConvertUtils.tryToString(it.firstParameter) == "1")
+                throw IllegalStateException("stop");
+            it.firstParameter
+        };
+
+        context.maxParallelWorkers = 4;
+
+        assertFails { transformer.runTransformSync("run", context) };
+
+        assertEquals(2, parsers.size);
+        assertTrue(parsers.all { it.isClosed }, "the streamed array was left open");
+    }
+}